@@ -0,0 +1,307 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli.codegen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import picocli.CommandLine;
+
+/**
+ * Annotation processor that generates a {@link CommandLine.ICommandDescriptor} for every class that has a
+ * {@code @Command} annotation or declares fields annotated with {@code @Option} or {@code @Parameters}.
+ * <p>
+ * At runtime, picocli uses the generated descriptor instead of discovering these annotations by reflection, and
+ * accesses the non-private, non-final annotated fields through the generated code. Picocli still uses reflection to
+ * load the descriptor and to look up the {@code Field} objects of the annotated fields.
+ * To enable the processor, put the {@code picocli-codegen} jar on the annotation processor path of the compiler.
+ * </p><p>
+ * No descriptor is generated for local and anonymous classes, or for classes whose annotations refer to classes
+ * that are not accessible from the package of the annotated class. Picocli falls back to reflection for these classes.
+ * </p>
+ */
+@SupportedAnnotationTypes({"picocli.CommandLine.Command", "picocli.CommandLine.Option", "picocli.CommandLine.Parameters"})
+public class CommandDescriptorProcessor extends AbstractProcessor {
+    private static final String COMMAND    = CommandLine.Command.class.getCanonicalName();
+    private static final String OPTION     = CommandLine.Option.class.getCanonicalName();
+    private static final String PARAMETERS = CommandLine.Parameters.class.getCanonicalName();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> commandTypes = new LinkedHashSet<TypeElement>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(CommandLine.Command.class)) {
+            if (element.getKind() == ElementKind.CLASS) { commandTypes.add((TypeElement) element); }
+        }
+        List<Element> fields = new ArrayList<Element>(roundEnv.getElementsAnnotatedWith(CommandLine.Option.class));
+        fields.addAll(roundEnv.getElementsAnnotatedWith(CommandLine.Parameters.class));
+        for (Element field : fields) {
+            Element enclosing = field.getEnclosingElement();
+            if (enclosing.getKind() == ElementKind.CLASS) { commandTypes.add((TypeElement) enclosing); }
+        }
+        for (TypeElement type : commandTypes) {
+            NestingKind nesting = type.getNestingKind();
+            if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) { continue; }
+            try {
+                generate(type);
+            } catch (InaccessibleTypeException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "picocli: no descriptor generated for "
+                        + type.getQualifiedName() + ": " + ex.getMessage() + " is not accessible", type);
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "picocli: could not write descriptor: " + ex, type);
+            }
+        }
+        return false; // other processors may be interested in these annotations too
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (packageName.length() == 0 ? binaryName : binaryName.substring(packageName.length() + 1))
+                + CommandLine.ICommandDescriptor.CLASS_NAME_SUFFIX;
+        boolean typeAccessible = isAccessible(type, pkg);
+        String typeName = erasure(type.asType());
+
+        List<VariableElement> annotated = new ArrayList<VariableElement>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (mirror(field, OPTION) != null || mirror(field, PARAMETERS) != null) { annotated.add(field); }
+        }
+
+        // render everything before opening the file, so an inaccessible type does not leave a half-written file
+        StringBuilder sb = new StringBuilder();
+        sb.append("public final class ").append(simpleName).append(" implements picocli.CommandLine.ICommandDescriptor {\n");
+        sb.append("    private static final picocli.CommandLine.Command COMMAND = ")
+                .append(annotationInstance(mirror(type, COMMAND), pkg)).append(";\n");
+        for (int i = 0; i < annotated.size(); i++) {
+            sb.append("    private static final picocli.CommandLine.Option OPTION_").append(i).append(" = ")
+                    .append(annotationInstance(mirror(annotated.get(i), OPTION), pkg)).append(";\n");
+            sb.append("    private static final picocli.CommandLine.Parameters PARAMETERS_").append(i).append(" = ")
+                    .append(annotationInstance(mirror(annotated.get(i), PARAMETERS), pkg)).append(";\n");
+        }
+        sb.append("\n    public picocli.CommandLine.Command command() { return COMMAND; }\n");
+        sb.append("\n    public String[] fieldNames() {\n        return new String[] {");
+        for (int i = 0; i < annotated.size(); i++) {
+            sb.append(i > 0 ? ", " : "").append(quote(annotated.get(i).getSimpleName().toString()));
+        }
+        sb.append("};\n    }\n");
+        appendSwitch(sb, "picocli.CommandLine.Option option(int fieldIndex)", "OPTION_", annotated.size());
+        appendSwitch(sb, "picocli.CommandLine.Parameters parameters(int fieldIndex)", "PARAMETERS_", annotated.size());
+
+        StringBuilder hasAccessor = new StringBuilder();
+        StringBuilder get = new StringBuilder();
+        StringBuilder set = new StringBuilder();
+        for (int i = 0; i < annotated.size(); i++) {
+            VariableElement field = annotated.get(i);
+            Set<Modifier> modifiers = field.getModifiers();
+            if (!typeAccessible || modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+                continue;
+            }
+            String target = modifiers.contains(Modifier.STATIC)
+                    ? typeName + "." + field.getSimpleName()
+                    : "((" + typeName + ") command)." + field.getSimpleName();
+            hasAccessor.append("            case ").append(i).append(":\n");
+            get.append("            case ").append(i).append(": return ").append(target).append(";\n");
+            set.append("            case ").append(i).append(": ").append(target).append(" = (")
+                    .append(boxedErasure(field.asType())).append(") value; return;\n");
+        }
+        sb.append("\n    public boolean hasAccessor(int fieldIndex) {\n        switch (fieldIndex) {\n");
+        if (hasAccessor.length() > 0) { sb.append(hasAccessor).append("                return true;\n"); }
+        sb.append("            default: return false;\n        }\n    }\n");
+        sb.append("\n    public Object get(Object command, int fieldIndex) {\n        switch (fieldIndex) {\n").append(get);
+        sb.append("            default: throw new UnsupportedOperationException(\"No accessor for field \" + fieldIndex);\n        }\n    }\n");
+        sb.append("\n    @SuppressWarnings(\"unchecked\")\n");
+        sb.append("    public void set(Object command, int fieldIndex, Object value) {\n        switch (fieldIndex) {\n").append(set);
+        sb.append("            default: throw new UnsupportedOperationException(\"No accessor for field \" + fieldIndex);\n        }\n    }\n");
+        sb.append("}\n");
+
+        String qualifiedName = packageName.length() == 0 ? simpleName : packageName + "." + simpleName;
+        Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter();
+        try {
+            if (packageName.length() > 0) { writer.write("package " + packageName + ";\n\n"); }
+            writer.write("/** Generated by the picocli-codegen annotation processor from {@code " + type.getQualifiedName()
+                    + "}. Do not edit. */\n");
+            writer.write(sb.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void appendSwitch(StringBuilder sb, String signature, String constantPrefix, int count) {
+        sb.append("\n    public ").append(signature).append(" {\n        switch (fieldIndex) {\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("            case ").append(i).append(": return ").append(constantPrefix).append(i).append(";\n");
+        }
+        sb.append("            default: return null;\n        }\n    }\n");
+    }
+
+    /** Renders an anonymous class implementing the annotation interface, returning the values of the specified
+     * annotation mirror (including default values). Array values are copied on every call, like the arrays
+     * returned by annotation instances obtained through reflection. The {@code equals}, {@code hashCode} and
+     * {@code toString} methods follow the contract of {@link java.lang.annotation.Annotation}, so a generated
+     * instance is equal to the annotation instance obtained through reflection. */
+    private String annotationInstance(AnnotationMirror mirror, PackageElement pkg) {
+        if (mirror == null) { return "null"; }
+        String annotationType = erasure(mirror.getAnnotationType());
+        StringBuilder sb = new StringBuilder("new ").append(annotationType).append("() {\n");
+        StringBuilder equals = new StringBuilder();
+        StringBuilder hashCode = new StringBuilder();
+        StringBuilder toString = new StringBuilder();
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values =
+                processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+        for (ExecutableElement method : ElementFilter.methodsIn(mirror.getAnnotationType().asElement().getEnclosedElements())) {
+            String name = method.getSimpleName().toString();
+            sb.append("        public ").append(method.getReturnType()).append(' ').append(name)
+                    .append("() { return ").append(literal(values.get(method), method.getReturnType(), pkg)).append("; }\n");
+            boolean array = method.getReturnType() instanceof ArrayType;
+            equals.append("\n                && ").append(array
+                    ? "java.util.Arrays.equals(" + name + "(), that." + name + "())"
+                    : "((Object) " + name + "()).equals(that." + name + "())");
+            hashCode.append(hashCode.length() == 0 ? "" : " + ").append("(127 * ").append(quote(name)).append(".hashCode() ^ ")
+                    .append(array ? "java.util.Arrays.hashCode(" + name + "())" : "((Object) " + name + "()).hashCode()").append(')');
+            toString.append(toString.length() == 0 ? "\"" : " + \", ").append(name).append("=\" + ")
+                    .append(array ? "java.util.Arrays.toString(" + name + "())" : name + "()");
+        }
+        sb.append("        public Class<? extends java.lang.annotation.Annotation> annotationType() { return ")
+                .append(annotationType).append(".class; }\n");
+        sb.append("        public boolean equals(Object other) {\n");
+        sb.append("            if (!(other instanceof ").append(annotationType).append(")) { return false; }\n");
+        sb.append("            ").append(annotationType).append(" that = (").append(annotationType).append(") other;\n");
+        sb.append("            return true").append(equals).append(";\n        }\n");
+        sb.append("        public int hashCode() { return ").append(hashCode.length() == 0 ? "0" : hashCode).append("; }\n");
+        sb.append("        public String toString() { return \"@").append(annotationType).append("(\" + ")
+                .append(toString.length() == 0 ? "\"\"" : toString).append(" + \")\"; }\n    }");
+        return sb.toString();
+    }
+
+    private String literal(AnnotationValue annotationValue, TypeMirror type, PackageElement pkg) {
+        Object value = annotationValue.getValue();
+        if (value instanceof List<?>) {
+            StringBuilder sb = new StringBuilder("new ").append(erasure(type)).append(" {");
+            TypeMirror componentType = ((ArrayType) type).getComponentType();
+            String sep = "";
+            for (Object element : (List<?>) value) {
+                sb.append(sep).append(literal((AnnotationValue) element, componentType, pkg));
+                sep = ", ";
+            }
+            return sb.append('}').toString();
+        }
+        if (value instanceof String) { return quote((String) value); }
+        if (value instanceof Character) { return "'" + escape((Character) value, '\'') + "'"; }
+        if (value instanceof TypeMirror) {
+            TypeMirror typeLiteral = (TypeMirror) value;
+            if (typeLiteral instanceof DeclaredType) {
+                TypeElement element = (TypeElement) ((DeclaredType) typeLiteral).asElement();
+                if (!isAccessible(element, pkg)) { throw new InaccessibleTypeException(element.getQualifiedName().toString()); }
+            }
+            return erasure(typeLiteral) + ".class";
+        }
+        if (value instanceof VariableElement) { // enum constant
+            VariableElement constant = (VariableElement) value;
+            return erasure(constant.asType()) + "." + constant.getSimpleName();
+        }
+        if (value instanceof Long)  { return value + "L"; }
+        if (value instanceof Float) { return value + "F"; }
+        return String.valueOf(value); // boolean, int, double
+    }
+
+    private static AnnotationMirror mirror(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    /** Returns whether code in the specified package can refer to the specified type. */
+    private boolean isAccessible(TypeElement type, PackageElement pkg) {
+        boolean samePackage = processingEnv.getElementUtils().getPackageOf(type).equals(pkg);
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) { return false; }
+            if (!samePackage && !modifiers.contains(Modifier.PUBLIC)) { return false; }
+            if (((TypeElement) e).getNestingKind() == NestingKind.LOCAL) { return false; }
+        }
+        return true;
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private String boxedErasure(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        return erasure(type);
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) { sb.append(escape(value.charAt(i), '"')); }
+        return sb.append('"').toString();
+    }
+
+    private static String escape(char c, char quote) {
+        switch (c) {
+            case '\\': return "\\\\";
+            case '\n': return "\\n";
+            case '\r': return "\\r";
+            case '\t': return "\\t";
+            default:
+                if (c == quote) { return "\\" + c; }
+                return (c < ' ' || c > '~') ? String.format("\\u%04x", (int) c) : String.valueOf(c);
+        }
+    }
+
+    /** Thrown when an annotation refers to a class that the generated descriptor cannot refer to. */
+    private static class InaccessibleTypeException extends RuntimeException {
+        private static final long serialVersionUID = 4473183911212345812L;
+        InaccessibleTypeException(String typeName) { super(typeName); }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli.codegen;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ICommandDescriptor;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the {@link CommandDescriptorProcessor} on a command class with the system Java compiler, and checks that the
+ * generated descriptor compiles and describes the command like the annotations read by reflection.
+ */
+public class CommandDescriptorProcessorTest {
+    private static final String GIT_SOURCE = "package example;\n"
+            + "import picocli.CommandLine.*;\n"
+            + "@Command(name = \"git\", description = {\"a \\\"quoted\\\"\", \"multi-line\\ndescription\"})\n"
+            + "public class Git {\n"
+            + "    @Option(names = {\"-v\", \"--verbose\"}, description = \"be verbose\") boolean verbose;\n"
+            + "    @Option(names = \"-n\", split = \",\") int[] counts;\n"
+            + "    @Parameters(index = \"0\", type = java.io.File.class) java.util.List<java.io.File> files;\n"
+            + "    @Option(names = \"-p\", hidden = true) private String secret;\n"
+            + "}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File sources;
+    private File generated;
+    private File classes;
+
+    @Before
+    public void createDirectories() throws IOException {
+        sources = folder.newFolder("src");
+        generated = folder.newFolder("generated");
+        classes = folder.newFolder("classes");
+    }
+
+    private Class<?> compile(String className, String source) throws Exception {
+        File file = new File(sources, className.replace('.', File.separatorChar) + ".java");
+        assertTrue(file.getParentFile().mkdirs());
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull("tests must run on a JDK", compiler);
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        try {
+            List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                    "-d", classes.getPath(), "-s", generated.getPath());
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null,
+                    fileManager.getJavaFileObjects(file));
+            task.setProcessors(Collections.singletonList(new CommandDescriptorProcessor()));
+            boolean success = task.call();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                assertNotEquals(diagnostic.toString(), Diagnostic.Kind.ERROR, diagnostic.getKind());
+            }
+            assertTrue(success);
+        } finally {
+            fileManager.close();
+        }
+        URLClassLoader loader = new URLClassLoader(new URL[] {classes.toURI().toURL()}, getClass().getClassLoader());
+        return loader.loadClass(className);
+    }
+
+    private static ICommandDescriptor descriptor(Class<?> commandClass) throws Exception {
+        Class<?> descriptorClass = commandClass.getClassLoader().loadClass(
+                commandClass.getName() + ICommandDescriptor.CLASS_NAME_SUFFIX);
+        return (ICommandDescriptor) descriptorClass.getDeclaredConstructor().newInstance();
+    }
+
+    @Test
+    public void testGeneratedDescriptorCompilesAndMatchesReflection() throws Exception {
+        Class<?> git = compile("example.Git", GIT_SOURCE);
+        assertTrue(new File(generated, "example/Git$$PicocliDescriptor.java").exists());
+        ICommandDescriptor descriptor = descriptor(git);
+
+        Command command = git.getAnnotation(Command.class);
+        assertEquals(command, descriptor.command());
+        assertEquals(descriptor.command(), command);
+        assertEquals(command.hashCode(), descriptor.command().hashCode());
+        assertArrayEquals(new String[] {"a \"quoted\"", "multi-line\ndescription"}, descriptor.command().description());
+
+        assertArrayEquals(new String[] {"verbose", "counts", "files", "secret"}, descriptor.fieldNames());
+        for (int i = 0; i < descriptor.fieldNames().length; i++) {
+            Field field = git.getDeclaredField(descriptor.fieldNames()[i]);
+            assertEquals(field.getAnnotation(Option.class), descriptor.option(i));
+            assertEquals(field.getAnnotation(Parameters.class), descriptor.parameters(i));
+            if (descriptor.option(i) != null) {
+                assertEquals(descriptor.option(i), field.getAnnotation(Option.class));
+                assertEquals(field.getAnnotation(Option.class).hashCode(), descriptor.option(i).hashCode());
+                assertTrue(descriptor.option(i).toString(), descriptor.option(i).toString().startsWith("@picocli.CommandLine.Option(names=["));
+            } else {
+                assertEquals(descriptor.parameters(i), field.getAnnotation(Parameters.class));
+                assertEquals(field.getAnnotation(Parameters.class).hashCode(), descriptor.parameters(i).hashCode());
+            }
+        }
+        assertFalse(descriptor.option(0).equals(descriptor.option(1)));
+        assertTrue(descriptor.hasAccessor(0));
+        assertFalse("private fields are accessed by reflection", descriptor.hasAccessor(3));
+    }
+
+    @Test
+    public void testCommandLineParsesWithGeneratedDescriptor() throws Exception {
+        Class<?> git = compile("example.Git", GIT_SOURCE);
+        ICommandDescriptor descriptor = descriptor(git);
+        Object command = git.getDeclaredConstructor().newInstance();
+        new CommandLine(command).parse("-v", "-n", "1,2", "-p", "pw", "a.txt");
+
+        assertEquals(Boolean.TRUE, descriptor.get(command, 0));
+        assertArrayEquals(new int[] {1, 2}, (int[]) descriptor.get(command, 1));
+        assertEquals(Collections.singletonList(new File("a.txt")), descriptor.get(command, 2));
+        Field secret = git.getDeclaredField("secret");
+        secret.setAccessible(true);
+        assertEquals("pw", secret.get(command));
+
+        descriptor.set(command, 0, Boolean.FALSE);
+        assertEquals(Boolean.FALSE, descriptor.get(command, 0));
+    }
+
+    @Test
+    public void testNoDescriptorForInaccessibleTypeLiteral() throws Exception {
+        Class<?> app = compile("example.App", "package example;\n"
+                + "import picocli.CommandLine.*;\n"
+                + "public class App {\n"
+                + "    private static class Secret {}\n"
+                + "    @Option(names = \"-s\", type = Secret.class) java.util.List<Object> values;\n"
+                + "}\n");
+        assertFalse(new File(generated, "example/App$$PicocliDescriptor.java").exists());
+        try {
+            app.getClassLoader().loadClass("example.App" + ICommandDescriptor.CLASS_NAME_SUFFIX);
+            fail("Expected ClassNotFoundException");
+        } catch (ClassNotFoundException expected) {
+            // picocli falls back to reflection for this class
+        }
+    }
+}
@@ -24,7 +24,6 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -508,14 +507,8 @@ public class AutoComplete {
                                                     List<Field> optionFields,
                                                     List<Field> positionalParameterFields) {
 
-        Map<String, Field> optionName2Field = new LinkedHashMap<String, Field>();
-        Class<?> cls = commandLine.getCommand().getClass();
-        while (cls != null) {
-            CommandLine.init(cls, new ArrayList<Field>(), optionName2Field, new HashMap<Character, Field>(), positionalParameterFields);
-            cls = cls.getSuperclass();
-        }
-        for (Field f : optionName2Field.values()) {
-            if (!optionFields.contains(f)) { optionFields.add(f); }
-        }
+        CommandLine.CommandModel model = commandLine.model();
+        optionFields.addAll(model.optionFields);
+        positionalParameterFields.addAll(model.positionalParametersFields);
     }
 }
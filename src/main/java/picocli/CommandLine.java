@@ -16,8 +16,14 @@
 package picocli;
 
 import java.awt.Point;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.lang.ref.SoftReference;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -25,6 +31,7 @@ import java.lang.annotation.Target;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.InetAddress;
@@ -32,31 +39,51 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.sql.Time;
 import java.text.BreakIterator;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EmptyStackException;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.Stack;
+import java.util.TimeZone;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import picocli.CommandLine.Help.Ansi.Text;
@@ -123,14 +150,30 @@ public class CommandLine {
     /** This is picocli version {@value}. */
     public static final String VERSION = "1.0.0-SNAPSHOT";
 
-    private final Interpreter interpreter;
+    private final Class<?> commandClass;
+    private Object command;            // null until a declared subcommand is first used
+    // immutable, so a racy first assignment is harmless; saves a lookup in the shared (synchronized) model cache
+    private CommandModel model;
+    private FieldDefaults defaults;    // null until the first parse
+    private Map<String, CommandLine> commands; // null until the subcommands are first used
+    // copy-on-write: replaced (never modified) when a converter is registered, so parsing threads see a stable map
+    private volatile Map<Class<?>, ITypeConverter<?>> converterOverlay = Collections.emptyMap();
+    // converters resolved for this command; discarded when a converter registration or setting in its tree changes
+    private volatile ConverterCache converterCache;
+    // incremented on the root command when converters are registered or subcommands are added anywhere in its tree
+    private final AtomicInteger converterGeneration = new AtomicInteger();
+    private String separator;          // null until resolved from the @Command annotation
     private boolean overwrittenOptionsAllowed = false;
     private boolean unmatchedArgumentsAllowed = false;
+    private boolean abbreviatedOptionsAllowed = false;
+    private boolean caseInsensitiveEnumValuesAllowed = false;
+    private boolean unitSuffixesAllowed = false;
+    private boolean expandAtFiles = false;
+    private ExecutorService conversionExecutor; // null: the shared conversion executor
     private List<String> unmatchedArguments = new ArrayList<String>();
     private CommandLine parent;
     private boolean usageHelpRequested;
     private boolean versionHelpRequested;
-    private List<String> versionLines = new ArrayList<String>();
 
     /**
      * Constructs a new {@code CommandLine} interpreter with the specified annotated object.
@@ -140,7 +183,95 @@ public class CommandLine {
      * @throws IllegalArgumentException if the specified command object does not have a {@link Command}, {@link Option} or {@link Parameters} annotation
      */
     public CommandLine(Object command) {
-        interpreter = new Interpreter(command);
+        this(command, CommandModel.forClass(Assert.notNull(command, "command").getClass()));
+    }
+
+    /** Constructs a new {@code CommandLine} interpreter for the specified command object with the specified model of
+     * its class, which was resolved by the caller, so that the shared model cache is not consulted. */
+    CommandLine(Object command, CommandModel model) {
+        this.command = command;
+        this.commandClass = command.getClass();
+        this.model = model;
+        if (!model.isCommand()) {
+            throw new IllegalArgumentException(command + " (" + command.getClass() +
+                    ") is not a command: it has no @Command, @Option or @Parameters annotations");
+        }
+    }
+
+    /** Constructs a placeholder for a subcommand declared with {@link Command#subcommands()}. The subcommand class is
+     * instantiated only when the subcommand is first used, and its own subcommands are resolved only when they are
+     * first used. The placeholder inherits the settings of its parent, and resolves type converters through it. */
+    private CommandLine(Class<?> commandClass, CommandLine parent) {
+        this.commandClass = commandClass;
+        this.parent = parent;
+        this.overwrittenOptionsAllowed = parent.overwrittenOptionsAllowed;
+        this.unmatchedArgumentsAllowed = parent.unmatchedArgumentsAllowed;
+        this.abbreviatedOptionsAllowed = parent.abbreviatedOptionsAllowed;
+        this.caseInsensitiveEnumValuesAllowed = parent.caseInsensitiveEnumValuesAllowed;
+        this.unitSuffixesAllowed = parent.unitSuffixesAllowed;
+        this.conversionExecutor = parent.conversionExecutor;
+    }
+
+    /** Returns the subcommands of this command, creating placeholders for the declared subcommands if necessary. */
+    private synchronized Map<String, CommandLine> commands() {
+        if (commands == null) {
+            commands = new LinkedHashMap<String, CommandLine>();
+            for (Map.Entry<String, Class<?>> entry : model().subcommandClasses.entrySet()) {
+                commands.put(entry.getKey(), new CommandLine(entry.getValue(), this));
+            }
+        }
+        return commands;
+    }
+
+    /** Returns the annotated object, instantiating the command class first if this is a declared subcommand that has
+     * not been used yet. */
+    private synchronized Object instantiate() {
+        if (command == null) {
+            try {
+                Constructor<?> constructor = commandClass.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                command = constructor.newInstance();
+            }
+            catch (NoSuchMethodException ex) { throw new IllegalArgumentException("Cannot instantiate subcommand " +
+                    commandClass.getName() + ": the class has no constructor", ex); }
+            catch (Exception ex) {
+                throw new IllegalStateException("Could not instantiate and add subcommand " +
+                        commandClass.getName() + ": " + ex, ex);
+            }
+        }
+        return command;
+    }
+
+    /** Returns the initial values of the annotated fields, taking a snapshot of the annotated object if necessary. */
+    private synchronized FieldDefaults defaults() {
+        if (defaults == null) {
+            defaults = new FieldDefaults(model(), instantiate());
+        }
+        return defaults;
+    }
+
+    /** Restores the annotated fields to their initial values, or records the initial values if this is the first parse. */
+    private synchronized void resetToDefaults() {
+        if (defaults == null) {
+            defaults = new FieldDefaults(model(), instantiate());
+        } else {
+            defaults.reset();
+        }
+    }
+
+    /** Returns the cached annotation model of the command class. */
+    CommandModel model() {
+        CommandModel result = model;
+        if (result == null) {
+            model = result = CommandModel.forClass(commandClass);
+        }
+        return result;
+    }
+
+    /** Returns {@code true} if the annotated object of this {@code CommandLine} has been created. This is always the case
+     * for commands constructed with an object; declared subcommands are instantiated when they are first used. */
+    synchronized boolean isInstantiated() {
+        return command != null;
     }
 
     /** Registers a subcommand with the specified name. For example:
@@ -170,10 +301,9 @@ public class CommandLine {
      *                 )
      *         );
      * </pre>
-     * <p>The default type converters are available on all subcommands and nested sub-subcommands, but custom type
-     * converters are registered only with the subcommand hierarchy as it existed when the custom type was registered.
-     * To ensure a custom type converter is available to all subcommands, register the type converter last, after
-     * adding subcommands.</p>
+     * <p>The default type converters and the custom type converters registered with this {@code CommandLine} or any
+     * of its parents are available on all subcommands and nested sub-subcommands, regardless of whether the subcommand
+     * was added before or after the custom type converter was registered.</p>
      * <p>See also the {@link Command#subcommands()} annotation to register subcommands declaratively.</p>
      *
      * @param name the string to recognize on the command line as a subcommand
@@ -186,16 +316,31 @@ public class CommandLine {
      */
     public CommandLine addSubcommand(String name, Object command) {
         CommandLine commandLine = toCommandLine(command);
+        // the subcommand now resolves converters through this command: discard the caches of both trees
+        commandLine.root().converterGeneration.incrementAndGet();
         commandLine.parent = this;
-        interpreter.commands.put(name, commandLine);
+        commands().put(name, commandLine);
+        root().converterGeneration.incrementAndGet();
         return this;
     }
+
+    /** Returns the top-level command of the tree this command belongs to. */
+    private CommandLine root() {
+        CommandLine result = this;
+        while (result.parent != null) {
+            result = result.parent;
+        }
+        return result;
+    }
     /** Returns a map with the subcommands {@linkplain #addSubcommand(String, Object) registered} on this instance.
+     * <p>Subcommands {@linkplain Command#subcommands() declared} with the {@code @Command} annotation are included,
+     * but are not instantiated until their {@linkplain #getCommand() command object} is requested or they are invoked
+     * on the command line.</p>
      * @return a map with the registered subcommands
      * @since 0.9.7
      */
     public Map<String, CommandLine> getSubcommands() {
-        return new LinkedHashMap<String, CommandLine>(interpreter.commands);
+        return new LinkedHashMap<String, CommandLine>(commands());
     }
     /**
      * Returns the command that this is a subcommand of, or {@code null} if this is a top-level command.
@@ -209,12 +354,16 @@ public class CommandLine {
     }
 
     /**
-     * Returns the annotated object that this {@code CommandLine} instance was constructed with.
+     * Returns the annotated object that this {@code CommandLine} instance was constructed with. For subcommands
+     * {@linkplain Command#subcommands() declared} with the {@code @Command} annotation, the subcommand class is
+     * instantiated when this method is first called, if it was not already invoked on the command line.
      * @return the annotated object that this {@code CommandLine} instance was constructed with
+     * @throws IllegalArgumentException if this is a declared subcommand whose class has no no-argument constructor
+     * @throws IllegalStateException if this is a declared subcommand whose class could not be instantiated
      * @since 0.9.7
      */
     public Object getCommand() {
-        return interpreter.command;
+        return instantiate();
     }
 
     /** Returns {@code true} if an option annotated with {@link Option#usageHelp()} was specified on the command line.
@@ -246,8 +395,10 @@ public class CommandLine {
      */
     public CommandLine setOverwrittenOptionsAllowed(boolean newValue) {
         this.overwrittenOptionsAllowed = newValue;
-        for (CommandLine command : interpreter.commands.values()) {
-            command.setOverwrittenOptionsAllowed(newValue);
+        if (commands != null) { // subcommands created later inherit this setting
+            for (CommandLine command : commands.values()) {
+                command.setOverwrittenOptionsAllowed(newValue);
+            }
         }
         return this;
     }
@@ -274,12 +425,168 @@ public class CommandLine {
      */
     public CommandLine setUnmatchedArgumentsAllowed(boolean newValue) {
         this.unmatchedArgumentsAllowed = newValue;
-        for (CommandLine command : interpreter.commands.values()) {
-            command.setUnmatchedArgumentsAllowed(newValue);
+        if (commands != null) { // subcommands created later inherit this setting
+            for (CommandLine command : commands.values()) {
+                command.setUnmatchedArgumentsAllowed(newValue);
+            }
+        }
+        return this;
+    }
+
+    /** Returns whether long options (options whose name starts with {@code "--"}) may be abbreviated on the command line.
+     * The default is {@code false}. When {@code true}, an argument like {@code --verb} matches the option
+     * {@code --verbose} if no other option name starts with {@code --verb}.
+     * @return {@code true} if unambiguous abbreviations of long options are recognized, {@code false} otherwise
+     * @since 1.0.0
+     */
+    public boolean isAbbreviatedOptionsAllowed() {
+        return abbreviatedOptionsAllowed;
+    }
+
+    /** Sets whether long options (options whose name starts with {@code "--"}) may be abbreviated on the command line.
+     * Abbreviations must be unambiguous and at least one character longer than the {@code "--"} prefix; an argument
+     * that is the prefix of more than one option name is not recognized as an option. An option parameter may be
+     * attached to an abbreviation with the separator, for example {@code --verb=3}.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 1.0.0
+     */
+    public CommandLine setAbbreviatedOptionsAllowed(boolean newValue) {
+        this.abbreviatedOptionsAllowed = newValue;
+        if (commands != null) { // subcommands created later inherit this setting
+            for (CommandLine command : commands.values()) {
+                command.setAbbreviatedOptionsAllowed(newValue);
+            }
+        }
+        return this;
+    }
+
+    /** Returns whether values of enum options and positional parameters are matched to the enum constants without
+     * regard to case. The default is {@code false}.
+     * @return {@code true} if enum values are case-insensitive, {@code false} otherwise
+     * @since 1.0.0
+     */
+    public boolean isCaseInsensitiveEnumValuesAllowed() {
+        return caseInsensitiveEnumValuesAllowed;
+    }
+
+    /** Sets whether values of enum options and positional parameters are matched to the enum constants without regard
+     * to case, so that {@code days} and {@code Days} are accepted for {@code TimeUnit.DAYS}. If an enum has constants
+     * that differ only in case, an exact match is preferred. This setting has no effect on enums with a
+     * {@linkplain #registerConverter(Class, ITypeConverter) registered} converter.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 1.0.0
+     */
+    public CommandLine setCaseInsensitiveEnumValuesAllowed(boolean newValue) {
+        this.caseInsensitiveEnumValuesAllowed = newValue;
+        this.converterCache = null;
+        if (commands != null) { // subcommands created later inherit this setting
+            for (CommandLine command : commands.values()) {
+                command.setCaseInsensitiveEnumValuesAllowed(newValue);
+            }
+        }
+        return this;
+    }
+
+    /** Returns whether the built-in converters of numeric types accept size and time unit suffixes, like
+     * {@code 512MiB} or {@code 30s}. The default is {@code false}.
+     * @return {@code true} if numeric values may have a unit suffix, {@code false} otherwise
+     * @since 1.0.0
+     */
+    public boolean isUnitSuffixesAllowed() {
+        return unitSuffixesAllowed;
+    }
+
+    /** Sets whether the built-in converters of numeric types accept size and time unit suffixes. If allowed, a value
+     * may end with an SI size suffix like {@code 10k} (powers of 1000), an IEC size suffix like {@code 512MiB}
+     * (powers of 1024), or a time unit suffix like {@code 30s}, which is converted to milliseconds. Radix prefixes
+     * and underscores are accepted regardless of this setting. This setting has no effect on types with a
+     * {@linkplain #registerConverter(Class, ITypeConverter) registered} converter.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 1.0.0
+     */
+    public CommandLine setUnitSuffixesAllowed(boolean newValue) {
+        this.unitSuffixesAllowed = newValue;
+        this.converterCache = null;
+        if (commands != null) { // subcommands created later inherit this setting
+            for (CommandLine command : commands.values()) {
+                command.setUnitSuffixesAllowed(newValue);
+            }
+        }
+        return this;
+    }
+
+    /** Returns the executor that converts the values of a multi-value option or positional parameter concurrently if
+     * their converter is an {@link IBlockingTypeConverter}, or {@code null} if a shared executor with
+     * {@value #CONVERSION_THREADS} daemon threads is used. The default is {@code null}.
+     * @return the executor for blocking conversions, or {@code null}
+     * @since 1.0.0
+     */
+    public ExecutorService getConversionExecutor() {
+        return conversionExecutor;
+    }
+
+    /** Sets the executor that converts the values of a multi-value option or positional parameter concurrently if
+     * their converter is an {@link IBlockingTypeConverter}. Specify {@code null} to use a shared executor with
+     * {@value #CONVERSION_THREADS} daemon threads. The executor is not shut down by picocli.
+     * <p>The specified setting will be registered with this {@code CommandLine} and the full hierarchy of its
+     * subcommands and nested sub-subcommands <em>at the moment this method is called</em>. Subcommands added
+     * later will have the default setting. To ensure a setting is applied to all
+     * subcommands, call the setter last, after adding subcommands.</p>
+     * @param executor the executor for blocking conversions, or {@code null}
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 1.0.0
+     */
+    public CommandLine setConversionExecutor(ExecutorService executor) {
+        this.conversionExecutor = executor;
+        if (commands != null) { // subcommands created later inherit this setting
+            for (CommandLine command : commands.values()) {
+                command.setConversionExecutor(executor);
+            }
         }
         return this;
     }
 
+    /** Returns whether arguments starting with {@code @} that name an existing file are replaced by the arguments in
+     * that file. The default is {@code false}.
+     * @return {@code true} if argument files are expanded, {@code false} otherwise
+     * @since 1.0.0
+     */
+    public boolean isExpandAtFiles() {
+        return expandAtFiles;
+    }
+
+    /** Sets whether arguments starting with {@code @} that name an existing file are replaced by the arguments in that
+     * file. The file is read when the parser reaches the argument. Arguments in the file are separated by whitespace;
+     * arguments that contain whitespace can be enclosed in double or single quotes, and a {@code #} at the start of an
+     * argument starts a comment that extends to the end of the line. An argument file may itself contain
+     * {@code @file} arguments (relative to the current directory), but may not include itself.
+     * An argument starting with {@code @} that does not name an existing file is not expanded.
+     * <p>This setting applies to the command line arguments passed to the parse methods of this {@code CommandLine},
+     * including the arguments for its subcommands.</p>
+     * @param newValue the new setting
+     * @return this {@code CommandLine} object, to allow method chaining
+     * @since 1.0.0
+     */
+    public CommandLine setExpandAtFiles(boolean newValue) {
+        this.expandAtFiles = newValue;
+        return this;
+    }
+
     /** Returns the list of unmatched command line arguments, if any.
      * @return the list of unmatched command line arguments or an empty list
      * @see #isUnmatchedArgumentsAllowed()
@@ -315,11 +622,182 @@ public class CommandLine {
         return command;
     }
 
+    /**
+     * <p>
+     * Convenience method that creates and initializes an annotated object for each of the specified command lines,
+     * parsing the command lines in parallel on a thread pool with one thread per available processor.
+     * </p><p>
+     * This is equivalent to calling {@link #populateCommand(Object, String...) populateCommand(factory.call(), args)}
+     * for each command line, except that a {@code ParameterException} does not end the batch: it is returned in the
+     * result for that command line. All command objects share the annotation model of their class, and each command
+     * line is parsed with its own {@code CommandLine}, so the threads do not contend on parse state.
+     * </p>
+     *
+     * @param factory creates a new annotated object for each command line. This object contains fields annotated with
+     *          {@code @Option} or {@code @Parameters}. The factory is called from the pool threads.
+     * @param commandLines the command line arguments to parse, one array per command line
+     * @param <T> the type of the annotated object
+     * @return a result for each command line, in the order of the specified command lines
+     * @throws IllegalArgumentException if a created command object does not have a {@link Command}, {@link Option} or {@link Parameters} annotation
+     * @throws IllegalStateException if the factory throws a checked exception, or the calling thread is interrupted
+     * @see #populateCommands(Callable, Iterable, ExecutorService)
+     * @since 1.0.0
+     */
+    public static <T> List<BatchResult<T>> populateCommands(Callable<? extends T> factory, Iterable<String[]> commandLines) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, daemonThreadFactory("picocli-batch-"));
+        try {
+            return populateCommands(factory, commandLines, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates and initializes an annotated object for each of the specified command lines, parsing the command lines
+     * on the specified executor. Command lines are submitted in chunks of {@value #BATCH_SIZE}, so the number of
+     * tasks is small compared to the number of command lines. At most two chunks per available processor are
+     * submitted but not yet joined: the specified command lines are read while earlier chunks complete, so a lazily
+     * generated {@code Iterable} is not buffered completely (the returned results are). The executor is not shut down
+     * by this method.
+     * <p>Otherwise this method is equivalent to {@link #populateCommands(Callable, Iterable)}.</p>
+     *
+     * @param factory creates a new annotated object for each command line; called from the executor threads
+     * @param commandLines the command line arguments to parse, one array per command line
+     * @param executor the executor to parse on
+     * @param <T> the type of the annotated object
+     * @return a result for each command line, in the order of the specified command lines
+     * @throws IllegalArgumentException if a created command object does not have a {@link Command}, {@link Option} or {@link Parameters} annotation
+     * @throws IllegalStateException if the factory throws a checked exception, or the calling thread is interrupted
+     * @since 1.0.0
+     */
+    public static <T> List<BatchResult<T>> populateCommands(final Callable<? extends T> factory,
+                                                            Iterable<String[]> commandLines,
+                                                            ExecutorService executor) {
+        Assert.notNull(factory, "factory");
+        Assert.notNull(executor, "executor");
+        LinkedList<Future<List<BatchResult<T>>>> futures = new LinkedList<Future<List<BatchResult<T>>>>();
+        AtomicReference<CommandModel> model = new AtomicReference<CommandModel>(); // shared by the tasks of the batch
+        try {
+            List<BatchResult<T>> result = new ArrayList<BatchResult<T>>();
+            int index = 0;
+            List<String[]> chunk = new ArrayList<String[]>(BATCH_SIZE);
+            for (String[] args : Assert.notNull(commandLines, "command lines")) {
+                chunk.add(Assert.notNull(args, "argument array"));
+                if (chunk.size() == BATCH_SIZE) {
+                    if (futures.size() == MAX_CHUNKS_IN_FLIGHT) { // join the oldest chunk before reading further
+                        result.addAll(futures.getFirst().get());
+                        futures.removeFirst();
+                    }
+                    futures.add(executor.submit(new BatchTask<T>(factory, model, chunk, index)));
+                    index += chunk.size();
+                    chunk = new ArrayList<String[]>(BATCH_SIZE);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                futures.add(executor.submit(new BatchTask<T>(factory, model, chunk, index)));
+            }
+            while (!futures.isEmpty()) {
+                result.addAll(futures.getFirst().get());
+                futures.removeFirst();
+            }
+            return result;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing command lines", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+            if (cause instanceof Error) { throw (Error) cause; }
+            throw new IllegalStateException("Could not parse command lines: " + cause, cause);
+        } finally {
+            for (Future<?> future : futures) { future.cancel(true); } // no-op for completed tasks
+        }
+    }
+
+    /** Returns a factory for daemon threads, named with the specified prefix and a sequence number. */
+    static ThreadFactory daemonThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /** Number of threads of the shared executor for {@linkplain IBlockingTypeConverter blocking} conversions. */
+    static final int CONVERSION_THREADS = 16;
+    private static ExecutorService sharedConversionExecutor;
+
+    /** Returns the executor for blocking conversions that is shared by all {@code CommandLine} objects without a
+     * {@linkplain #setConversionExecutor(ExecutorService) conversion executor}, creating it on first use. */
+    static synchronized ExecutorService sharedConversionExecutor() {
+        if (sharedConversionExecutor == null) {
+            sharedConversionExecutor = Executors.newFixedThreadPool(CONVERSION_THREADS, daemonThreadFactory("picocli-convert-"));
+        }
+        return sharedConversionExecutor;
+    }
+
+    /** Number of command lines parsed by a single task of {@link #populateCommands(Callable, Iterable, ExecutorService)}. */
+    static final int BATCH_SIZE = 256;
+
+    /** Maximum number of tasks of {@link #populateCommands(Callable, Iterable, ExecutorService)} that are submitted
+     * but not yet joined: enough to keep two tasks per processor queued, while bounding the command lines held. */
+    static final int MAX_CHUNKS_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Creates and populates the command objects for a consecutive range of the command lines of a batch. */
+    private static final class BatchTask<T> implements Callable<List<BatchResult<T>>> {
+        private final Callable<? extends T> factory;
+        private final AtomicReference<CommandModel> model;
+        private final List<String[]> commandLines;
+        private final int offset;
+
+        BatchTask(Callable<? extends T> factory, AtomicReference<CommandModel> model, List<String[]> commandLines, int offset) {
+            this.factory = factory;
+            this.model = model;
+            this.commandLines = commandLines;
+            this.offset = offset;
+        }
+
+        public List<BatchResult<T>> call() throws Exception {
+            List<BatchResult<T>> result = new ArrayList<BatchResult<T>>(commandLines.size());
+            for (int i = 0; i < commandLines.size(); i++) {
+                if (Thread.currentThread().isInterrupted()) { throw new InterruptedException(); }
+                T command = Assert.notNull(factory.call(), "command");
+                try {
+                    new CommandLine(command, modelOf(command)).parse(commandLines.get(i));
+                    result.add(new BatchResult<T>(offset + i, command, null));
+                } catch (ParameterException ex) {
+                    result.add(new BatchResult<T>(offset + i, null, ex));
+                }
+            }
+            return result;
+        }
+
+        /** Returns the model of the class of the specified command. The model is resolved once for the batch, unless
+         * the factory creates commands of different classes. */
+        private CommandModel modelOf(T command) {
+            CommandModel result = model.get();
+            if (result == null || result.commandClass != command.getClass()) {
+                result = CommandModel.forClass(command.getClass());
+                model.set(result);
+            }
+            return result;
+        }
+    }
+
     /**
      * <p>
      * Initializes the annotated object that this {@code CommandLine} was constructed with as well as
      * possibly any registered commands, based on the specified command line arguments,
      * and returns a list of all commands and subcommands that were initialized by this method.
+     * </p><p>
+     * The first time a command is parsed into, the values of its annotated fields are recorded. Before each
+     * subsequent parse, the annotated fields are restored to these initial values, so the same annotated object can
+     * be reused for multiple parses: values of a previous parse are not carried over, and array and collection
+     * fields do not accumulate values across parses.
      * </p>
      *
      * @param args the command line arguments to parse
@@ -327,7 +805,66 @@ public class CommandLine {
      * @throws ParameterException if the specified command line arguments are invalid
      */
     public List<CommandLine> parse(String... args) {
-        return interpreter.parse(args);
+        Interpreter interpreter = new Interpreter(true, false, Assert.notNull(args, "argument array"));
+        try {
+            interpreter.parse();
+        } finally {
+            for (ParseResult result = interpreter.parseResult; result != null; result = result.subcommand) {
+                CommandLine commandLine = result.commandLine;
+                commandLine.usageHelpRequested = result.usageHelpRequested;
+                commandLine.versionHelpRequested = result.versionHelpRequested;
+                commandLine.unmatchedArguments.clear();
+                commandLine.unmatchedArguments.addAll(result.unmatched);
+            }
+        }
+        return interpreter.parseResult.asCommandLineList();
+    }
+
+    /**
+     * <p>
+     * Parses the specified command line arguments and returns a {@link ParseResult} with the matched option and
+     * positional parameter values, without modifying the annotated object(s) or the state of this {@code CommandLine}.
+     * </p><p>
+     * Unlike {@link #parse(String...)}, this method keeps all parse state in the returned {@code ParseResult}, so a single
+     * {@code CommandLine} instance can be used to parse command lines concurrently from multiple threads, provided it is
+     * not reconfigured (for example, by registering converters or adding subcommands) while it is in use.
+     * </p><p>
+     * Values of multi-value options and boolean flags start from the value of the field in the annotated object, so
+     * field initializers act as defaults, as they do with {@code parse}. The annotated object itself is only read.
+     * </p>
+     * @param args the command line arguments to parse
+     * @return the result of parsing the specified arguments, including the results of any subcommands
+     * @throws ParameterException if the specified command line arguments are invalid
+     * @since 1.0.0
+     */
+    public ParseResult parseArgs(String... args) {
+        Interpreter interpreter = new Interpreter(false, false, Assert.notNull(args, "argument array"));
+        interpreter.parse();
+        return interpreter.parseResult;
+    }
+
+    /**
+     * <p>
+     * Classifies the specified command line arguments against the options, positional parameters and subcommands of
+     * this command, without instantiating the annotated object(s) and without type conversion.
+     * </p><p>
+     * The arguments are validated as with {@link #parseArgs(String...)}: unknown options, missing required options
+     * and parameters and arity violations are reported with a {@code ParameterException}. Type conversion errors are
+     * not detected, since no values are converted. The values of the returned result are the raw argument strings
+     * that were matched to each option or positional parameter, as a {@code List<String>} (empty for boolean flags
+     * without a parameter). This is cheaper than a full parse, and is useful for components that only need to know
+     * which subcommand and options were specified, for example to forward the command line to another process.
+     * </p>
+     * @param args the command line arguments to classify
+     * @return the result with the matched raw values, unmatched arguments, help flags and subcommand result
+     * @throws ParameterException if the specified command line arguments are invalid
+     * @see ParseResult#isConverted()
+     * @since 1.0.0
+     */
+    public ParseResult classify(String... args) {
+        Interpreter interpreter = new Interpreter(false, true, Assert.notNull(args, "argument array"));
+        interpreter.parse();
+        return interpreter.parseResult;
     }
 
     /**
@@ -415,7 +952,12 @@ public class CommandLine {
      * @param colorScheme the {@code ColorScheme} defining the styles for options, parameters and commands when ANSI is enabled
      */
     public void usage(PrintStream out, Help.ColorScheme colorScheme) {
-        Help help = new Help(interpreter.command, colorScheme).addAllSubcommands(getSubcommands());
+        out.print(usageMessage(colorScheme));
+    }
+
+    /** Returns the usage help message printed by {@link #usage(PrintStream, Help.ColorScheme)}. */
+    private String usageMessage(Help.ColorScheme colorScheme) {
+        Help help = new Help(getCommand(), colorScheme).addAllSubcommands(getSubcommands());
         StringBuilder sb = new StringBuilder()
                 .append(help.headerHeading())
                 .append(help.header())
@@ -431,7 +973,7 @@ public class CommandLine {
                 .append(help.commandList())          //e.g.    add       adds the frup to the frooble
                 .append(help.footerHeading())
                 .append(help.footer());
-        out.print(sb);
+        return sb.toString();
     }
 
     /**
@@ -454,7 +996,7 @@ public class CommandLine {
      * @since 0.9.8
      */
     public void printVersionHelp(PrintStream out, Help.Ansi ansi) {
-        for (String versionInfo : versionLines) {
+        for (String versionInfo : model().versionLines) {
             out.println(ansi.new Text(versionInfo));
         }
     }
@@ -505,6 +1047,142 @@ public class CommandLine {
         command.run();
     }
 
+    /**
+     * Delegates to {@link #runSession(InputStream, PrintStream, Help.Ansi, String)} with {@link Help.Ansi#AUTO}
+     * and without a prompt.
+     * @param in the stream to read command lines from
+     * @param out the printStream to print output, errors and help to
+     * @see #runSession(InputStream, PrintStream, Help.Ansi, String)
+     * @since 1.0.0
+     */
+    public void runSession(InputStream in, PrintStream out) {
+        runSession(in, out, AUTO, null);
+    }
+
+    /**
+     * Runs an interactive session: reads command lines from the specified stream, and parses and runs each of them
+     * with this {@code CommandLine}, until the end of the stream or until a line with only {@code exit} or {@code quit}
+     * (unless these are names of subcommands).
+     * <p>
+     * Each line is split into arguments like a shell would: arguments are separated by whitespace, text in single
+     * quotes is taken literally, text in double quotes may contain backslash escapes, a backslash outside quotes
+     * escapes the next character, and a {@code #} at the start of an argument starts a comment. Empty lines are
+     * ignored.
+     * </p><p>
+     * If usage help or version help was requested, it is printed. Otherwise the last command that was matched (the
+     * subcommand, if any) is run if its annotated object implements {@link Runnable} or
+     * {@link java.util.concurrent.Callable Callable}; the result of a {@code Callable} is printed if it is not
+     * {@code null}. If a command line is invalid, the error message and the usage help are printed. An exception
+     * thrown by a command is printed, and the session continues with the next line.
+     * </p><p>
+     * The annotated objects are reused for all command lines: their fields are restored to their initial values
+     * before each line is parsed, as described for {@link #parse(String...)}. Usage help messages are rendered once
+     * per session, so after the first few lines, parsing a line costs no more than parsing an argument array.
+     * </p>
+     * @param in the stream to read command lines from, in the platform default encoding
+     * @param out the printStream to print output, errors and help to
+     * @param ansi whether usage help should include ANSI escape codes or not
+     * @param prompt the text to print before reading each line, or {@code null} for no prompt
+     * @throws IllegalStateException if reading from the stream failed
+     * @since 1.0.0
+     */
+    public void runSession(InputStream in, PrintStream out, Help.Ansi ansi, String prompt) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(Assert.notNull(in, "input stream")));
+        Help.ColorScheme colorScheme = Help.defaultColorScheme(ansi);
+        Map<CommandLine, String> usageMessages = new HashMap<CommandLine, String>();
+        Set<String> subcommandNames = getSubcommands().keySet();
+        try {
+            String line;
+            while (true) {
+                if (prompt != null) {
+                    out.print(prompt);
+                    out.flush();
+                }
+                if ((line = reader.readLine()) == null) { return; }
+                String[] args;
+                try {
+                    args = splitCommandLine(line);
+                } catch (ParameterException ex) {
+                    out.println(ex.getMessage());
+                    continue;
+                }
+                if (args.length == 0) { continue; }
+                if (args.length == 1 && ("exit".equals(args[0]) || "quit".equals(args[0]))
+                        && !subcommandNames.contains(args[0])) {
+                    return;
+                }
+                runSessionLine(args, out, ansi, colorScheme, usageMessages);
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not read command line: " + ex, ex);
+        }
+    }
+
+    private void runSessionLine(String[] args, PrintStream out, Help.Ansi ansi, Help.ColorScheme colorScheme,
+                                Map<CommandLine, String> usageMessages) {
+        List<CommandLine> parsed;
+        try {
+            parsed = parse(args);
+        } catch (ParameterException ex) {
+            out.println(ex.getMessage());
+            out.print(cachedUsageMessage(this, colorScheme, usageMessages));
+            return;
+        }
+        for (CommandLine commandLine : parsed) {
+            if (commandLine.isUsageHelpRequested()) {
+                out.print(cachedUsageMessage(commandLine, colorScheme, usageMessages));
+                return;
+            }
+            if (commandLine.isVersionHelpRequested()) {
+                commandLine.printVersionHelp(out, ansi);
+                return;
+            }
+        }
+        Object command = parsed.get(parsed.size() - 1).getCommand();
+        try {
+            if (command instanceof Runnable) {
+                ((Runnable) command).run();
+            } else if (command instanceof Callable) {
+                Object result = ((Callable<?>) command).call();
+                if (result != null) { out.println(result); }
+            } else {
+                out.println(command.getClass().getName() + " does not implement Runnable or Callable");
+            }
+        } catch (Exception ex) {
+            out.println(ex);
+        }
+    }
+
+    private static String cachedUsageMessage(CommandLine commandLine, Help.ColorScheme colorScheme,
+                                             Map<CommandLine, String> usageMessages) {
+        String result = usageMessages.get(commandLine);
+        if (result == null) {
+            result = commandLine.usageMessage(colorScheme);
+            usageMessages.put(commandLine, result);
+        }
+        return result;
+    }
+
+    /**
+     * Splits a command line into arguments like a POSIX shell does, without expanding variables or wildcards.
+     * @param line the command line to split
+     * @return the arguments on the specified command line
+     * @throws ParameterException if a quote is not closed
+     * @see ArgumentTokenizer
+     */
+    static String[] splitCommandLine(final String line) {
+        ArgumentTokenizer tokenizer = new ArgumentTokenizer(true) {
+            private int position;
+            int read() { return position < line.length() ? line.charAt(position++) : -1; }
+            public String toString() { return "command line: " + line; }
+        };
+        List<String> result = new ArrayList<String>();
+        for (String arg = tokenizer.next(); arg != null; arg = tokenizer.next()) {
+            result.add(arg);
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
     /**
      * Registers the specified type converter for the specified class. When initializing fields annotated with
      * {@link Option}, the field's type is used as a lookup key to find the associated type converter, and this
@@ -537,10 +1215,14 @@ public class CommandLine {
      *   <li>CharSequence</li>
      *   <li>String</li>
      * </ul>
-     * <p>The specified converter will be registered with this {@code CommandLine} and the full hierarchy of its
-     * subcommands and nested sub-subcommands <em>at the moment the converter is registered</em>. Subcommands added
-     * later will not have this converter added automatically. To ensure a custom type converter is available to all
-     * subcommands, register the type converter last, after adding subcommands.</p>
+     * <p>The specified converter is available to this {@code CommandLine} and all of its subcommands and nested
+     * sub-subcommands, including subcommands that are added after the converter was registered. When looking up the
+     * converter for a type, a subcommand uses its own registered converters first, then those of its parent, then those
+     * of its parent's parent, and so on, and finally the built-in converters.</p>
+     * <p>If no converter exists for a type, the converters provided by {@link ITypeConverterProvider} services are
+     * tried, then, for enum types, a built-in enum converter. Finally, the converters registered for the superclasses
+     * and interfaces of the type are tried, nearest supertype first; such a converter must return an instance of the
+     * type. The converter found for a type is cached.</p>
      *
      * @param cls the target class to convert parameter string values to
      * @param converter the class capable of converting string values to the specified target type
@@ -549,23 +1231,115 @@ public class CommandLine {
      * @see #addSubcommand(String, Object)
      */
     public <K> CommandLine registerConverter(Class<K> cls, ITypeConverter<K> converter) {
-        interpreter.converterRegistry.put(Assert.notNull(cls, "class"), Assert.notNull(converter, "converter"));
-        for (CommandLine command : interpreter.commands.values()) {
-            command.registerConverter(cls, converter);
-        }
+        Map<Class<?>, ITypeConverter<?>> overlay = new HashMap<Class<?>, ITypeConverter<?>>(converterOverlay);
+        overlay.put(Assert.notNull(cls, "class"), Assert.notNull(converter, "converter"));
+        converterOverlay = Collections.unmodifiableMap(overlay);
+        root().converterGeneration.incrementAndGet(); // subcommands may have cached a converter of a parent for this type
         return this;
     }
 
+    /** Returns the converter for the specified type, or {@code null} if there is none. Converters are resolved once
+     * per type (see {@link #resolveConverter(Class)}) and cached until a converter is registered or a subcommand is
+     * added in the tree of this command. */
+    ITypeConverter<?> converterFor(Class<?> type) {
+        ConverterCache cache = converterCache;
+        if (cache == null || !cache.isValid()) {
+            converterCache = cache = new ConverterCache(root());
+        }
+        ITypeConverter<?> result = cache.converters.get(type);
+        if (result == null) {
+            ITypeConverter<?> resolved = resolveConverter(type);
+            result = resolved == null ? ConverterCache.NONE : resolved;
+            cache.converters.put(type, result);
+        }
+        return result == ConverterCache.NONE ? null : result;
+    }
+
+    /** Resolves the converter for the specified type: a registered, built-in or provided converter for the type, the
+     * built-in enum converter, or a registered or provided converter for the nearest supertype. */
+    private ITypeConverter<?> resolveConverter(Class<?> type) {
+        ITypeConverter<?> result = exactConverter(type, true);
+        if (result != null) {
+            return result;
+        }
+        if (type.isEnum()) {
+            return BuiltIn.EnumConverter.forType(type, caseInsensitiveEnumValuesAllowed);
+        }
+        // breadth-first over the superclasses and interfaces, so that the nearest supertype wins
+        List<Class<?>> supertypes = new ArrayList<Class<?>>();
+        Set<Class<?>> visited = new HashSet<Class<?>>();
+        supertypes.add(type);
+        for (int i = 0; i < supertypes.size(); i++) {
+            Class<?> current = supertypes.get(i);
+            if (i > 0 && (result = exactConverter(current, false)) != null) {
+                return new BuiltIn.SupertypeConverter(type, current, result);
+            }
+            if (current.getSuperclass() != null && current.getSuperclass() != Object.class && visited.add(current.getSuperclass())) {
+                supertypes.add(current.getSuperclass());
+            }
+            for (Class<?> iface : current.getInterfaces()) {
+                if (visited.add(iface)) { supertypes.add(iface); }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the converter registered for the specified type with this command or the nearest of its parents that
+     * has one, or (optionally) the built-in converter for that type, or the converter of the first
+     * {@link ITypeConverterProvider} that supports the type, or {@code null} if there is none. Built-in converters
+     * produce instances of exactly their type, so they are not used for subtypes. */
+    private ITypeConverter<?> exactConverter(Class<?> type, boolean includeBuiltIn) {
+        for (CommandLine cmd = this; cmd != null; cmd = cmd.parent) {
+            ITypeConverter<?> result = cmd.converterOverlay.get(type);
+            if (result != null) {
+                return result;
+            }
+        }
+        ITypeConverter<?> result = null;
+        if (includeBuiltIn) {
+            result = unitSuffixesAllowed ? BuiltIn.UNIT_CONVERTERS.get(type) : null;
+            result = result == null ? BuiltIn.CONVERTERS.get(type) : result;
+        }
+        for (Iterator<ITypeConverterProvider> it = BuiltIn.providers().iterator(); result == null && it.hasNext(); ) {
+            result = it.next().getConverter(type);
+        }
+        return result;
+    }
+
+    /** The converters resolved for the types of a command. A cache is valid until a converter is registered or a
+     * subcommand is added in the same command tree: both are rare, and may change the converters resolved by other
+     * commands of the tree. Both increment the generation of the root command, which the cache compares with the
+     * generation it was created in. Commands of other trees keep their caches. */
+    private static final class ConverterCache {
+        /** Marks a type for which no converter exists. */
+        static final ITypeConverter<Object> NONE = new ITypeConverter<Object>() {
+            public Object convert(String value) { throw new UnsupportedOperationException(); }
+        };
+        private final AtomicInteger generation;
+        private final int created;
+        final Map<Class<?>, ITypeConverter<?>> converters = new ConcurrentHashMap<Class<?>, ITypeConverter<?>>();
+
+        ConverterCache(CommandLine root) {
+            this.generation = root.converterGeneration;
+            this.created = generation.get();
+        }
+        boolean isValid() { return created == generation.get(); }
+    }
+
     /** Returns the String that separates option names from option values when parsing command line options. {@code '='} by default.
      * @return the String the parser uses to separate option names from option values */
     public String getSeparator() {
-        return interpreter.separator;
+        if (separator == null) {
+            String declared = model().separator;
+            separator = declared != null ? declared : "=";
+        }
+        return separator;
     }
 
     /** Sets the String the parser uses to separate option names from option values to the specified value.
      * @param separator the String that separates option names from option values */
     public void setSeparator(String separator) {
-        interpreter.separator = Assert.notNull(separator, "separator");
+        this.separator = Assert.notNull(separator, "separator");
     }
     private static boolean empty(String str) { return str == null || str.trim().length() == 0; }
     private static boolean empty(Object[] array) { return array == null || array.length == 0; }
@@ -789,7 +1563,10 @@ public class CommandLine {
          * </p><p>
          * When the field's type is an array, the {@code type} attribute is ignored: the values will be converted
          * to the array component type and the array will be replaced with a new instance containing both the old and
-         * the new values. </p>
+         * the new values. </p><p>
+         * The {@code type} attribute also specifies the element type of fields of type {@code Iterable}, {@code Iterator}
+         * and {@link IValueConsumer}, whose values are converted one element at a time, and the value type of fields
+         * of type {@link Lazy}, whose value is converted when it is first read.</p>
          * @return the type to convert the raw String values to before adding them to the Collection
          */
         Class<?> type() default String.class;
@@ -885,7 +1662,10 @@ public class CommandLine {
          * </p><p>
          * When the field's type is an array, the {@code type} attribute is ignored: the values will be converted
          * to the array component type and the array will be replaced with a new instance containing both the old and
-         * the new values. </p>
+         * the new values. </p><p>
+         * The {@code type} attribute also specifies the element type of fields of type {@code Iterable}, {@code Iterator}
+         * and {@link IValueConsumer}, whose values are converted one element at a time, and the value type of fields
+         * of type {@link Lazy}, whose value is converted when it is first read.</p>
          * @return the type to convert the raw String values to before adding them to the Collection
          */
         Class<?> type() default String.class;
@@ -960,6 +1740,9 @@ public class CommandLine {
          *         .addSubcommand("commit",   new GitCommit())
          *         .addSubcommand("branch",   new GitBranch());
          * </pre>
+         * <p>Declared subcommand classes are instantiated lazily: only when the subcommand is invoked on the command line
+         * or its {@linkplain CommandLine#getCommand() command object} is requested. Usage help and the
+         * {@linkplain CommandLine#getSubcommands() subcommand map} do not require the subcommands to be instantiated.</p>
          * @return the declaratively registered subcommands of this command, or an empty array if none
          * @see CommandLine#addSubcommand(String, Object)
          * @since 0.9.8
@@ -1115,17 +1898,218 @@ public class CommandLine {
          */
         K convert(String value) throws Exception;
     }
-    /** Describes the number of parameters required and accepted by an option or a positional parameter.
-     * @since 0.9.7
+
+    /**
+     * <p>
+     * Provides type converters for types that have no {@linkplain #registerConverter(Class, ITypeConverter) registered}
+     * or built-in converter. Providers are discovered with {@code java.util.ServiceLoader} (on Java 6 and later): list
+     * the fully qualified name of the implementation class in a resource file named
+     * {@code META-INF/services/picocli.CommandLine$ITypeConverterProvider}.
+     * </p><p>
+     * Providers are loaded once, and asked for a converter at most once per type and {@code CommandLine}; the result is
+     * cached.
+     * </p>
+     * @since 1.0.0
      */
-    public static class Range implements Comparable<Range> {
-        /** Required number of parameters for an option or positional parameter. */
-        public final int min;
-        /** Maximum accepted number of parameters for an option or positional parameter. */
-        public final int max;
-        public final boolean isVariable;
-        private final boolean isUnspecified;
-        private final String originalValue;
+    public interface ITypeConverterProvider {
+        /**
+         * Returns a converter for the specified type, or {@code null} if this provider does not support the type.
+         * @param type the type to convert command line arguments to
+         * @param <K> the type to convert to
+         * @return a converter that returns instances of the specified type, or {@code null}
+         */
+        <K> ITypeConverter<K> getConverter(Class<K> type);
+    }
+
+    /**
+     * <p>
+     * A type converter that may block, for example on a DNS lookup or on file system access. If a multi-value option
+     * or positional parameter has several values, and its converter implements this interface, the values are
+     * converted concurrently on the {@linkplain CommandLine#setConversionExecutor(ExecutorService) conversion
+     * executor}. All conversions complete before the values are assigned to the annotated field, in the order of the
+     * command line arguments. If several values cannot be converted, the error for the first of these values is thrown.
+     * </p><p>
+     * Implementations must be thread-safe. The built-in {@code InetAddress} converter implements this interface.
+     * </p>
+     * @param <K> the type of the object that is the result of the conversion
+     * @since 1.0.0
+     */
+    public interface IBlockingTypeConverter<K> extends ITypeConverter<K> {
+    }
+
+    /**
+     * <p>
+     * Receives the values of a multi-value option or positional parameter one element at a time, as they are
+     * converted, instead of collecting them in an array or collection. An annotated field of this type must be
+     * initialized with a consumer; the {@code type} attribute of the annotation specifies the type to convert the
+     * values to. For example:
+     * </p><pre>
+     * &#064;Parameters(type = File.class)
+     * IValueConsumer&lt;File&gt; files = new IValueConsumer&lt;File&gt;() {
+     *     public void accept(File file) { process(file); }
+     * };
+     * </pre><p>
+     * Annotated fields of type {@code Iterable} or {@code Iterator} are an alternative: they receive a read-only view
+     * of the matched values that converts each value when it is iterated over. A conversion error is then
+     * thrown as a {@link ParameterException} by the view, not by the parse method.
+     * </p>
+     * @param <T> the type of the values
+     * @since 1.0.0
+     */
+    public interface IValueConsumer<T> {
+        /**
+         * Called for each value of the option or positional parameter, in the order in which they were specified.
+         * @param value the converted value
+         */
+        void accept(T value);
+    }
+
+    /**
+     * <p>
+     * Holds the value of a single-valued option or positional parameter that is converted when it is first read,
+     * instead of when the command line is parsed. This avoids the cost of conversions (like compiling a
+     * {@code Pattern}, resolving a host name or opening a resource in a custom converter) that the program may never
+     * need. The {@code type} attribute of the annotation specifies the type to convert the value to. For example:
+     * </p><pre>
+     * &#064;Option(names = "--filter", type = Pattern.class)
+     * Lazy&lt;Pattern&gt; filter = Lazy.of(Pattern.compile(".*"));
+     * </pre><p>
+     * The value is converted at most once, also if several threads call {@link #get()} concurrently. If the value
+     * cannot be converted, {@code get()} throws a {@link ParameterException} that describes the option or positional
+     * parameter, like the parse method would have, and throws the same exception on later calls.
+     * </p>
+     * @param <T> the type of the value
+     * @since 1.0.0
+     */
+    public static final class Lazy<T> {
+        private final String raw;
+        private volatile ITypeConverter<?> converter; // null once converted
+        private T value;
+        private ParameterException failure;
+
+        Lazy(String raw, ITypeConverter<?> converter) {
+            this.raw = raw;
+            this.converter = converter;
+        }
+
+        /** Returns a holder of the specified value, which is not converted. Use this to initialize an annotated field
+         * with a default value.
+         * @param value the value to hold
+         * @param <T> the type of the value
+         * @return a holder of the specified value */
+        public static <T> Lazy<T> of(T value) {
+            Lazy<T> result = new Lazy<T>(null, null);
+            result.value = value;
+            return result;
+        }
+
+        /** Returns the value, converting the command line argument on the first call.
+         * @return the converted value
+         * @throws ParameterException if the command line argument cannot be converted */
+        @SuppressWarnings("unchecked")
+        public T get() {
+            if (converter != null) {
+                synchronized (this) {
+                    ITypeConverter<?> pending = converter;
+                    if (pending != null) {
+                        try {
+                            value = (T) pending.convert(raw);
+                        } catch (ParameterException ex) {
+                            failure = ex;
+                        } catch (Exception ex) {
+                            failure = new ParameterException("Could not convert '" + raw + "': " + ex, ex);
+                        }
+                        converter = null; // publishes value and failure, and releases the converter
+                    }
+                }
+            }
+            if (failure != null) { throw failure; }
+            return value;
+        }
+
+        /** Returns the command line argument, or {@code null} if this holder was created with {@link #of(Object)}.
+         * @return the raw String value */
+        public String getRawValue() { return raw; }
+
+        /** Returns whether the value has been converted (or could not be converted).
+         * @return {@code false} if {@link #get()} still needs to convert the command line argument */
+        public boolean isConverted() { return converter == null; }
+
+        /** Returns the converted value as a String if the value has been converted, otherwise the raw value. */
+        public String toString() { return isConverted() && failure == null ? String.valueOf(value) : raw; }
+    }
+    /**
+     * <p>
+     * Description of the annotations declared by a single command class, generated at compile time by the
+     * {@code picocli-codegen} annotation processor, so that picocli does not need to read these annotations by
+     * reflection, and can read and write the accessible annotated fields without {@code java.lang.reflect.Field}.
+     * Picocli still uses reflection to load the descriptor class and to look up the {@code Field} objects of the
+     * described fields.
+     * </p><p>
+     * For a class {@code com.example.Git}, the processor generates a class {@code com.example.Git$$PicocliDescriptor}
+     * implementing this interface. When building its model of a command class, picocli uses the generated
+     * descriptor of each class in the hierarchy if it exists, and falls back to reading the annotations of that
+     * class by reflection otherwise.
+     * </p><p>
+     * Applications do not normally implement this interface or call its methods directly.
+     * </p>
+     * @since 1.0.0
+     */
+    public interface ICommandDescriptor {
+        /** Suffix appended to the name of a command class to obtain the name of its generated descriptor class. */
+        String CLASS_NAME_SUFFIX = "$$PicocliDescriptor";
+
+        /** Returns the {@code @Command} annotation of the described class.
+         * @return the {@code @Command} annotation, or {@code null} if the described class has no such annotation */
+        Command command();
+
+        /** Returns the names of the fields declared by the described class that are annotated with {@code @Option}
+         * or {@code @Parameters}, in declaration order. Fields of superclasses are not included.
+         * @return the names of the annotated fields */
+        String[] fieldNames();
+
+        /** Returns the {@code @Option} annotation of the field at the specified index.
+         * @param fieldIndex index into the {@link #fieldNames()} array
+         * @return the {@code @Option} annotation, or {@code null} if the field is not an option */
+        Option option(int fieldIndex);
+
+        /** Returns the {@code @Parameters} annotation of the field at the specified index.
+         * @param fieldIndex index into the {@link #fieldNames()} array
+         * @return the {@code @Parameters} annotation, or {@code null} if the field is not a positional parameter */
+        Parameters parameters(int fieldIndex);
+
+        /** Returns whether the generated code can read and write the field at the specified index directly.
+         * This is {@code false} for private and final fields, and for fields of classes that are not accessible
+         * from the package of the described class.
+         * @param fieldIndex index into the {@link #fieldNames()} array
+         * @return whether {@link #get(Object, int)} and {@link #set(Object, int, Object)} are supported for the field */
+        boolean hasAccessor(int fieldIndex);
+
+        /** Returns the value of the field at the specified index.
+         * @param command the instance of the described class to read the field of
+         * @param fieldIndex index into the {@link #fieldNames()} array
+         * @return the (boxed) value of the field
+         * @throws UnsupportedOperationException if the field has {@linkplain #hasAccessor(int) no accessor} */
+        Object get(Object command, int fieldIndex);
+
+        /** Assigns the specified value to the field at the specified index.
+         * @param command the instance of the described class whose field to set
+         * @param fieldIndex index into the {@link #fieldNames()} array
+         * @param value the (boxed) value to assign
+         * @throws UnsupportedOperationException if the field has {@linkplain #hasAccessor(int) no accessor} */
+        void set(Object command, int fieldIndex, Object value);
+    }
+    /** Describes the number of parameters required and accepted by an option or a positional parameter.
+     * @since 0.9.7
+     */
+    public static class Range implements Comparable<Range> {
+        /** Required number of parameters for an option or positional parameter. */
+        public final int min;
+        /** Maximum accepted number of parameters for an option or positional parameter. */
+        public final int max;
+        public final boolean isVariable;
+        private final boolean isUnspecified;
+        private final String originalValue;
 
         /** Constructs a new Range object with the specified parameters.
          * @param min minimum number of required parameters
@@ -1146,38 +2130,36 @@ public class CommandLine {
          * @param field the field whose Option annotation to inspect
          * @return a new {@code Range} based on the Option arity annotation on the specified field */
         public static Range optionArity(Field field) {
-            return field.isAnnotationPresent(Option.class)
-                    ? adjustForType(Range.valueOf(field.getAnnotation(Option.class).arity()), field)
-                    : new Range(0, 0, false, true, "0");
+            ArgSpec spec = ArgSpec.forField(field);
+            return spec.isOption() ? spec.arity : new Range(0, 0, false, true, "0");
         }
         /** Returns a new {@code Range} based on the {@link Parameters#arity()} annotation on the specified field,
          * or the field type's default arity if no arity was specified.
          * @param field the field whose Parameters annotation to inspect
          * @return a new {@code Range} based on the Parameters arity annotation on the specified field */
         public static Range parameterArity(Field field) {
-            return field.isAnnotationPresent(Parameters.class)
-                    ? adjustForType(Range.valueOf(field.getAnnotation(Parameters.class).arity()), field)
-                    : new Range(0, 0, false, true, "0");
+            ArgSpec spec = ArgSpec.forField(field);
+            return spec.parameters != null ? spec.arity : new Range(0, 0, false, true, "0");
         }
         /** Returns a new {@code Range} based on the {@link Parameters#index()} annotation on the specified field.
          * @param field the field whose Parameters annotation to inspect
          * @return a new {@code Range} based on the Parameters index annotation on the specified field */
         public static Range parameterIndex(Field field) {
-            return field.isAnnotationPresent(Parameters.class)
-                    ? Range.valueOf(field.getAnnotation(Parameters.class).index())
-                    : new Range(0, 0, false, true, "0");
+            ArgSpec spec = ArgSpec.forField(field);
+            return spec.parameters != null ? spec.index : new Range(0, 0, false, true, "0");
         }
         static Range adjustForType(Range result, Field field) {
             return result.isUnspecified ? defaultArity(field.getType()) : result;
         }
-        /** Returns a new {@code Range} based on the specified type: booleans have arity 0, arrays or Collections have
-         * arity "0..*", and other types have arity 1.
+        /** Returns a new {@code Range} based on the specified type: booleans have arity 0, arrays, Collections,
+         * {@code Iterable}, {@code Iterator} and {@link IValueConsumer} types have arity "0..*", and other types have arity 1.
          * @param type the type whose default arity to return
          * @return a new {@code Range} indicating the default arity of the specified type */
         public static Range defaultArity(Class<?> type) {
             if (isBoolean(type)) {
                 return Range.valueOf("0");
-            } else if (type.isArray() || Collection.class.isAssignableFrom(type)) {
+            } else if (type.isArray() || Collection.class.isAssignableFrom(type) || ArgSpec.isStreamType(type)
+                    || IValueConsumer.class.isAssignableFrom(type)) {
                 return Range.valueOf("0..*");
             }
             return Range.valueOf("1");// for single-valued fields
@@ -1241,20 +2223,376 @@ public class CommandLine {
             return (result == 0) ? max - other.max : result;
         }
     }
-    static void init(Class<?> cls,
-                              List<Field> requiredFields,
-                              Map<String, Field> optionName2Field,
-                              Map<Character, Field> singleCharOption2Field,
-                              List<Field> positionalParametersFields) {
-        Field[] declaredFields = cls.getDeclaredFields();
-        for (Field field : declaredFields) {
-            field.setAccessible(true);
-            if (field.isAnnotationPresent(Option.class)) {
-                Option option = field.getAnnotation(Option.class);
+    /**
+     * The result of {@linkplain CommandLine#parseArgs(String...) parsing} command line arguments: the option and
+     * positional parameter values that were matched, the arguments that could not be matched, whether help was requested,
+     * and the result of the subcommand, if any. A {@code ParseResult} is created for each parse and belongs to the
+     * calling thread.
+     * @since 1.0.0
+     */
+    public static final class ParseResult {
+        private final CommandLine commandLine;
+        private final String[] originalArgs;
+        private final boolean converted;
+        private final Map<Field, Object> values = new LinkedHashMap<Field, Object>();
+        private final List<String> unmatched = new ArrayList<String>();
+        private boolean helpRequested;
+        private boolean usageHelpRequested;
+        private boolean versionHelpRequested;
+        private ParseResult subcommand;
+
+        private ParseResult(CommandLine commandLine, String[] originalArgs, boolean converted) {
+            this.commandLine = commandLine;
+            this.originalArgs = originalArgs;
+            this.converted = converted;
+        }
+        /** Returns the {@code CommandLine} that matched the arguments of this result.
+         * @return the command or subcommand of this result */
+        public CommandLine commandLine() { return commandLine; }
+        /** Returns a copy of the command line arguments that were parsed.
+         * @return the original command line arguments, including those of any subcommands */
+        public String[] originalArgs() { return originalArgs.clone(); }
+        /** Returns whether the option with the specified name was matched on the command line.
+         * @param name any of the option's names, for example {@code "-v"} or {@code "--verbose"}
+         * @return {@code true} if the option was matched, {@code false} otherwise */
+        public boolean hasOption(String name) {
+            Field field = commandLine.model().optionName2Field.get(name);
+            return field != null && values.containsKey(field);
+        }
+        /** Returns whether the values in this result were converted to the type of the annotated fields, or are the raw
+         * argument strings that were matched, as returned by {@link CommandLine#classify(String...)}.
+         * @return {@code true} for the result of {@code parseArgs}, {@code false} for the result of {@code classify} */
+        public boolean isConverted() { return converted; }
+        /** Returns the value of the option with the specified name, or {@code null} if the option was not matched.
+         * @param name any of the option's names, for example {@code "-f"} or {@code "--file"}
+         * @return the converted value, an array or collection for multi-value options; or, if this result is not
+         *      {@linkplain #isConverted() converted}, the list of raw argument strings matched to the option */
+        public Object optionValue(String name) {
+            Field field = commandLine.model().optionName2Field.get(name);
+            return field == null ? null : values.get(field);
+        }
+        /** Returns the values of the matched options, in the order the options were first matched.
+         * @return a map from the annotated option fields to their values */
+        public Map<Field, Object> matchedOptions() { return matched(true); }
+        /** Returns the values of the matched positional parameters.
+         * @return a map from the annotated positional parameter fields to their values */
+        public Map<Field, Object> matchedPositionals() { return matched(false); }
+        private Map<Field, Object> matched(boolean options) {
+            Map<Field, Object> result = new LinkedHashMap<Field, Object>();
+            for (Map.Entry<Field, Object> entry : values.entrySet()) {
+                if (commandLine.model().specs.get(entry.getKey()).isOption() == options) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return Collections.unmodifiableMap(result);
+        }
+        /** Returns the arguments that could not be matched (only if {@linkplain #setUnmatchedArgumentsAllowed(boolean)
+         * unmatched arguments are allowed}).
+         * @return the unmatched arguments of this command, in the order they were specified */
+        public List<String> unmatched() { return Collections.unmodifiableList(unmatched); }
+        /** Returns whether an option annotated with {@link Option#help() help = true} was matched.
+         * @return whether a help option was matched */
+        public boolean isHelpRequested() { return helpRequested; }
+        /** Returns whether an option annotated with {@link Option#usageHelp() usageHelp = true} was matched.
+         * @return whether usage help was requested */
+        public boolean isUsageHelpRequested() { return usageHelpRequested; }
+        /** Returns whether an option annotated with {@link Option#versionHelp() versionHelp = true} was matched.
+         * @return whether version information was requested */
+        public boolean isVersionHelpRequested() { return versionHelpRequested; }
+        /** Returns whether a subcommand was matched.
+         * @return {@code true} if a subcommand was matched */
+        public boolean hasSubcommand() { return subcommand != null; }
+        /** Returns the result of the subcommand, or {@code null} if no subcommand was matched.
+         * @return the result of the subcommand that was matched */
+        public ParseResult subcommand() { return subcommand; }
+        /** Returns this command and the subcommands that were matched, as {@code CommandLine} objects.
+         * @return a list with this command followed by its matched subcommand, sub-subcommand, and so on */
+        public List<CommandLine> asCommandLineList() {
+            List<CommandLine> result = new ArrayList<CommandLine>();
+            for (ParseResult r = this; r != null; r = r.subcommand) { result.add(r.commandLine); }
+            return result;
+        }
+    }
+    /**
+     * The result of {@linkplain CommandLine#populateCommands(Callable, Iterable) populating} a command object from one
+     * command line of a batch: either the initialized command object, or the exception that the command line caused.
+     * @param <T> the type of the annotated object
+     * @since 1.0.0
+     */
+    public static final class BatchResult<T> {
+        private final int index;
+        private final T command;
+        private final ParameterException exception;
+
+        private BatchResult(int index, T command, ParameterException exception) {
+            this.index = index;
+            this.command = command;
+            this.exception = exception;
+        }
+        /** Returns the position of the command line of this result in the batch.
+         * @return the zero-based index of the command line */
+        public int index() { return index; }
+        /** Returns whether the command line was parsed successfully.
+         * @return {@code true} if the command object was initialized, {@code false} if the command line was invalid */
+        public boolean isSuccess() { return exception == null; }
+        /** Returns the initialized command object, or {@code null} if the command line was invalid.
+         * @return the command object initialized from the command line */
+        public T command() { return command; }
+        /** Returns the exception that the command line caused, or {@code null} if it was parsed successfully.
+         * @return the reason why the command line is invalid */
+        public ParameterException exception() { return exception; }
+        public String toString() {
+            return "BatchResult[" + index + (exception == null ? "]" : ": " + exception.getMessage() + "]");
+        }
+    }
+    /**
+     * Snapshot of the initial values of the annotated fields of a command object, used to restore the fields before
+     * each parse. Arrays are replaced (never modified) by the parser, so the initial array is kept as is. Collections
+     * are modified in place, so their initial elements are copied, and restored into the initial collection instance
+     * if a parse modified it. Unmodified collections (which may be read-only) are left untouched.
+     */
+    static final class FieldDefaults {
+        private final Object command;
+        private final ArgSpec[] specs;
+        private final Object[] values;
+        private final Object[][] elements;
+        private final Map<Field, Object> initialValues = new HashMap<Field, Object>();
+
+        FieldDefaults(CommandModel model, Object command) {
+            this.command = command;
+            this.specs = model.argSpecs;
+            this.values = new Object[specs.length];
+            this.elements = new Object[specs.length][];
+            try {
+                for (int i = 0; i < specs.length; i++) {
+                    values[i] = specs[i].accessor.get(command);
+                    Object initial = values[i];
+                    if (specs[i].isCollection && values[i] != null) {
+                        elements[i] = ((Collection<?>) values[i]).toArray();
+                        initial = Collections.unmodifiableList(Arrays.asList(elements[i]));
+                    }
+                    initialValues.put(specs[i].field, initial);
+                }
+            } catch (Exception ex) {
+                throw new IllegalStateException("Could not read initial values of " + command.getClass().getName() + ": " + ex, ex);
+            }
+        }
+
+        /** Returns the initial value of the specified field; for collections, a read-only list of the initial elements. */
+        Object get(Field field) { return initialValues.get(field); }
+
+        /** Restores all annotated fields of the command object to their initial values. */
+        @SuppressWarnings("unchecked")
+        void reset() {
+            try {
+                for (int i = 0; i < specs.length; i++) {
+                    if (elements[i] != null && !containsExactly((Collection<?>) values[i], elements[i])) {
+                        Collection<Object> collection = (Collection<Object>) values[i];
+                        collection.clear();
+                        for (Object element : elements[i]) { collection.add(element); }
+                    }
+                    specs[i].accessor.set(command, values[i]);
+                }
+            } catch (Exception ex) {
+                throw new IllegalStateException("Could not reset " + command.getClass().getName() + ": " + ex, ex);
+            }
+        }
+
+        /** Returns whether the collection still holds the specified elements, in iteration order. */
+        private static boolean containsExactly(Collection<?> collection, Object[] elements) {
+            if (collection.size() != elements.length) { return false; }
+            int i = 0;
+            for (Object element : collection) {
+                if (element != elements[i++]) { return false; }
+            }
+            return true;
+        }
+    }
+    /**
+     * Immutable model of the {@link Command}, {@link Option} and {@link Parameters} annotations of a command class
+     * and its superclasses. Building a model involves reflection, so models are built once per class and cached.
+     * Instances are thread-safe and shared by all {@code CommandLine} and {@code Help} instances for the same class.
+     * <p>Annotations are obtained from the {@linkplain ICommandDescriptor generated descriptor} of a class if it exists,
+     * otherwise by reflection.</p>
+     */
+    static final class CommandModel {
+        // values are soft references: models refer to their class (via Field objects), so a
+        // strongly held value would prevent the weak key from ever being collected
+        private static final Map<Class<?>, SoftReference<CommandModel>> CACHE =
+                Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<CommandModel>>());
+
+        final Class<?> commandClass;
+        /** Maps option names to the field annotated with that option name. */
+        final Map<String, Field> optionName2Field;
+        /** Matches command line arguments against the option names, without creating substrings. */
+        final OptionNameMatcher optionNameMatcher;
+        /** Maps single-character option names (like {@code 'v'} for {@code "-v"}) to their annotated field. */
+        final Map<Character, Field> singleCharOption2Field;
+        /** Required options and positional parameters, options first, parameters sorted by index and arity. */
+        final List<Field> requiredFields;
+        /** All fields annotated with {@link Option} (including hidden options), in declaration order. */
+        final List<Field> optionFields;
+        /** All fields annotated with {@link Parameters}, sorted by index and arity. */
+        final List<Field> positionalParametersFields;
+        /** The resolved specification of each annotated field. */
+        final Map<Field, ArgSpec> specs;
+        /** The resolved specifications of all annotated fields, for iterating without allocating. */
+        final ArgSpec[] argSpecs;
+        /** The {@code @Command} annotations of the class and its superclasses, subclass first. */
+        final List<Command> commandAnnotations;
+        /** Maps subcommand names to the classes declared in {@link Command#subcommands()}. */
+        final Map<String, Class<?>> subcommandClasses;
+        /** Version lines declared with {@link Command#version()}. */
+        final List<String> versionLines;
+        /** The separator declared with {@link Command#separator()}, or {@code null} if there is no {@code @Command} annotation. */
+        final String separator;
+
+        private CommandModel(Class<?> commandClass) {
+            this.commandClass = commandClass;
+            Map<String, Field> optionName2Field           = new HashMap<String, Field>();
+            Map<Character, Field> singleCharOption2Field  = new HashMap<Character, Field>();
+            List<Field> requiredFields                    = new ArrayList<Field>();
+            List<Field> optionFields                      = new ArrayList<Field>();
+            List<Field> positionalParametersFields        = new ArrayList<Field>();
+            Map<Field, ArgSpec> specs                     = new HashMap<Field, ArgSpec>();
+            List<Command> commandAnnotations              = new ArrayList<Command>();
+            Map<String, Class<?>> subcommandClasses       = new LinkedHashMap<String, Class<?>>();
+            List<String> versionLines                     = new ArrayList<String>();
+            String declaredSeparator = null;
+            Class<?> cls = commandClass;
+            while (cls != null) {
+                ICommandDescriptor descriptor = descriptor(cls);
+                if (descriptor != null) {
+                    String[] names = descriptor.fieldNames();
+                    for (int i = 0; i < names.length; i++) {
+                        Field field = declaredField(cls, names[i]);
+                        FieldAccessor accessor = descriptor.hasAccessor(i)
+                                ? new FieldAccessor.GeneratedAccessor(field, descriptor, i)
+                                : FieldAccessor.reflective(field);
+                        init(new ArgSpec(field, descriptor.option(i), descriptor.parameters(i), accessor), specs,
+                                requiredFields, optionName2Field, singleCharOption2Field, optionFields,
+                                positionalParametersFields);
+                    }
+                } else {
+                    for (Field field : cls.getDeclaredFields()) {
+                        Option option = field.getAnnotation(Option.class);
+                        Parameters params = field.getAnnotation(Parameters.class);
+                        if (option != null || params != null) {
+                            init(new ArgSpec(field, option, params, FieldAccessor.reflective(field)), specs,
+                                    requiredFields, optionName2Field, singleCharOption2Field, optionFields,
+                                    positionalParametersFields);
+                        }
+                    }
+                }
+                Command cmd = descriptor != null ? descriptor.command() : cls.getAnnotation(Command.class);
+                if (cmd != null) {
+                    commandAnnotations.add(cmd);
+                    declaredSeparator = (declaredSeparator == null) ? cmd.separator() : declaredSeparator;
+                    versionLines.addAll(Arrays.asList(cmd.version()));
+
+                    for (Class<?> sub : cmd.subcommands()) {
+                        Command subCommand = sub.getAnnotation(Command.class);
+                        if (subCommand == null || Help.DEFAULT_COMMAND_NAME.equals(subCommand.name())) {
+                            throw new IllegalArgumentException("Subcommand " + sub.getName() +
+                                    " is missing the mandatory @Command annotation with a 'name' attribute");
+                        }
+                        subcommandClasses.put(subCommand.name(), sub);
+                    }
+                }
+                cls = cls.getSuperclass();
+            }
+            Comparator<Field> sorter = new PositionalParametersSorter(specs);
+            Collections.sort(positionalParametersFields, sorter);
+            validatePositionalParameters(positionalParametersFields, specs);
+            Collections.sort(requiredFields, sorter);
+
+            this.separator                  = declaredSeparator;
+            this.optionName2Field           = Collections.unmodifiableMap(optionName2Field);
+            this.optionNameMatcher          = new OptionNameMatcher(optionName2Field);
+            this.singleCharOption2Field     = Collections.unmodifiableMap(singleCharOption2Field);
+            this.requiredFields             = Collections.unmodifiableList(requiredFields);
+            this.optionFields               = Collections.unmodifiableList(optionFields);
+            this.positionalParametersFields = Collections.unmodifiableList(positionalParametersFields);
+            this.specs                      = Collections.unmodifiableMap(specs);
+            this.argSpecs                   = specs.values().toArray(new ArgSpec[specs.size()]);
+            this.commandAnnotations         = Collections.unmodifiableList(commandAnnotations);
+            this.subcommandClasses          = Collections.unmodifiableMap(subcommandClasses);
+            this.versionLines               = Collections.unmodifiableList(versionLines);
+        }
+
+        /** Returns the cached model for the specified class, building (and caching) it first if necessary.
+         * @param cls the command class to return the model for
+         * @return the model of the annotations on the specified class and its superclasses
+         * @throws ParameterException if the annotations on the specified class are invalid */
+        static CommandModel forClass(Class<?> cls) {
+            SoftReference<CommandModel> ref = CACHE.get(cls);
+            CommandModel result = ref == null ? null : ref.get();
+            if (result == null) { // concurrent threads may both build a model: this is harmless
+                result = new CommandModel(cls);
+                CACHE.put(cls, new SoftReference<CommandModel>(result));
+            }
+            return result;
+        }
+
+        /** Returns the specification of the specified field in the cached model of its declaring class, without building
+         * that model, or {@code null} if the model is not cached. */
+        static ArgSpec cachedSpec(Field field) {
+            SoftReference<CommandModel> ref = CACHE.get(field.getDeclaringClass());
+            CommandModel model = ref == null ? null : ref.get();
+            return model == null ? null : model.specs.get(field);
+        }
+
+        /** Returns {@code true} if the class has at least one {@code @Command}, {@code @Option} or {@code @Parameters} annotation.
+         * @return whether the class of this model is a command */
+        boolean isCommand() {
+            return !positionalParametersFields.isEmpty() || !optionName2Field.isEmpty() || !commandAnnotations.isEmpty();
+        }
+
+        /** Returns the accessor for the specified field. Fields that are not part of this model (for example, fields
+         * passed to a custom renderer) are accessed by reflection.
+         * @param field the field to return the accessor for
+         * @return the accessor for the specified field, never {@code null} */
+        FieldAccessor accessor(Field field) {
+            ArgSpec result = specs.get(field);
+            return result == null ? FieldAccessor.reflective(field) : result.accessor;
+        }
+
+        /** Returns the generated descriptor of the specified class, or {@code null} if no descriptor was generated. */
+        static ICommandDescriptor descriptor(Class<?> cls) {
+            if (cls.getClassLoader() == null) { return null; } // JDK classes have no descriptor
+            try {
+                Class<?> descriptorClass = Class.forName(cls.getName() + ICommandDescriptor.CLASS_NAME_SUFFIX, true, cls.getClassLoader());
+                return (ICommandDescriptor) descriptorClass.getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException ex) {
+                return null;
+            } catch (Exception ex) {
+                throw new IllegalStateException("Could not instantiate descriptor for " + cls.getName() + ": " + ex, ex);
+            }
+        }
+        private static Field declaredField(Class<?> cls, String name) {
+            try {
+                return cls.getDeclaredField(name);
+            } catch (NoSuchFieldException ex) {
+                throw new IllegalStateException("Descriptor for " + cls.getName() + " is out of date: no field '" + name + "'", ex);
+            }
+        }
+
+        private static void init(ArgSpec spec,
+                                 Map<Field, ArgSpec> specs,
+                                 List<Field> requiredFields,
+                                 Map<String, Field> optionName2Field,
+                                 Map<Character, Field> singleCharOption2Field,
+                                 List<Field> optionFields,
+                                 List<Field> positionalParametersFields) {
+            Field field = spec.field;
+            Option option = spec.option;
+            specs.put(field, spec);
+            if (option != null) {
+                optionFields.add(field);
                 if (option.required()) {
                     requiredFields.add(field);
                 }
-                for (String name : option.names()) { // cannot be null or empty
+                for (String name : spec.names) { // cannot be null or empty
                     Field existing = optionName2Field.put(name, field);
                     if (existing != null && existing != field) {
                         throw DuplicateOptionAnnotationsException.create(name, field, existing);
@@ -1268,29 +2606,263 @@ public class CommandLine {
                     }
                 }
             }
-            if (field.isAnnotationPresent(Parameters.class)) {
-                if (field.isAnnotationPresent(Option.class)) {
+            if (spec.parameters != null) {
+                if (option != null) {
                     throw new ParameterException("A field can be either @Option or @Parameters, but '"
                             + field.getName() + "' is both.");
                 }
                 positionalParametersFields.add(field);
-                Range arity = Range.parameterArity(field);
-                if (arity.min > 0) {
+                if (spec.arity.min > 0) {
                     requiredFields.add(field);
                 }
             }
         }
+        private static void validatePositionalParameters(List<Field> positionalParametersFields, Map<Field, ArgSpec> specs) {
+            int min = 0;
+            for (Field field : positionalParametersFields) {
+                Range index = specs.get(field).index;
+                if (index.min > min) {
+                    throw new ParameterIndexGapException("Missing field annotated with @Parameter(index=" + min +
+                            "). Nearest field '" + field.getName() + "' has index=" + index.min);
+                }
+                min = Math.max(min, index.max);
+                min = min == Integer.MAX_VALUE ? min : min + 1;
+            }
+        }
+    }
+    /**
+     * Everything the parser needs to know about an annotated field, resolved once when the {@link CommandModel} is built:
+     * the annotation, the arity and index ranges, the compiled split pattern, the element type, the help flags and the
+     * accessor. Instances are immutable and shared by all {@code CommandLine} and {@code Help} instances.
+     */
+    static final class ArgSpec {
+        private static final String[] NO_NAMES = new String[0];
+        final Field field;
+        final FieldAccessor accessor;
+        /** The {@code @Option} annotation, or {@code null} if the field is not an option. */
+        final Option option;
+        /** The {@code @Parameters} annotation, or {@code null} if the field is not a positional parameter. */
+        final Parameters parameters;
+        /** The arity, adjusted for the field type if no arity was specified. */
+        final Range arity;
+        /** The index range of a positional parameter, or {@code [0, 0]} for options. */
+        final Range index;
+        /** The option names (shared array: do not modify), or an empty array for positional parameters. */
+        final String[] names;
+        /** The type to convert values to: the array component type, the {@code type} attribute for collections and
+         * other holder types, or the field type. */
+        final Class<?> elementType;
+        final boolean isArray;
+        final boolean isCollection;
+        /** Whether the field is an {@code Iterable} or {@code Iterator} that receives a lazily converting view. */
+        final boolean isStream;
+        /** Whether the field is an {@link IValueConsumer} that receives the values one at a time. */
+        final boolean isConsumer;
+        /** Whether the field is a {@link Lazy} that converts its value on first access. */
+        final boolean isLazy;
+        /** The compiled {@code split} regular expression, or {@code null} if values should not be split. */
+        final Splitter splitter;
+        final boolean help;
+        final boolean usageHelp;
+        final boolean versionHelp;
+        final boolean hidden;
+        final String paramLabel;
+        /** The shortest option name (the first if several have the same length), or {@code null} for positional parameters. */
+        final String shortestName;
+
+        ArgSpec(Field field, Option option, Parameters parameters, FieldAccessor accessor) {
+            this.field = field;
+            this.option = option;
+            this.parameters = parameters;
+            this.accessor = accessor;
+            Range unspecified = new Range(0, 0, false, true, "0");
+            String arityValue = option != null ? option.arity() : parameters != null ? parameters.arity() : null;
+            arity = arityValue == null ? unspecified : Range.adjustForType(Range.valueOf(arityValue), field);
+            index = parameters != null ? Range.valueOf(parameters.index()) : unspecified;
+            names = option != null ? option.names() : NO_NAMES;
+            isArray = field.getType().isArray();
+            isCollection = Collection.class.isAssignableFrom(field.getType());
+            isStream = isStreamType(field.getType());
+            isConsumer = IValueConsumer.class.isAssignableFrom(field.getType());
+            isLazy = field.getType() == Lazy.class;
+            Class<?> typeAttribute = option != null ? option.type() : parameters != null ? parameters.type() : String.class;
+            elementType = isArray ? field.getType().getComponentType()
+                    : isCollection || isStream || isConsumer || isLazy ? typeAttribute : field.getType();
+            String split = option != null ? option.split() : parameters != null ? parameters.split() : "";
+            splitter = Splitter.compile(split);
+            help = option != null && option.help();
+            usageHelp = option != null && option.usageHelp();
+            versionHelp = option != null && option.versionHelp();
+            hidden = option != null ? option.hidden() : parameters != null && parameters.hidden();
+            paramLabel = option != null ? option.paramLabel() : parameters != null ? parameters.paramLabel() : "";
+            shortestName = names.length == 0 ? null : Help.ShortestFirst.sort(names.clone())[0];
+        }
+
+        /** Returns the specification of the specified field in the cached model of its declaring class, or a new
+         * specification if that model has not been built. This method does not build or validate a model: the
+         * declaring class may be a superclass that is not a valid command on its own.
+         * @param field the annotated field to return the specification for
+         * @return the specification of the specified field */
+        static ArgSpec forField(Field field) {
+            ArgSpec result = CommandModel.cachedSpec(field);
+            return result != null ? result : new ArgSpec(field, field.getAnnotation(Option.class),
+                    field.getAnnotation(Parameters.class), FieldAccessor.reflective(field));
+        }
+
+        /** Returns the specification of the specified field in the specified specifications of a command model, or
+         * (for fields that are not part of the model) the specification returned by {@link #forField(Field)}. */
+        static ArgSpec forField(Field field, Map<Field, ArgSpec> specs) {
+            ArgSpec result = specs.get(field);
+            return result != null ? result : forField(field);
+        }
+
+        boolean isOption() { return option != null; }
+
+        /** Returns whether values are bound to the field as a lazily converting {@code Iterable} or {@code Iterator}.
+         * Other types that implement {@code Iterable} (like {@code java.nio.file.Path}) are single values. */
+        static boolean isStreamType(Class<?> type) {
+            return type == Iterable.class || type == Iterator.class;
+        }
+        boolean isMultiValue() {
+            return isArray || isCollection || isStream || isConsumer;
+        }
+        /** Splits the specified value with the {@code split} regular expression, if any. */
+        String[] split(String value) {
+            return splitter == null ? new String[] {value} : splitter.split(value);
+        }
+        /** Returns the number of values the specified argument is split into, without splitting it. */
+        int count(String value) {
+            return splitter == null ? 1 : splitter.count(value);
+        }
     }
-    static void validatePositionalParameters(List<Field> positionalParametersFields) {
-        int min = 0;
-        for (Field field : positionalParametersFields) {
-            Range index = Range.parameterIndex(field);
-            if (index.min > min) {
-                throw new ParameterIndexGapException("Missing field annotated with @Parameter(index=" + min +
-                        "). Nearest field '" + field.getName() + "' has index=" + index.min);
+    /**
+     * Compiled {@code split} regular expression. Regular expressions without special characters (like {@code ","}),
+     * and single escaped characters (like {@code "\\|"}), are split with {@code String.indexOf} instead of the regular
+     * expression engine. The results are the same as those of {@link Pattern#split(CharSequence)}: trailing empty
+     * strings are not included.
+     */
+    static final class Splitter {
+        private static final String REGEX_SPECIAL_CHARACTERS = "\\[](){}.*+?^$|";
+        /** The literal delimiter, or {@code null} if the regular expression must be used. */
+        private final String literal;
+        private final Pattern pattern;
+
+        private Splitter(String literal, Pattern pattern) {
+            this.literal = literal;
+            this.pattern = pattern;
+        }
+
+        /** Returns a splitter for the specified regular expression, or {@code null} if the expression is empty. */
+        static Splitter compile(String regex) {
+            if (regex.length() == 0) { return null; }
+            String literal = literal(regex);
+            return new Splitter(literal, literal == null ? Pattern.compile(regex) : null);
+        }
+        private static String literal(String regex) {
+            if (regex.length() == 2 && regex.charAt(0) == '\\' && !Character.isLetterOrDigit(regex.charAt(1))) {
+                return regex.substring(1); // escaped special character, like "\\|"
             }
-            min = Math.max(min, index.max);
-            min = min == Integer.MAX_VALUE ? min : min + 1;
+            for (int i = 0; i < regex.length(); i++) {
+                if (REGEX_SPECIAL_CHARACTERS.indexOf(regex.charAt(i)) >= 0) { return null; }
+            }
+            return regex;
+        }
+
+        /** Returns whether this splitter splits on a literal delimiter without using the regular expression engine. */
+        boolean isLiteral() { return literal != null; }
+
+        /** Returns the number of values that {@link #split(String)} would return for the specified value. */
+        int count(String value) {
+            if (literal == null) {
+                return pattern.split(value).length;
+            }
+            int pieces = 0;
+            int nonEmpty = 0;
+            int start = 0;
+            for (int end = value.indexOf(literal); end >= 0; end = value.indexOf(literal, start)) {
+                pieces++;
+                if (end > start) { nonEmpty = pieces; }
+                start = end + literal.length();
+            }
+            if (pieces == 0) { return 1; } // no delimiter: the value itself, even if it is empty
+            pieces++;
+            return value.length() > start ? pieces : nonEmpty; // trailing empty strings are not included
+        }
+
+        /** Splits the specified value around the delimiter. */
+        String[] split(String value) {
+            if (literal == null) {
+                return pattern.split(value);
+            }
+            int count = count(value);
+            if (count == 1 && value.indexOf(literal) < 0) {
+                return new String[] {value};
+            }
+            String[] result = new String[count];
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                int end = value.indexOf(literal, start);
+                if (end < 0) { end = value.length(); }
+                result[i] = value.substring(start, end);
+                start = end + literal.length();
+            }
+            return result;
+        }
+
+        public String toString() { return literal != null ? literal : pattern.pattern(); }
+    }
+    /**
+     * Reads and writes the value of an annotated field of a command object. Fields of classes with a
+     * {@linkplain ICommandDescriptor generated descriptor} are accessed directly by the generated code; other fields are
+     * accessed by reflection. Accessors are stateless and may be shared by all instances of a command class.
+     * <p>The primitive accessors read and write {@code boolean}, {@code int} and {@code long} fields without boxing when
+     * accessed by reflection.</p>
+     */
+    abstract static class FieldAccessor {
+        final Field field;
+        FieldAccessor(Field field) { this.field = Assert.notNull(field, "field"); }
+
+        /** Returns the value of the field in the specified command object ({@code null} for static fields). */
+        abstract Object get(Object command) throws Exception;
+        /** Sets the field in the specified command object ({@code null} for static fields) to the specified value. */
+        abstract void set(Object command, Object value) throws Exception;
+
+        boolean getBoolean(Object command) throws Exception { return (Boolean) get(command); }
+        void setBoolean(Object command, boolean value) throws Exception { set(command, value); }
+        void setInt(Object command, int value) throws Exception { set(command, value); }
+        void setLong(Object command, long value) throws Exception { set(command, value); }
+
+        static FieldAccessor reflective(Field field) { return new ReflectiveAccessor(field); }
+
+        /** Accesses the field with {@code java.lang.reflect.Field}, using the primitive-typed methods where possible. */
+        static class ReflectiveAccessor extends FieldAccessor {
+            ReflectiveAccessor(Field field) { super(field); field.setAccessible(true); }
+            Object get(Object command) throws Exception { return field.get(command); }
+            void set(Object command, Object value) throws Exception { field.set(command, value); }
+            boolean getBoolean(Object command) throws Exception {
+                return field.getType() == boolean.class ? field.getBoolean(command) : super.getBoolean(command);
+            }
+            void setBoolean(Object command, boolean value) throws Exception {
+                if (field.getType() == boolean.class) { field.setBoolean(command, value); } else { super.setBoolean(command, value); }
+            }
+            void setInt(Object command, int value) throws Exception {
+                if (field.getType() == int.class) { field.setInt(command, value); } else { super.setInt(command, value); }
+            }
+            void setLong(Object command, long value) throws Exception {
+                if (field.getType() == long.class) { field.setLong(command, value); } else { super.setLong(command, value); }
+            }
+        }
+        /** Accesses the field through the code generated in the descriptor of its declaring class. */
+        static class GeneratedAccessor extends FieldAccessor {
+            private final ICommandDescriptor descriptor;
+            private final int index;
+            GeneratedAccessor(Field field, ICommandDescriptor descriptor, int index) {
+                super(field);
+                this.descriptor = descriptor;
+                this.index = index;
+            }
+            Object get(Object command) { return descriptor.get(command, index); }
+            void set(Object command, Object value) { descriptor.set(command, index, value); }
         }
     }
     private static <T> Stack<T> reverse(Stack<T> stack) {
@@ -1298,150 +2870,672 @@ public class CommandLine {
         return stack;
     }
     /**
-     * Helper class responsible for processing command line arguments.
+     * Unsynchronized cursor over the command line arguments that the interpreter has not consumed yet. The next
+     * argument is either a token that was pushed back (an option parameter attached to its option, the remainder of a
+     * group of short options, or values left over after splitting), or the argument at the current position in the
+     * original array. Windows over the remaining arguments share the original array instead of copying it.
+     * <p>If argument files are expanded, an argument {@code @path} that names an existing file is replaced by the
+     * arguments in that file. Files are tokenized incrementally: looking ahead {@code n} arguments reads no more than
+     * {@code n} tokens, which are buffered below the pushed back tokens. Only operations that need all remaining
+     * arguments ({@link #size()}, {@link #remaining()}, and windows or skips without an upper bound) read the remaining
+     * files completely.</p>
      */
-    private class Interpreter {
-        private final Map<String, CommandLine> commands                  = new LinkedHashMap<String, CommandLine>();
-        private final Map<Class<?>, ITypeConverter<?>> converterRegistry = new HashMap<Class<?>, ITypeConverter<?>>();
-        private final Map<String, Field> optionName2Field                = new HashMap<String, Field>();
-        private final Map<Character, Field> singleCharOption2Field       = new HashMap<Character, Field>();
-        private final List<Field> requiredFields                         = new ArrayList<Field>();
-        private final List<Field> positionalParametersFields             = new ArrayList<Field>();
-        private final Object command;
-        private boolean isHelpRequested;
-        private String separator = "=";
-
-        Interpreter(Object command) {
-            converterRegistry.put(String.class,        new BuiltIn.StringConverter());
-            converterRegistry.put(StringBuilder.class, new BuiltIn.StringBuilderConverter());
-            converterRegistry.put(CharSequence.class,  new BuiltIn.CharSequenceConverter());
-            converterRegistry.put(Byte.class,          new BuiltIn.ByteConverter());
-            converterRegistry.put(Byte.TYPE,           new BuiltIn.ByteConverter());
-            converterRegistry.put(Boolean.class,       new BuiltIn.BooleanConverter());
-            converterRegistry.put(Boolean.TYPE,        new BuiltIn.BooleanConverter());
-            converterRegistry.put(Character.class,     new BuiltIn.CharacterConverter());
-            converterRegistry.put(Character.TYPE,      new BuiltIn.CharacterConverter());
-            converterRegistry.put(Short.class,         new BuiltIn.ShortConverter());
-            converterRegistry.put(Short.TYPE,          new BuiltIn.ShortConverter());
-            converterRegistry.put(Integer.class,       new BuiltIn.IntegerConverter());
-            converterRegistry.put(Integer.TYPE,        new BuiltIn.IntegerConverter());
-            converterRegistry.put(Long.class,          new BuiltIn.LongConverter());
-            converterRegistry.put(Long.TYPE,           new BuiltIn.LongConverter());
-            converterRegistry.put(Float.class,         new BuiltIn.FloatConverter());
-            converterRegistry.put(Float.TYPE,          new BuiltIn.FloatConverter());
-            converterRegistry.put(Double.class,        new BuiltIn.DoubleConverter());
-            converterRegistry.put(Double.TYPE,         new BuiltIn.DoubleConverter());
-            converterRegistry.put(File.class,          new BuiltIn.FileConverter());
-            converterRegistry.put(URI.class,           new BuiltIn.URIConverter());
-            converterRegistry.put(URL.class,           new BuiltIn.URLConverter());
-            converterRegistry.put(Date.class,          new BuiltIn.ISO8601DateConverter());
-            converterRegistry.put(Time.class,          new BuiltIn.ISO8601TimeConverter());
-            converterRegistry.put(BigDecimal.class,    new BuiltIn.BigDecimalConverter());
-            converterRegistry.put(BigInteger.class,    new BuiltIn.BigIntegerConverter());
-            converterRegistry.put(Charset.class,       new BuiltIn.CharsetConverter());
-            converterRegistry.put(InetAddress.class,   new BuiltIn.InetAddressConverter());
-            converterRegistry.put(Pattern.class,       new BuiltIn.PatternConverter());
-            converterRegistry.put(UUID.class,          new BuiltIn.UUIDConverter());
-
-            this.command             = Assert.notNull(command, "command");
-            Class<?> cls             = command.getClass();
-            String declaredSeparator = null;
-            boolean hasCommandAnnotation = false;
-            while (cls != null) {
-                init(cls, requiredFields, optionName2Field, singleCharOption2Field, positionalParametersFields);
-                if (cls.isAnnotationPresent(Command.class)) {
-                    hasCommandAnnotation = true;
-                    Command cmd = cls.getAnnotation(Command.class);
-                    declaredSeparator = (declaredSeparator == null) ? cmd.separator() : declaredSeparator;
-                    CommandLine.this.versionLines.addAll(Arrays.asList(cmd.version()));
+    static final class ArgumentCursor {
+        private String[] args;
+        private int limit;
+        private int position;
+        private String[] pushed; // pushed back and buffered tokens: bottom at pushedBase, the next token on top
+        private int[] pushedFrom; // for each pushed token, the index of the argument in the array it comes from
+        private int pushedBase;
+        private int pushedCount;
+        private int index = -1; // the index of the argument in the array that the last consumed token comes from
+        private boolean expandAtFiles;
+        private int nextAtFile = -1; // index of the next argument file reference in the array, or limit if none
+        private List<ArgumentFile> files; // the argument files being read, innermost last; null until the first is opened
+        private int fileIndex; // the index of the reference in the array to the outermost argument file being read
+
+        ArgumentCursor(String[] args) { this(args, 0, args.length); }
+        ArgumentCursor(String[] args, boolean expandAtFiles) {
+            this(args, 0, args.length);
+            this.expandAtFiles = expandAtFiles && nextAtFile() < limit;
+        }
+        private ArgumentCursor(String[] args, int position, int limit) {
+            this.args = args;
+            this.position = position;
+            this.limit = limit;
+        }
+        boolean isEmpty() {
+            fill(1);
+            return pushedCount == 0 && position >= limit;
+        }
+        /** Returns the number of remaining arguments, including pushed back tokens. Reads all remaining argument files. */
+        int size() {
+            return available(Integer.MAX_VALUE);
+        }
+        /** Returns the number of remaining arguments, or {@code max} if there are more, reading at most {@code max}
+         * tokens ahead from argument files. */
+        int available(int max) {
+            fill(max);
+            return Math.min(max, pushedCount + limit - position);
+        }
+        /** Returns the remaining argument at the specified offset from the next argument, without consuming it. */
+        String get(int offset) {
+            fill(offset + 1);
+            return offset < pushedCount ? pushed[pushedBase + pushedCount - 1 - offset] : args[position + offset - pushedCount];
+        }
+        String peek() {
+            if (isEmpty()) { throw new EmptyStackException(); }
+            return get(0);
+        }
+        String pop() {
+            fill(1);
+            if (pushedCount > 0) {
+                index = pushedFrom[pushedBase + --pushedCount];
+                return pushed[pushedBase + pushedCount];
+            }
+            if (position >= limit) { throw new EmptyStackException(); }
+            index = position;
+            return args[position++];
+        }
+        /** Pushes back a token that will be returned by the next call to {@link #pop()}. The token is considered part
+         * of the argument of the last consumed token. */
+        void push(String token) {
+            if (pushedCount == 0 && pushed != null) { pushedBase = pushed.length / 2; }
+            if (pushed == null || pushedBase + pushedCount == pushed.length) { grow(); }
+            pushedFrom[pushedBase + pushedCount] = index;
+            pushed[pushedBase + pushedCount++] = token;
+        }
+        /** Consumes the specified number of arguments (or all remaining arguments if there are fewer). */
+        void skip(int count) {
+            fill(count);
+            int fromPushed = Math.min(count, pushedCount);
+            pushedCount -= fromPushed;
+            if (fromPushed > 0) { index = pushedFrom[pushedBase + pushedCount]; }
+            int fromArray = Math.min(limit - position, count - fromPushed);
+            position += fromArray;
+            if (fromArray > 0) { index = position - 1; }
+        }
+        /** Returns the index in the argument array of the argument that the last consumed token comes from, without
+         * reading ahead: for a token read from an argument file, the index of the reference to that file. Returns
+         * {@code -1} if no token has been consumed. */
+        int index() {
+            return index;
+        }
+        /** Returns a new cursor over the remaining arguments from offset {@code from} (inclusive) to offset {@code to}
+         * (exclusive). Consuming arguments from the window does not affect this cursor. */
+        ArgumentCursor window(int from, int to) {
+            to = available(to);
+            from = Math.min(from, to);
+            ArgumentCursor result = new ArgumentCursor(args,
+                    position + Math.max(0, from - pushedCount), position + Math.max(0, to - pushedCount));
+            for (int i = Math.min(to, pushedCount) - 1; i >= from; i--) {
+                result.index = pushedFrom[pushedBase + pushedCount - 1 - i];
+                result.push(get(i));
+            }
+            result.index = index;
+            return result;
+        }
+        /** Returns the remaining arguments in order, without consuming them. */
+        List<String> remaining() {
+            List<String> result = new ArrayList<String>(size());
+            for (int i = 0; i < size(); i++) { result.add(get(i)); }
+            return result;
+        }
+        /** Closes any argument files that have not been read completely. */
+        void close() {
+            while (files != null && !files.isEmpty()) {
+                files.remove(files.size() - 1).close();
+            }
+        }
 
-                    for (Class<?> sub : cmd.subcommands()) {
-                        Command subCommand = sub.getAnnotation(Command.class);
-                        if (subCommand == null || Help.DEFAULT_COMMAND_NAME.equals(subCommand.name())) {
-                            throw new IllegalArgumentException("Subcommand " + sub.getName() +
-                                    " is missing the mandatory @Command annotation with a 'name' attribute");
-                        }
-                        try {
-                            Constructor<?> constructor = sub.getDeclaredConstructor();
-                            constructor.setAccessible(true);
-                            CommandLine commandLine = toCommandLine(constructor.newInstance());
-                            commandLine.parent = CommandLine.this;
-                            commands.put(subCommand.name(), commandLine);
-                        }
-                        catch (IllegalArgumentException ex) { throw ex; }
-                        catch (NoSuchMethodException ex) { throw new IllegalArgumentException("Cannot instantiate subcommand " +
-                                sub.getName() + ": the class has no constructor", ex); }
-                        catch (Exception ex) {
-                            throw new IllegalStateException("Could not instantiate and add subcommand " +
-                                    sub.getName() + ": " + ex, ex);
-                        }
+        private static boolean isAtFile(String arg) {
+            return arg != null && arg.length() > 1 && arg.charAt(0) == '@' && new File(arg.substring(1)).isFile();
+        }
+        private int nextAtFile() {
+            if (nextAtFile < position) {
+                nextAtFile = position;
+                while (nextAtFile < limit && !isAtFile(args[nextAtFile])) { nextAtFile++; }
+            }
+            return nextAtFile;
+        }
+        /** Ensures that none of the next {@code count} arguments is an argument file reference. Tokens read from
+         * argument files, and arguments of the array that precede a file reference, are buffered below the pushed back
+         * tokens, since they come after them. */
+        private void fill(int count) {
+            while (expandAtFiles && pushedCount < count) {
+                if (files != null && !files.isEmpty()) {
+                    ArgumentFile file = files.get(files.size() - 1);
+                    String token = file.next();
+                    if (token == null) {
+                        files.remove(files.size() - 1).close();
+                    } else if (isAtFile(token)) {
+                        open(token);
+                    } else {
+                        pushBelow(token, fileIndex);
                     }
+                } else if (nextAtFile() >= limit) {
+                    expandAtFiles = false; // all files have been read: the remaining arguments are in the array
+                } else if (nextAtFile() - position >= count - pushedCount) {
+                    return; // the next file reference is beyond the requested arguments
+                } else if (nextAtFile() == position) {
+                    fileIndex = position;
+                    open(args[position++]);
+                } else {
+                    pushBelow(args[position], position);
+                    position++;
                 }
-                cls = cls.getSuperclass();
             }
-            separator = declaredSeparator != null ? declaredSeparator : separator;
-            Collections.sort(positionalParametersFields, new PositionalParametersSorter());
-            validatePositionalParameters(positionalParametersFields);
+        }
+        private void pushBelow(String token, int from) {
+            if (pushedCount == 0 && pushed != null) { pushedBase = pushed.length / 2; }
+            if (pushed == null || pushedBase == 0) { grow(); }
+            pushed[--pushedBase] = token;
+            pushedFrom[pushedBase] = from;
+            pushedCount++;
+        }
+        /** Reallocates the pushed back tokens with free space above and below them. */
+        private void grow() {
+            String[] grown = new String[pushedCount * 2 + 8];
+            int[] grownFrom = new int[grown.length];
+            int base = (grown.length - pushedCount) / 2;
+            if (pushedCount > 0) {
+                System.arraycopy(pushed, pushedBase, grown, base, pushedCount);
+                System.arraycopy(pushedFrom, pushedBase, grownFrom, base, pushedCount);
+            }
+            pushed = grown;
+            pushedFrom = grownFrom;
+            pushedBase = base;
+        }
+        private void open(String arg) {
+            File file = new File(arg.substring(1));
+            if (files == null) { files = new ArrayList<ArgumentFile>(); }
+            for (ArgumentFile open : files) {
+                if (open.isSameFile(file)) {
+                    throw new ParameterException("Argument file " + arg + " includes itself (directly or through " +
+                            "a nested argument file)");
+                }
+            }
+            files.add(new ArgumentFile(file));
+        }
+    }
+    /**
+     * Splits text that is read one character at a time into arguments. Arguments are separated by whitespace, quotes
+     * group characters (including whitespace) into an argument, and a {@code #} at the start of an argument starts a
+     * comment that extends to the end of the line. Backslashes are treated differently in the two styles:
+     * <ul>
+     *   <li>argument files: within single or double quotes, a backslash escapes the next character; outside quotes,
+     *   a backslash is an ordinary character (so Windows paths need no quoting). A quote that is not closed ends at
+     *   the end of the input.</li>
+     *   <li>shell command lines (see {@link CommandLine#splitCommandLine(String)}), as in a POSIX shell: within
+     *   single quotes, all characters are literal; within double quotes, a backslash only escapes {@code "}, {@code \},
+     *   {@code $} and {@code `}; outside quotes, a backslash escapes the next character. A quote that is not closed
+     *   is an error.</li>
+     * </ul>
+     */
+    abstract static class ArgumentTokenizer {
+        private final boolean shell;
+        private final StringBuilder token = new StringBuilder();
+
+        /** Creates a tokenizer with the shell quoting rules if {@code shell} is {@code true}, and the argument file
+         * quoting rules otherwise. */
+        ArgumentTokenizer(boolean shell) { this.shell = shell; }
+
+        /** Returns the next character of the input, or {@code -1} at the end of the input. */
+        abstract int read();
+
+        /** Returns the next argument, or {@code null} if there are no more arguments.
+         * @throws ParameterException if a quote is not closed and this tokenizer has the shell quoting rules */
+        String next() {
+            token.setLength(0);
+            boolean inToken = false;
+            int quote = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    } else if (c == '\\' && !shell) {
+                        appendEscaped(null);
+                    } else if (c == '\\' && quote == '"') {
+                        appendEscaped("\"\\$`");
+                    } else {
+                        token.append((char) c);
+                    }
+                } else if (Character.isWhitespace(c)) {
+                    if (inToken) { return token.toString(); }
+                } else if (c == '#' && !inToken) {
+                    while ((c = read()) >= 0 && c != '\n' && c != '\r') { } // skip comment
+                } else {
+                    inToken = true;
+                    if (c == '"' || c == '\'') {
+                        quote = c;
+                    } else if (c == '\\' && shell) {
+                        appendEscaped(null);
+                    } else {
+                        token.append((char) c);
+                    }
+                }
+            }
+            if (quote != 0 && shell) {
+                throw new ParameterException("Unterminated quote (" + (char) quote + ") in " + this);
+            }
+            return inToken ? token.toString() : null;
+        }
+
+        /** Appends the character after a backslash. The backslash itself is kept if the character is not one of the
+         * specified escapable characters ({@code null} for any character), or at the end of the input. */
+        private void appendEscaped(String escapable) {
+            int c = read();
+            if (c < 0 || (escapable != null && escapable.indexOf(c) < 0)) {
+                token.append('\\');
+            }
+            if (c >= 0) { token.append((char) c); }
+        }
+    }
+    /**
+     * Reads the arguments in an argument file one token at a time. Small files are read into a buffer, larger files
+     * are memory-mapped; in both cases the file is decoded incrementally, so no String with the file contents is
+     * created. Arguments are split with the argument file quoting rules of {@link ArgumentTokenizer}.
+     */
+    static final class ArgumentFile extends ArgumentTokenizer {
+        /** Files of at least this size are memory-mapped instead of being read into a buffer. */
+        static final int MAP_THRESHOLD = 1024 * 1024;
+        private final File file;
+        private final String canonicalPath;
+        private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+        private ByteBuffer bytes;
+        private boolean endOfInput;
+
+        ArgumentFile(File file) {
+            super(false);
+            this.file = file;
+            try {
+                canonicalPath = file.getCanonicalPath();
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    FileChannel channel = in.getChannel();
+                    long size = channel.size();
+                    if (size >= MAP_THRESHOLD) {
+                        bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    } else {
+                        bytes = ByteBuffer.allocate((int) size);
+                        while (bytes.hasRemaining() && channel.read(bytes) >= 0) { }
+                        bytes.flip();
+                    }
+                } finally {
+                    in.close(); // a mapping remains valid after the channel is closed
+                }
+            } catch (IOException ex) {
+                throw new ParameterException("Could not read argument file @" + file + ": " + ex, ex);
+            }
+            chars.flip(); // empty
+        }
 
-            if (positionalParametersFields.isEmpty() && optionName2Field.isEmpty() && !hasCommandAnnotation) {
-                throw new IllegalArgumentException(command + " (" + command.getClass() +
-                        ") is not a command: it has no @Command, @Option or @Parameters annotations");
+        boolean isSameFile(File other) {
+            try {
+                return canonicalPath.equals(other.getCanonicalPath());
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+
+        int read() {
+            if (!chars.hasRemaining()) {
+                if (endOfInput) { return -1; }
+                chars.clear();
+                CoderResult result = decoder.decode(bytes, chars, true);
+                if (!bytes.hasRemaining() && result.isUnderflow()) {
+                    decoder.flush(chars);
+                    endOfInput = true;
+                }
+                chars.flip();
+                if (!chars.hasRemaining()) { return -1; }
+            }
+            return chars.get();
+        }
+
+        void close() {
+            bytes = ByteBuffer.allocate(0); // release the file buffer (a mapping is unmapped when it is collected)
+            endOfInput = true;
+            chars.clear();
+            chars.flip();
+        }
+
+        public String toString() { return "@" + file; }
+    }
+    /**
+     * Receives the values of a multi-value option or positional parameter while the interpreter consumes the command
+     * line arguments. Implementations decide whether a value is converted right away, later, or not at all.
+     */
+    interface ValueSink {
+        /** Accepts a value of the command line argument at the specified index (used in error messages). */
+        void accept(int index, String value) throws Exception;
+        /** Returns the number of values accepted so far. */
+        int count();
+    }
+    /**
+     * Collects the values of an {@code int[]}, {@code long[]}, {@code double[]} or {@code boolean[]} field in a growable
+     * primitive buffer, so that values are parsed without boxing and the array is allocated once.
+     */
+    static final class PrimitiveArrayBuilder {
+        private final Class<?> type;
+        private final Object initial;
+        private final int initialLength;
+        private final boolean units;
+        private int[] ints;
+        private long[] longs;
+        private double[] doubles;
+        private boolean[] booleans;
+        private int size;
+
+        /** Returns whether values of the specified array component type can be collected without boxing. */
+        static boolean supports(Class<?> type) {
+            return type == Integer.TYPE || type == Long.TYPE || type == Double.TYPE || type == Boolean.TYPE;
+        }
+
+        /** Creates a builder for values to append to the specified array, which may be {@code null}. Numbers may have
+         * a unit suffix if {@code units} is {@code true}. */
+        PrimitiveArrayBuilder(Class<?> type, Object initial, boolean units) {
+            this.type = type;
+            this.initial = initial;
+            this.initialLength = initial == null ? 0 : Array.getLength(initial);
+            this.units = units;
+        }
+
+        /** Parses the specified value and appends it. */
+        void add(String value) {
+            if (type == Integer.TYPE) {
+                int parsed = BuiltIn.IntegerConverter.parse(value, units);
+                if (ints == null || size == ints.length) { ints = (int[]) grow(ints); }
+                ints[size] = parsed;
+            } else if (type == Long.TYPE) {
+                long parsed = BuiltIn.LongConverter.parse(value, units);
+                if (longs == null || size == longs.length) { longs = (long[]) grow(longs); }
+                longs[size] = parsed;
+            } else if (type == Double.TYPE) {
+                double parsed = BuiltIn.DoubleConverter.parse(value, units);
+                if (doubles == null || size == doubles.length) { doubles = (double[]) grow(doubles); }
+                doubles[size] = parsed;
+            } else {
+                boolean parsed = BuiltIn.BooleanConverter.parse(value);
+                if (booleans == null || size == booleans.length) { booleans = (boolean[]) grow(booleans); }
+                booleans[size] = parsed;
+            }
+            size++;
+        }
+        private Object grow(Object buffer) {
+            Object result = Array.newInstance(type, buffer == null ? 16 : size * 2);
+            if (buffer != null) { System.arraycopy(buffer, 0, result, 0, size); }
+            return result;
+        }
+
+        /** Returns a new array with the values of the initial array followed by the appended values. */
+        Object toPrimitiveArray() {
+            Object result = Array.newInstance(type, initialLength + size);
+            if (initialLength > 0) { System.arraycopy(initial, 0, result, 0, initialLength); }
+            Object buffer = type == Integer.TYPE ? ints : type == Long.TYPE ? longs : type == Double.TYPE ? doubles : booleans;
+            if (size > 0) { System.arraycopy(buffer, 0, result, initialLength, size); }
+            return result;
+        }
+
+        /** Returns the number of values appended so far. */
+        int size() { return size; }
+    }
+    /**
+     * Character trie of the option names of a command. An argument is matched against all option names in a single
+     * scan, which also finds an option name followed by the separator and an attached option parameter (like
+     * {@code --file=out.txt}), and, optionally, an unambiguous abbreviation of a long option name.
+     */
+    static final class OptionNameMatcher {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private final Node root = new Node(0, false);
+
+        OptionNameMatcher(Map<String, Field> optionName2Field) {
+            for (Map.Entry<String, Field> entry : optionName2Field.entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+        }
+        private void add(String name, Field field) {
+            boolean longOption = name.startsWith("--");
+            Node node = root;
+            for (int i = 0; i < name.length(); i++) {
+                node = node.childOrCreate(name.charAt(i), longOption && i >= 2);
+                node.addPrefixOf(field);
             }
+            node.field = field;
+        }
+
+        /**
+         * Returns the node of the option name that matches the specified argument, or {@code null} if the argument
+         * does not match an option. The argument matches if it is an option name (or an abbreviation, if allowed), or
+         * if its part before the first occurrence of the separator is an option name (or abbreviation). In the latter
+         * case, the {@linkplain Node#depth depth} of the returned node is less than the length of the argument, and the
+         * option parameter starts after the separator.
+         * @param arg the command line argument to match
+         * @param separator the separator between an option name and an attached option parameter
+         * @param abbreviations whether unambiguous abbreviations of long options are matched
+         * @return the node of the matched option name, or {@code null}
+         */
+        Node match(String arg, String separator, boolean abbreviations) {
+            Node node = root;
+            Node attached = null;
+            boolean separatorSeen = separator.length() == 0;
+            for (int i = 0; i < arg.length(); i++) {
+                char c = arg.charAt(i);
+                if (!separatorSeen && i > 0 && c == separator.charAt(0) && arg.startsWith(separator, i)) {
+                    separatorSeen = true; // only the first occurrence separates the option name from its parameter
+                    if (node.option(abbreviations) != null) { attached = node; }
+                }
+                node = node.child(c);
+                if (node == null) { return attached; }
+            }
+            return node.option(abbreviations) != null ? node : attached;
+        }
+
+        /** A node in the trie: the option names that start with the characters on the path from the root. */
+        static final class Node {
+            /** The number of characters on the path from the root: the length of the matched option name. */
+            final int depth;
+            private final boolean abbreviation;
+            private char[] keys = NO_KEYS;
+            private Node[] children = NO_CHILDREN;
+            private Field field;
+            private Field prefixOf;
+            private boolean ambiguous;
+
+            private Node(int depth, boolean abbreviation) {
+                this.depth = depth;
+                this.abbreviation = abbreviation;
+            }
+            private Node child(char c) {
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] == c) { return children[i]; }
+                }
+                return null;
+            }
+            private Node childOrCreate(char c, boolean abbreviation) {
+                Node result = child(c);
+                if (result == null) {
+                    result = new Node(depth + 1, abbreviation);
+                    char[] newKeys = new char[keys.length + 1];
+                    Node[] newChildren = new Node[keys.length + 1];
+                    System.arraycopy(keys, 0, newKeys, 0, keys.length);
+                    System.arraycopy(children, 0, newChildren, 0, keys.length);
+                    newKeys[keys.length] = c;
+                    newChildren[keys.length] = result;
+                    keys = newKeys;
+                    children = newChildren;
+                }
+                return result;
+            }
+            private void addPrefixOf(Field option) {
+                if (prefixOf == null) {
+                    prefixOf = option;
+                } else if (prefixOf != option) {
+                    ambiguous = true;
+                }
+            }
+            /** Returns the option whose name ends at this node, or, if abbreviations are allowed, the only option whose
+             * long name starts with the characters on the path to this node; {@code null} if there is no such option. */
+            Field option(boolean abbreviations) {
+                if (field != null) { return field; }
+                return abbreviations && abbreviation && !ambiguous ? prefixOf : null;
+            }
+        }
+    }
+    /**
+     * Classifies command line arguments for one command: as the {@code "--"} delimiter, the name of a subcommand, an
+     * option (possibly with an attached option parameter), a cluster of short options, or a positional parameter.
+     * Arguments are classified without creating substrings. The parser looks at the next argument when a multi-value
+     * option decides whether to consume it, and again when it processes that argument; the lexer remembers the last
+     * argument it classified, so that each argument is classified only once.
+     * <p>Arguments are classified when they are reached rather than up front, because each subcommand has its own
+     * options, and arguments in argument files are only read when they are reached.</p>
+     */
+    static final class ArgumentLexer {
+        /** The {@code "--"} delimiter: the remaining arguments are positional parameters. */
+        static final int END_OF_OPTIONS = 1;
+        /** The name of a subcommand. */
+        static final int SUBCOMMAND = 2;
+        /** An option name, or an option name followed by the separator and an attached option parameter. */
+        static final int OPTION = 3;
+        /** A {@code '-'} followed by a short option name and more characters, like {@code -vfFILE}. */
+        static final int CLUSTER = 4;
+        /** A {@code '-'} followed by more than one character that are not an option or a cluster of short options. */
+        static final int UNKNOWN_CLUSTER = 5;
+        /** Anything else. */
+        static final int POSITIONAL = 6;
+
+        private final Map<String, CommandLine> subcommands;
+        private final OptionNameMatcher optionNameMatcher;
+        private final Map<Character, Field> singleCharOption2Field;
+        private final String separator;
+        private final boolean abbreviations;
+        private String last; // the last classified argument, compared by identity: the cursor returns the same instance
+        private int kind;
+        private OptionNameMatcher.Node match;
+
+        ArgumentLexer(Map<String, CommandLine> subcommands, CommandModel model, String separator, boolean abbreviations) {
+            this.subcommands = subcommands;
+            this.optionNameMatcher = model.optionNameMatcher;
+            this.singleCharOption2Field = model.singleCharOption2Field;
+            this.separator = separator;
+            this.abbreviations = abbreviations;
+        }
+
+        /** Returns the kind of the specified argument: one of the constants of this class. */
+        int classify(String arg) {
+            if (arg == last) { return kind; }
+            last = arg;
+            match = null;
+            if ("--".equals(arg)) {
+                kind = END_OF_OPTIONS;
+            } else if (subcommands.containsKey(arg)) {
+                kind = SUBCOMMAND;
+            } else if ((match = optionNameMatcher.match(arg, separator, abbreviations)) != null) {
+                kind = OPTION;
+            } else if (arg.length() > 2 && arg.charAt(0) == '-') {
+                kind = singleCharOption2Field.containsKey(arg.charAt(1)) ? CLUSTER : UNKNOWN_CLUSTER;
+            } else {
+                kind = POSITIONAL;
+            }
+            return kind;
+        }
+
+        /** Returns whether the specified argument ends the parameters of a multi-value option: it is {@code "--"}, a
+         * subcommand, an option or a cluster of short options. */
+        boolean endsOptionParameters(String arg) {
+            return classify(arg) <= CLUSTER;
+        }
+
+        /** Returns the field of the last classified argument, which must be of kind {@link #OPTION}. */
+        Field option() { return match.option(abbreviations); }
+
+        /** Returns the offset of the option parameter attached to the last classified argument, which must be of kind
+         * {@link #OPTION}, or {@code -1} if the argument has no attached option parameter. */
+        int attachedParameterOffset() {
+            return match.depth < last.length() ? match.depth + separator.length() : -1;
+        }
+    }
+    /**
+     * Helper class responsible for processing command line arguments. A new interpreter is created for each parse,
+     * and all state that changes while parsing is held by the interpreter and its {@link ParseResult}, so that
+     * concurrent parses do not interfere with each other.
+     */
+    private class Interpreter {
+        private final Map<Character, Field> singleCharOption2Field;
+        private final List<Field> requiredFields;
+        private final List<Field> positionalParametersFields;
+        private final Map<Field, ArgSpec> specs;
+        /** If {@code true}, values are written to the fields of the annotated object, otherwise only to the result. */
+        private final boolean bindToFields;
+        /** If {@code true}, the raw argument strings are recorded in the result without type conversion. */
+        private final boolean classifyOnly;
+        private final boolean abbreviations;
+        private final ParseResult parseResult;
+        private final ArgumentLexer lexer;
+        private Map<Field, LazyValues> lazyValues; // null until a stream field is matched
+
+        Interpreter(boolean bindToFields, boolean classifyOnly, String[] originalArgs) {
+            CommandModel model = model();
+            singleCharOption2Field     = model.singleCharOption2Field;
+            requiredFields             = model.requiredFields;
+            positionalParametersFields = model.positionalParametersFields;
+            specs                      = model.specs;
+            this.bindToFields = bindToFields;
+            this.classifyOnly = classifyOnly;
+            this.abbreviations = isAbbreviatedOptionsAllowed();
+            this.parseResult = new ParseResult(CommandLine.this, originalArgs, !classifyOnly);
+            this.lexer = new ArgumentLexer(commands(), model, getSeparator(), abbreviations);
         }
 
         /**
          * Entry point into parsing command line arguments.
-         * @param args the command line arguments
-         * @return a list with all commands and subcommands initialized by this method
          * @throws ParameterException if the specified command line arguments are invalid
          */
-        List<CommandLine> parse(String... args) {
-            Assert.notNull(args, "argument array");
-            Stack<String> arguments = new Stack<String>();
-            for (int i = args.length - 1; i >= 0; i--) {
-                arguments.push(args[i]);
-            }
-            List<CommandLine> result = new ArrayList<CommandLine>();
-            parse(result, arguments, args);
-            return result;
+        void parse() {
+            ArgumentCursor args = new ArgumentCursor(parseResult.originalArgs, isExpandAtFiles());
+            try {
+                parse(args);
+            } finally {
+                args.close();
+            }
         }
 
-        private void parse(List<CommandLine> parsedCommands, Stack<String> argumentStack, String[] originalArgs) {
-            // first reset any state in case this CommandLine instance is being reused
-            isHelpRequested = false;
-            CommandLine.this.versionHelpRequested = false;
-            CommandLine.this.usageHelpRequested = false;
-
-            parsedCommands.add(CommandLine.this);
+        private void parse(ArgumentCursor args) {
+            String[] originalArgs = parseResult.originalArgs;
+            if (bindToFields) {
+                resetToDefaults(); // instantiates declared subcommands on first use
+            }
             List<Field> required = new ArrayList<Field>(requiredFields);
             Set<Field> initialized = new HashSet<Field>();
-            Collections.sort(required, new PositionalParametersSorter());
             try {
-                processArguments(parsedCommands, argumentStack, required, initialized, originalArgs);
+                processArguments(args, required, initialized);
             } catch (ParameterException ex) {
                 throw ex;
             } catch (Exception ex) {
-                int offendingArgIndex = originalArgs.length - argumentStack.size();
+                int offendingArgIndex = args.index(); // does not read the remaining argument files
                 String arg = offendingArgIndex >= 0 && offendingArgIndex < originalArgs.length ? originalArgs[offendingArgIndex] : "?";
-                throw ParameterException.create(ex, arg, argumentStack.size(), originalArgs);
+                throw ParameterException.create(ex, arg, offendingArgIndex, originalArgs);
             }
             if (!isAnyHelpRequested() && !required.isEmpty()) {
-                if (required.get(0).isAnnotationPresent(Option.class)) {
+                if (specs.get(required.get(0)).isOption()) {
                     throw MissingParameterException.create(required);
                 } else {
                     try {
-                        processPositionalParameters0(required, true, new Stack<String>());
+                        processPositionalParameters0(required, true, new ArgumentCursor(new String[0]));
                     } catch (ParameterException ex) { throw ex;
                     } catch (Exception ex) { throw new IllegalStateException("Internal error: " + ex, ex); }
                 }
             }
         }
 
-        private void processArguments(List<CommandLine> parsedCommands,
-                                      Stack<String> args,
+        private void processArguments(ArgumentCursor args,
                                       Collection<Field> required,
-                                      Set<Field> initialized,
-                                      String[] originalArgs) throws Exception {
+                                      Set<Field> initialized) throws Exception {
             // arg must be one of:
             // 1. the "--" double dash separating options from positional arguments
             // 1. a stand-alone flag, like "-v" or "--verbose": no value required, must map to boolean or Boolean field
@@ -1453,85 +3547,75 @@ public class CommandLine {
 
             while (!args.isEmpty()) {
                 String arg = args.pop();
+                switch (lexer.classify(arg)) {
+                    // Double-dash separates options from positional arguments.
+                    // If found, then interpret the remaining args as positional parameters.
+                    case ArgumentLexer.END_OF_OPTIONS:
+                        processPositionalParameters(required, args);
+                        return; // we are done
+
+                    // if we find another command, we are done with the current command
+                    case ArgumentLexer.SUBCOMMAND:
+                        if (!parseResult.helpRequested && !required.isEmpty()) { // ensure current command portion is valid
+                            throw MissingParameterException.create(required);
+                        }
+                        Interpreter interpreter = commands().get(arg).new Interpreter(bindToFields, classifyOnly, parseResult.originalArgs);
+                        parseResult.subcommand = interpreter.parseResult;
+                        interpreter.parse(args);
+                        return; // remainder done by the command
+
+                    // A single option (as opposed to a compact group of options) may be without option parameters,
+                    // like "-v" or "--verbose" (a boolean value), or an option may have one or more option parameters.
+                    // A parameter may be attached to the option.
+                    // Be greedy: the matcher prefers consuming the whole arg as an option if possible.
+                    case ArgumentLexer.OPTION:
+                        Field field = lexer.option();
+                        int offset = lexer.attachedParameterOffset();
+                        if (offset >= 0) {
+                            args.push(arg.substring(offset));
+                        }
+                        processStandaloneOption(required, initialized, field, args, offset >= 0);
+                        break;
 
-                // Double-dash separates options from positional arguments.
-                // If found, then interpret the remaining args as positional parameters.
-                if ("--".equals(arg)) {
-                    processPositionalParameters(required, args);
-                    return; // we are done
-                }
+                    // Compact (single-letter) options can be grouped with other options or with an argument.
+                    // only single-letter options can be combined with other options or with an argument
+                    case ArgumentLexer.CLUSTER:
+                    case ArgumentLexer.UNKNOWN_CLUSTER:
+                        processClusteredShortOptions(required, initialized, arg, args);
+                        break;
 
-                // if we find another command, we are done with the current command
-                if (commands.containsKey(arg)) {
-                    if (!isHelpRequested && !required.isEmpty()) { // ensure current command portion is valid
-                        throw MissingParameterException.create(required);
-                    }
-                    commands.get(arg).interpreter.parse(parsedCommands, args, originalArgs);
-                    return; // remainder done by the command
-                }
-
-                // First try to interpret the argument as a single option (as opposed to a compact group of options).
-                // A single option may be without option parameters, like "-v" or "--verbose" (a boolean value),
-                // or an option may have one or more option parameters.
-                // A parameter may be attached to the option.
-                boolean paramAttachedToOption = false;
-                int separatorIndex = arg.indexOf(separator);
-                if (separatorIndex > 0) {
-                    String key = arg.substring(0, separatorIndex);
-                    // be greedy. Consume the whole arg as an option if possible.
-                    if (optionName2Field.containsKey(key) && !optionName2Field.containsKey(arg)) {
-                        paramAttachedToOption = true;
-                        String optionParam = arg.substring(separatorIndex + separator.length());
-                        args.push(optionParam);
-                        arg = key;
-                    }
-                }
-                if (optionName2Field.containsKey(arg)) {
-                    processStandaloneOption(required, initialized, arg, args, paramAttachedToOption);
-                }
-                // Compact (single-letter) options can be grouped with other options or with an argument.
-                // only single-letter options can be combined with other options or with an argument
-                else if (arg.length() > 2 && arg.startsWith("-")) {
-                    processClusteredShortOptions(required, initialized, arg, args);
-                }
-                // The argument could not be interpreted as an option.
-                // We take this to mean that the remainder are positional arguments
-                else {
-                    args.push(arg);
-                    processPositionalParameters(required, args);
-                    return;
+                    // The argument could not be interpreted as an option.
+                    // We take this to mean that the remainder are positional arguments
+                    default:
+                        args.push(arg);
+                        processPositionalParameters(required, args);
+                        return;
                 }
             }
         }
 
-        private void processPositionalParameters(Collection<Field> required, Stack<String> args) throws Exception {
+        private void processPositionalParameters(Collection<Field> required, ArgumentCursor args) throws Exception {
             processPositionalParameters0(required, false, args);
-            if (!args.empty()) {
+            if (!args.isEmpty()) {
                 handleUnmatchedArguments(args);
                 return;
             };
         }
 
-        private void handleUnmatchedArguments(Stack<String> args) {
-            if (!isUnmatchedArgumentsAllowed()) { throw new UnmatchedArgumentException(args); }
-            while (!args.isEmpty()) { unmatchedArguments.add(args.pop()); } // addAll would give args in reverse order
+        private void handleUnmatchedArguments(ArgumentCursor args) {
+            if (!isUnmatchedArgumentsAllowed()) { throw UnmatchedArgumentException.create(args.remaining()); }
+            while (!args.isEmpty()) { parseResult.unmatched.add(args.pop()); }
         }
 
-        private void processPositionalParameters0(Collection<Field> required, boolean validateOnly, Stack<String> args) throws Exception {
+        private void processPositionalParameters0(Collection<Field> required, boolean validateOnly, ArgumentCursor args) throws Exception {
             int max = -1;
             for (Field positionalParam : positionalParametersFields) {
-                Range indexRange = Range.parameterIndex(positionalParam);
+                ArgSpec spec = specs.get(positionalParam);
+                Range indexRange = spec.index;
                 max = Math.max(max, indexRange.max);
-                @SuppressWarnings("unchecked")
-                Stack<String> argsCopy = reverse((Stack<String>) args.clone());
-                if (!indexRange.isVariable) {
-                    for (int i = argsCopy.size() - 1; i > indexRange.max; i--) {
-                        argsCopy.removeElementAt(i);
-                    }
-                }
-                Collections.reverse(argsCopy);
-                for (int i = 0; i < indexRange.min && !argsCopy.isEmpty(); i++) { argsCopy.pop(); }
-                Range arity = Range.parameterArity(positionalParam);
+                int end = indexRange.isVariable || indexRange.max == Integer.MAX_VALUE ? Integer.MAX_VALUE : indexRange.max + 1;
+                ArgumentCursor argsCopy = args.window(indexRange.min, end);
+                Range arity = spec.arity;
                 assertNoMissingParameters(positionalParam, arity.min, argsCopy);
                 if (!validateOnly) {
                     applyOption(positionalParam, Parameters.class, arity, false, argsCopy, null);
@@ -1540,19 +3624,17 @@ public class CommandLine {
             }
             // remove processed args from the stack
             if (!validateOnly && !positionalParametersFields.isEmpty()) {
-                int processedArgCount = Math.min(args.size(), max < Integer.MAX_VALUE ? max + 1 : Integer.MAX_VALUE);
-                for (int i = 0; i < processedArgCount; i++) { args.pop(); }
+                args.skip(max < Integer.MAX_VALUE ? max + 1 : Integer.MAX_VALUE);
             }
         }
 
         private void processStandaloneOption(Collection<Field> required,
                                              Set<Field> initialized,
-                                             String arg,
-                                             Stack<String> args,
+                                             Field field,
+                                             ArgumentCursor args,
                                              boolean paramAttachedToKey) throws Exception {
-            Field field = optionName2Field.get(arg);
             required.remove(field);
-            Range arity = Range.optionArity(field);
+            Range arity = specs.get(field).arity;
             if (paramAttachedToKey) {
                 arity = arity.min(Math.max(1, arity.min)); // if key=value, minimum arity is at least 1
             }
@@ -1562,7 +3644,7 @@ public class CommandLine {
         private void processClusteredShortOptions(Collection<Field> required,
                                                   Set<Field> initialized,
                                                   String arg,
-                                                  Stack<String> args)
+                                                  ArgumentCursor args)
                 throws Exception {
             String prefix = arg.substring(0, 1);
             String cluster = arg.substring(1);
@@ -1573,7 +3655,7 @@ public class CommandLine {
                     required.remove(field);
                     cluster = cluster.length() > 0 ? cluster.substring(1) : "";
                     paramAttachedToOption = cluster.length() > 0;
-                    Range arity = Range.optionArity(field);
+                    Range arity = specs.get(field).arity;
                     if (cluster.startsWith(separator)) {// attached with separator, like -f=FILE or -v=true
                         cluster = cluster.substring(separator.length());
                         arity = arity.min(Math.max(1, arity.min)); // if key=value, minimum arity is at least 1
@@ -1610,31 +3692,43 @@ public class CommandLine {
                                 Class<?> annotation,
                                 Range arity,
                                 boolean valueAttachedToOption,
-                                Stack<String> args,
+                                ArgumentCursor args,
                                 Set<Field> initialized) throws Exception {
-            updateHelpRequested(field);
+            ArgSpec spec = specs.get(field);
+            updateHelpRequested(spec);
             if (!args.isEmpty() && args.peek().length() == 0 && !valueAttachedToOption) {
                 args.pop(); // throw out empty string we get at the end of a group of clustered short options
             }
-            int length = args.size();
             assertNoMissingParameters(field, arity.min, args);
 
             Class<?> cls = field.getType();
-            if (cls.isArray()) {
+            if (classifyOnly && spec.isMultiValue()) {
+                List<Object> raw = consumeArguments(field, annotation, arity, args, null, cls);
+                recordRawValues(field, raw);
+                return raw.size();
+            }
+            if (spec.isConsumer && bindToFields) {
+                return applyValuesToConsumer(field, annotation, arity, args);
+            }
+            if (spec.isStream || spec.isConsumer) {
+                return applyValuesToStreamField(field, annotation, arity, args);
+            }
+            if (spec.isArray) {
                 return applyValuesToArrayField(field, annotation, arity, args, cls);
             }
-            if (Collection.class.isAssignableFrom(cls)) {
+            if (spec.isCollection) {
                 return applyValuesToCollectionField(field, annotation, arity, args, cls);
             }
             return applyValueToSingleValuedField(field, arity, args, cls, initialized);
         }
         private int applyValueToSingleValuedField(Field field,
                                                   Range arity,
-                                                  Stack<String> args,
+                                                  ArgumentCursor args,
                                                   Class<?> cls,
                                                   Set<Field> initialized) throws Exception {
             boolean noMoreValues = args.isEmpty();
             String value = args.isEmpty() ? null : trim(args.pop()); // unquote the value
+            String rawValue = value;
             int result = arity.min; // the number or args we need to consume
 
             // special logic for booleans: BooleanConverter accepts only "true" or "false".
@@ -1647,8 +3741,16 @@ public class CommandLine {
                     if (value != null) {
                         args.push(value); // we don't consume the value
                     }
-                    Boolean currentValue = (Boolean) field.get(command);
-                    value = String.valueOf(currentValue == null ? true : !currentValue); // #147 toggle existing boolean value
+                    rawValue = null; // flag without a parameter
+                    if (classifyOnly) {
+                        value = ""; // matched, but there is no value to toggle
+                    } else {
+                        ArgSpec spec = specs.get(field);
+                        Boolean currentValue = bindToFields && cls == Boolean.TYPE
+                                ? Boolean.valueOf(spec.accessor.getBoolean(command))
+                                : (Boolean) getValue(spec);
+                        value = String.valueOf(currentValue == null ? true : !currentValue); // #147 toggle existing boolean value
+                    }
                 }
             }
             if (noMoreValues && value == null) {
@@ -1660,38 +3762,69 @@ public class CommandLine {
                 }
                 initialized.add(field);
             }
+            if (classifyOnly) {
+                recordRawValues(field, rawValue == null
+                        ? Collections.<Object>emptyList() : Collections.<Object>singletonList(rawValue));
+                return result;
+            }
+            ArgSpec spec = specs.get(field);
+            if (spec.isLazy) { // the converter is resolved now, so that a missing converter is reported by the parse method
+                setValue(spec, new Lazy<Object>(value, new DescribedConverter(field, getTypeConverter(spec.elementType), spec.elementType)));
+                return result;
+            }
             ITypeConverter<?> converter = getTypeConverter(cls);
             Object objValue = tryConvert(field, -1, converter, value, cls);
-            field.set(command, objValue);
+            setSingleValue(spec, objValue);
             return result;
         }
 
         private int applyValuesToArrayField(Field field,
                                             Class<?> annotation,
                                             Range arity,
-                                            Stack<String> args,
+                                            ArgumentCursor args,
                                             Class<?> cls) throws Exception {
-            Class<?> type = cls.getComponentType();
+            ArgSpec spec = specs.get(field);
+            Class<?> type = spec.elementType;
             ITypeConverter<?> converter = getTypeConverter(type);
+            boolean units = converter == BuiltIn.UNIT_CONVERTERS.get(type);
+            if (PrimitiveArrayBuilder.supports(type) && (units || converter == BuiltIn.CONVERTERS.get(type))) {
+                PrimitiveArrayBuilder builder = new PrimitiveArrayBuilder(type, getValue(spec), units);
+                consumeArguments(field, annotation, arity, args, new PrimitiveValues(field, builder, type));
+                setValue(spec, builder.toPrimitiveArray());
+                return builder.size();
+            }
             List<Object> converted = consumeArguments(field, annotation, arity, args, converter, cls);
-            Object existing = field.get(command);
+            Object existing = getValue(spec);
             int length = existing == null ? 0 : Array.getLength(existing);
-            List<Object> newValues = new ArrayList<Object>();
-            for (int i = 0; i < length; i++) {
-                newValues.add(Array.get(existing, i));
-            }
+            List<Object> newValues = converted;
             for (Object obj : converted) {
-                if (obj instanceof Collection<?>) {
-                    newValues.addAll((Collection<?>) obj);
-                } else {
-                    newValues.add(obj);
+                if (obj instanceof Collection<?>) { // a converter returned multiple values: flatten
+                    newValues = new ArrayList<Object>();
+                    for (Object element : converted) {
+                        if (element instanceof Collection<?>) {
+                            newValues.addAll((Collection<?>) element);
+                        } else {
+                            newValues.add(element);
+                        }
+                    }
+                    break;
                 }
             }
-            Object array = Array.newInstance(type, newValues.size());
-            field.set(command, array);
-            for (int i = 0; i < newValues.size(); i++) {
-                Array.set(array, i, newValues.get(i));
+            Object array = Array.newInstance(type, length + newValues.size());
+            if (length > 0) {
+                System.arraycopy(existing, 0, array, 0, length);
+            }
+            if (type.isPrimitive()) {
+                for (int i = 0; i < newValues.size(); i++) {
+                    Array.set(array, length + i, newValues.get(i));
+                }
+            } else {
+                Object[] objects = (Object[]) array;
+                for (int i = 0; i < newValues.size(); i++) {
+                    objects[length + i] = newValues.get(i);
+                }
             }
+            setValue(spec, array);
             return converted.size(); // return how many args were consumed
         }
 
@@ -1699,15 +3832,18 @@ public class CommandLine {
         private int applyValuesToCollectionField(Field field,
                                                  Class<?> annotation,
                                                  Range arity,
-                                                 Stack<String> args,
+                                                 ArgumentCursor args,
                                                  Class<?> cls) throws Exception {
-            Collection<Object> collection = (Collection<Object>) field.get(command);
-            Class<?> type = getTypeAttribute(field);
+            ArgSpec spec = specs.get(field);
+            Collection<Object> collection = (Collection<Object>) getValue(spec);
+            Class<?> type = spec.elementType;
             ITypeConverter<?> converter = getTypeConverter(type);
             List<Object> converted = consumeArguments(field, annotation, arity, args, converter, type);
-            if (collection == null) {
+            if (collection == null || (!bindToFields && !parseResult.values.containsKey(field))) {
+                Collection<Object> initial = collection;
                 collection = createCollection(cls);
-                field.set(command, collection);
+                if (initial != null) { collection.addAll(initial); } // copy: the annotated object is only read
+                setValue(spec, collection);
             }
             for (Object element : converted) {
                 if (element instanceof Collection<?>) {
@@ -1716,46 +3852,241 @@ public class CommandLine {
                     collection.add(element);
                 }
             }
+            parseResult.values.put(field, collection); // an existing collection field is modified in place
             return converted.size();
         }
 
+        @SuppressWarnings("unchecked")
+        private int applyValuesToConsumer(final Field field, Class<?> annotation, Range arity, ArgumentCursor args) throws Exception {
+            ArgSpec spec = specs.get(field);
+            final IValueConsumer<Object> consumer = (IValueConsumer<Object>) spec.accessor.get(command);
+            final ITypeConverter<?> converter = getTypeConverter(spec.elementType);
+            final Class<?> type = spec.elementType;
+            if (consumer == null) {
+                throw new IllegalStateException("Field " + field.getName() + " of " + field.getDeclaringClass().getName()
+                        + " must be initialized with an IValueConsumer");
+            }
+            ValueSink pushed = new ValueSink() { // passes each value on instead of keeping it
+                private int count;
+                public void accept(int index, String value) throws Exception {
+                    consumer.accept(tryConvert(field, index, converter, value, type));
+                    count++;
+                }
+                public int count() { return count; }
+            };
+            consumeArguments(field, annotation, arity, args, pushed);
+            parseResult.values.put(field, consumer);
+            return pushed.count();
+        }
+
+        private int applyValuesToStreamField(Field field, Class<?> annotation, Range arity, ArgumentCursor args) throws Exception {
+            ArgSpec spec = specs.get(field);
+            List<Object> raw = consumeArguments(field, annotation, arity, args, null, spec.elementType);
+            LazyValues values = lazyValues == null ? null : lazyValues.get(field);
+            if (values == null) {
+                values = new LazyValues(field, getTypeConverter(spec.elementType), spec.elementType);
+                if (lazyValues == null) { lazyValues = new HashMap<Field, LazyValues>(); }
+                lazyValues.put(field, values);
+                setValue(spec, Iterator.class == field.getType() && bindToFields ? values.iterator() : values);
+            }
+            values.raw.addAll(raw);
+            return raw.size();
+        }
+
+        /** Read-only view of the raw values of a multi-value option or positional parameter, that converts each value
+         * when it is iterated over. */
+        private class LazyValues implements Iterable<Object> {
+            private final Field field;
+            private final ITypeConverter<?> converter;
+            private final Class<?> type;
+            private final List<Object> raw = new ArrayList<Object>();
+
+            LazyValues(Field field, ITypeConverter<?> converter, Class<?> type) {
+                this.field = field;
+                this.converter = converter;
+                this.type = type;
+            }
+            public Iterator<Object> iterator() {
+                return new Iterator<Object>() {
+                    private int index;
+                    public boolean hasNext() { return index < raw.size(); }
+                    public Object next() {
+                        if (!hasNext()) { throw new NoSuchElementException(); }
+                        int i = index++;
+                        try {
+                            return tryConvert(field, i, converter, (String) raw.get(i), type);
+                        } catch (RuntimeException ex) {
+                            throw ex;
+                        } catch (Exception ex) {
+                            throw new ParameterException(ex.getMessage(), ex);
+                        }
+                    }
+                    public void remove() { throw new UnsupportedOperationException("remove"); }
+                };
+            }
+            public String toString() { return raw.toString(); }
+        }
+
+        /** Converts the value of a {@link Lazy} field, with the description of the field in error messages. */
+        private class DescribedConverter implements ITypeConverter<Object> {
+            private final Field field;
+            private final ITypeConverter<?> converter;
+            private final Class<?> type;
+
+            DescribedConverter(Field field, ITypeConverter<?> converter, Class<?> type) {
+                this.field = field;
+                this.converter = converter;
+                this.type = type;
+            }
+            public Object convert(String value) throws Exception { return tryConvert(field, -1, converter, value, type); }
+        }
+
+        /** Collects the values for an {@link IBlockingTypeConverter}, and converts them concurrently when joined. */
+        private class BlockingConversions implements ValueSink {
+            private final Field field;
+            private final ITypeConverter<?> converter;
+            private final Class<?> type;
+            private final List<String> values = new ArrayList<String>();
+            private final List<Integer> indices = new ArrayList<Integer>(); // the argument index for error messages
+
+            BlockingConversions(Field field, ITypeConverter<?> converter, Class<?> type) {
+                this.field = field;
+                this.converter = converter;
+                this.type = type;
+            }
+            public void accept(int index, String value) {
+                indices.add(index);
+                values.add(value);
+            }
+            public int count() { return values.size(); }
+
+            /** Converts the collected values, and returns the results in the order of the values. */
+            List<Object> join() throws Exception {
+                List<Object> result = new ArrayList<Object>(values.size());
+                if (values.size() == 1) { // nothing to overlap with
+                    result.add(tryConvert(field, indices.get(0), converter, values.get(0), type));
+                    return result;
+                }
+                ExecutorService executor = conversionExecutor == null ? sharedConversionExecutor() : conversionExecutor;
+                List<Future<Object>> futures = new ArrayList<Future<Object>>(values.size());
+                try {
+                    for (int i = 0; i < values.size(); i++) {
+                        final int index = indices.get(i);
+                        final String value = values.get(i);
+                        futures.add(executor.submit(new Callable<Object>() {
+                            public Object call() throws Exception { return tryConvert(field, index, converter, value, type); }
+                        }));
+                    }
+                    for (Future<Object> future : futures) {
+                        result.add(future.get());
+                    }
+                    return result;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while converting values" + optionDescription(" for ", field, -1), ex);
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof Exception) { throw (Exception) cause; }
+                    throw (Error) cause;
+                } finally {
+                    for (Future<?> future : futures) { future.cancel(true); } // no-op for completed conversions
+                }
+            }
+        }
+
+        /** Converts each value with a converter (or keeps the raw value if there is no converter) in a list. */
+        private class ValueList implements ValueSink {
+            private final Field field;
+            private final ITypeConverter<?> converter;
+            private final Class<?> type;
+            private final List<Object> values;
+
+            ValueList(Field field, ITypeConverter<?> converter, Class<?> type, int initialCapacity) {
+                this.field = field;
+                this.converter = converter;
+                this.type = type;
+                this.values = new ArrayList<Object>(initialCapacity);
+            }
+            public void accept(int index, String value) throws Exception {
+                values.add(converter == null ? value : tryConvert(field, index, converter, value, type));
+            }
+            public int count() { return values.size(); }
+        }
+
+        /** Parses the values of a primitive array field without boxing. */
+        private class PrimitiveValues implements ValueSink {
+            private final Field field;
+            private final PrimitiveArrayBuilder builder;
+            private final Class<?> type;
+
+            PrimitiveValues(Field field, PrimitiveArrayBuilder builder, Class<?> type) {
+                this.field = field;
+                this.builder = builder;
+                this.type = type;
+            }
+            public void accept(int index, String value) throws Exception {
+                try {
+                    builder.add(value);
+                } catch (Exception ex) {
+                    throw conversionFailure(ex, field, index, value, type);
+                }
+            }
+            public int count() { return builder.size(); }
+        }
+
         private List<Object> consumeArguments(Field field,
                                               Class<?> annotation,
                                               Range arity,
-                                              Stack<String> args,
+                                              ArgumentCursor args,
                                               ITypeConverter<?> converter,
                                               Class<?> type) throws Exception {
-            List<Object> result = new ArrayList<Object>();
+            if (converter instanceof IBlockingTypeConverter) {
+                BlockingConversions conversions = new BlockingConversions(field, converter, type);
+                consumeArguments(field, annotation, arity, args, conversions);
+                return conversions.join();
+            }
+            // presize from a bounded lookahead, so that a varargs option does not read all remaining argument files
+            ValueList result = new ValueList(field, converter, type,
+                    Math.max(0, Math.max(arity.min, args.available(Math.min(arity.max, 256)))));
+            consumeArguments(field, annotation, arity, args, result);
+            return result.values;
+        }
+
+        private void consumeArguments(Field field,
+                                      Class<?> annotation,
+                                      Range arity,
+                                      ArgumentCursor args,
+                                      ValueSink sink) throws Exception {
             int index = 0;
 
             // first do the arity.min mandatory parameters
-            for (int i = 0; result.size() < arity.min; i++) {
-                index = consumeOneArgument(field, arity, args, converter, type, result, index);
+            for (int i = 0; sink.count() < arity.min; i++) {
+                index = consumeOneArgument(field, arity, args, sink, index);
             }
             // now process the varargs if any
-            while (result.size() < arity.max && !args.isEmpty()) {
-                if (annotation != Parameters.class) {
-                    if (commands.containsKey(args.peek()) || isOption(args.peek())) {
-                        return result;
-                    }
+            while (sink.count() < arity.max && !args.isEmpty()) {
+                if (annotation != Parameters.class && lexer.endsOptionParameters(args.peek())) {
+                    return;
                 }
-                index = consumeOneArgument(field, arity, args, converter, type, result, index);
+                index = consumeOneArgument(field, arity, args, sink, index);
             }
-            return result;
         }
 
         private int consumeOneArgument(Field field,
                                        Range arity,
-                                       Stack<String> args,
-                                       ITypeConverter<?> converter,
-                                       Class<?> type,
-                                       List<Object> result, int index) throws Exception {
-            String[] values = split(trim(args.pop()), field);
+                                       ArgumentCursor args,
+                                       ValueSink sink, int index) throws Exception {
+            ArgSpec spec = specs.get(field);
+            if (spec.splitter == null) { // one value: the caller ensures that arity.max has not been reached
+                sink.accept(index, trim(args.pop()));
+                return index + 1;
+            }
+            String[] values = spec.split(trim(args.pop()));
 
             // ensure we don't process more than arity.max (as result of splitting args)
-            int max = Math.min(arity.max - result.size(), values.length);
+            int max = Math.min(arity.max - sink.count(), values.length);
             for (int j = 0; j < max; j++) {
-                result.add(tryConvert(field, index, converter, values[j], type));
+                sink.accept(index, values[j]);
             }
             // if this option cannot consume values because of its arity.max,
             // then push them back on the stack (they are likely processed as positional parameters)
@@ -1766,89 +4097,103 @@ public class CommandLine {
             return index;
         }
 
-        private String[] split(String value, Field field) {
-            if (field.isAnnotationPresent(Option.class)) {
-                String regex = field.getAnnotation(Option.class).split();
-                return regex.length() == 0 ? new String[] {value} : value.split(regex);
-            }
-            if (field.isAnnotationPresent(Parameters.class)) {
-                String regex = field.getAnnotation(Parameters.class).split();
-                return regex.length() == 0 ? new String[] {value} : value.split(regex);
-            }
-            return new String[] {value};
-        }
-
-        /**
-         * Called when parsing varargs parameters for a multi-value option.
-         * When an option is encountered, the remainder should not be interpreted as vararg elements.
-         * @param arg the string to determine whether it is an option or not
-         * @return true if it is an option, false otherwise
-         */
-        private boolean isOption(String arg) {
-            if ("--".equals(arg)) {
-                return true;
-            }
-            // not just arg prefix: we may be in the middle of parsing -xrvfFILE
-            if (optionName2Field.containsKey(arg)) { // -v or -f or --file (not attached to param or other option)
-                return true;
-            }
-            int separatorIndex = arg.indexOf(separator);
-            if (separatorIndex > 0) { // -f=FILE or --file==FILE (attached to param via separator)
-                if (optionName2Field.containsKey(arg.substring(0, separatorIndex))) {
-                    return true;
-                }
-            }
-            return (arg.length() > 2 && arg.startsWith("-") && singleCharOption2Field.containsKey(arg.charAt(1)));
-        }
         private Object tryConvert(Field field, int index, ITypeConverter<?> converter, String value, Class<?> type)
                 throws Exception {
             try {
                 return converter.convert(value);
-            } catch (ParameterException ex) {
-                throw new ParameterException(ex.getMessage() + optionDescription(" for ", field, index));
-            } catch (Exception other) {
-                String desc = optionDescription(" for ", field, index) + ": " + other;
-                throw new ParameterException("Could not convert '" + value + "' to " + type.getSimpleName() + desc, other);
+            } catch (Exception ex) {
+                throw conversionFailure(ex, field, index, value, type);
+            }
+        }
+
+        /** Returns the exception to throw when the specified value could not be converted, describing the field. */
+        private ParameterException conversionFailure(Exception ex, Field field, int index, String value, Class<?> type) {
+            if (ex instanceof ParameterException) {
+                return new ParameterException(ex.getMessage() + optionDescription(" for ", field, index));
             }
+            String desc = optionDescription(" for ", field, index) + ": " + ex;
+            return new ParameterException("Could not convert '" + value + "' to " + type.getSimpleName() + desc, ex);
         }
 
         private String optionDescription(String prefix, Field field, int index) {
             Help.IParamLabelRenderer labelRenderer = Help.createMinimalParamLabelRenderer();
             String desc = "";
-            if (field.isAnnotationPresent(Option.class)) {
-                desc = prefix + "option '" + field.getAnnotation(Option.class).names()[0] + "'";
+            ArgSpec spec = specs.get(field);
+            if (spec.isOption()) {
+                desc = prefix + "option '" + spec.names[0] + "'";
                 if (index >= 0) {
-                    Range arity = Range.optionArity(field);
+                    Range arity = spec.arity;
                     if (arity.max > 1) {
                         desc += " at index " + index;
                     }
                     desc += " (" + labelRenderer.renderParameterLabel(field, Help.Ansi.OFF, Collections.<IStyle>emptyList()) + ")";
                 }
-            } else if (field.isAnnotationPresent(Parameters.class)) {
-                Range indexRange = Range.parameterIndex(field);
+            } else if (spec.parameters != null) {
+                Range indexRange = spec.index;
                 Text label = labelRenderer.renderParameterLabel(field, Help.Ansi.OFF, Collections.<IStyle>emptyList());
                 desc = prefix + "positional parameter at index " + indexRange + " (" + label + ")";
             }
             return desc;
         }
 
-        private Class<?> getTypeAttribute(Field field) {
-            if (field.isAnnotationPresent(Parameters.class)) {
-                return field.getAnnotation(Parameters.class).type();
-            } else if (field.isAnnotationPresent(Option.class)) {
-                return field.getAnnotation(Option.class).type();
+        private boolean isAnyHelpRequested() {
+            return parseResult.helpRequested || parseResult.versionHelpRequested || parseResult.usageHelpRequested;
+        }
+
+        private void updateHelpRequested(ArgSpec spec) {
+            parseResult.helpRequested        |= spec.help;
+            parseResult.versionHelpRequested |= spec.versionHelp;
+            parseResult.usageHelpRequested   |= spec.usageHelp;
+        }
+
+        /** Returns the current value for the specified field: the value set during this parse, or else the initial
+         * value of the field in the annotated object. */
+        private Object getValue(ArgSpec spec) throws Exception {
+            if (bindToFields) {
+                return spec.accessor.get(command);
+            }
+            if (parseResult.values.containsKey(spec.field)) {
+                return parseResult.values.get(spec.field);
+            }
+            return defaults().get(spec.field);
+        }
+
+        private void setValue(ArgSpec spec, Object value) throws Exception {
+            if (bindToFields) {
+                spec.accessor.set(command, value);
             }
-            throw new IllegalStateException(field + " has neither @Parameters nor @Option annotation");
+            parseResult.values.put(spec.field, value);
         }
 
-        private boolean isAnyHelpRequested() { return isHelpRequested || versionHelpRequested || usageHelpRequested; }
+        /** Sets the value of a single-valued field, writing {@code boolean}, {@code int} and {@code long} fields with
+         * the primitive accessors. */
+        private void setSingleValue(ArgSpec spec, Object value) throws Exception {
+            Class<?> type = spec.field.getType();
+            if (!bindToFields || !type.isPrimitive()) {
+                setValue(spec, value);
+                return;
+            }
+            if (type == boolean.class && value instanceof Boolean) {
+                spec.accessor.setBoolean(command, ((Boolean) value).booleanValue());
+            } else if (type == int.class && value instanceof Integer) {
+                spec.accessor.setInt(command, ((Integer) value).intValue());
+            } else if (type == long.class && value instanceof Long) {
+                spec.accessor.setLong(command, ((Long) value).longValue());
+            } else {
+                spec.accessor.set(command, value);
+            }
+            parseResult.values.put(spec.field, value);
+        }
 
-        private void updateHelpRequested(Field field) {
-            if (field.isAnnotationPresent(Option.class)) {
-                isHelpRequested                       |= field.getAnnotation(Option.class).help();
-                CommandLine.this.versionHelpRequested |= field.getAnnotation(Option.class).versionHelp();
-                CommandLine.this.usageHelpRequested   |= field.getAnnotation(Option.class).usageHelp();
+        /** Appends the specified raw values to the values already recorded for the field during classification. */
+        @SuppressWarnings("unchecked")
+        private void recordRawValues(Field field, List<Object> raw) {
+            List<Object> recorded = (List<Object>) parseResult.values.get(field);
+            if (recorded == null) {
+                recorded = new ArrayList<Object>(raw.size());
+                parseResult.values.put(field, recorded);
             }
+            recorded.addAll(raw);
         }
 
         @SuppressWarnings("unchecked")
@@ -1869,43 +4214,34 @@ public class CommandLine {
             return (Collection<Object>) collectionClass.newInstance();
         }
 
-        private ITypeConverter<?> getTypeConverter(final Class<?> type) {
-            ITypeConverter<?> result = converterRegistry.get(type);
-            if (result != null) {
-                return result;
-            }
-            if (type.isEnum()) {
-                return new ITypeConverter<Object>() {
-                    @SuppressWarnings("unchecked")
-                    public Object convert(String value) throws Exception {
-                        return Enum.valueOf((Class<Enum>) type, value);
-                    }
-                };
+        private ITypeConverter<?> getTypeConverter(Class<?> type) {
+            ITypeConverter<?> result = converterFor(type);
+            if (result == null) {
+                throw new MissingTypeConverterException("No TypeConverter registered for " + type.getName());
             }
-            throw new MissingTypeConverterException("No TypeConverter registered for " + type.getName());
+            return result;
         }
 
-        private void assertNoMissingParameters(Field field, int arity, Stack<String> args) {
-            if (arity > args.size()) {
+        private void assertNoMissingParameters(Field field, int arity, ArgumentCursor args) {
+            if (args.available(arity) < arity) {
                 int actualSize = 0;
-                @SuppressWarnings("unchecked")
-                Stack<String> copy = (Stack<String>) args.clone();
-                while (!copy.isEmpty()) {
-                    actualSize += split(copy.pop(), field).length;
+                for (int i = 0; i < args.size(); i++) {
+                    actualSize += specs.get(field).count(args.get(i));
                     if (actualSize >= arity) { return; }
                 }
                 if (arity == 1) {
-                    if (field.isAnnotationPresent(Option.class)) {
+                    ArgSpec spec = specs.get(field);
+                    if (spec.isOption()) {
                         throw new MissingParameterException("Missing required parameter for " +
                                 optionDescription("", field, 0));
                     }
-                    Range indexRange = Range.parameterIndex(field);
+                    Range indexRange = spec.index;
                     Help.IParamLabelRenderer labelRenderer = Help.createMinimalParamLabelRenderer();
                     String sep = "";
                     String names = "";
                     int count = 0;
                     for (int i = indexRange.min; i < positionalParametersFields.size(); i++) {
-                        if (Range.parameterArity(positionalParametersFields.get(i)).min > 0) {
+                        if (specs.get(positionalParametersFields.get(i)).arity.min > 0) {
                             names += sep + labelRenderer.renderParameterLabel(positionalParametersFields.get(i),
                                     Help.Ansi.OFF, Collections.<IStyle>emptyList());
                             sep = ", ";
@@ -1913,8 +4249,7 @@ public class CommandLine {
                         }
                     }
                     String msg = "Missing required parameter";
-                    Range paramArity = Range.parameterArity(field);
-                    if (paramArity.isVariable) {
+                    if (spec.arity.isVariable) {
                         msg += "s at positions " + indexRange + ": ";
                     } else {
                         msg += (count > 1 ? "s: " : ": ");
@@ -1937,16 +4272,185 @@ public class CommandLine {
                         : value;
         }
     }
+    /** Sorts positional parameter fields by index first and arity next. Option fields (which have no
+     * {@code @Parameters} annotation) sort before positional parameter fields. */
     private static class PositionalParametersSorter implements Comparator<Field> {
+        private static final Range OPTION_RANGE = new Range(0, 0, false, true, "0");
+        private final Map<Field, ArgSpec> specs;
+        PositionalParametersSorter(Map<Field, ArgSpec> specs) { this.specs = specs; }
         public int compare(Field o1, Field o2) {
-            int result = Range.parameterIndex(o1).compareTo(Range.parameterIndex(o2));
-            return (result == 0) ? Range.parameterArity(o1).compareTo(Range.parameterArity(o2)) : result;
+            int result = index(o1).compareTo(index(o2));
+            return (result == 0) ? arity(o1).compareTo(arity(o2)) : result;
+        }
+        private Range index(Field field) {
+            ArgSpec spec = specs.get(field);
+            return spec.parameters == null ? OPTION_RANGE : spec.index;
+        }
+        private Range arity(Field field) {
+            ArgSpec spec = specs.get(field);
+            return spec.parameters == null ? OPTION_RANGE : spec.arity;
         }
     }
     /**
      * Inner class to group the built-in {@link ITypeConverter} implementations.
      */
     private static class BuiltIn {
+        /** The built-in converters, shared by all {@code CommandLine} instances. Converters are stateless. */
+        static final Map<Class<?>, ITypeConverter<?>> CONVERTERS = createConverters();
+        private static Map<Class<?>, ITypeConverter<?>> createConverters() {
+            Map<Class<?>, ITypeConverter<?>> result = createNumberConverters(false);
+            result.put(String.class,        new BuiltIn.StringConverter());
+            result.put(StringBuilder.class, new BuiltIn.StringBuilderConverter());
+            result.put(CharSequence.class,  new BuiltIn.CharSequenceConverter());
+            result.put(Boolean.class,       new BuiltIn.BooleanConverter());
+            result.put(Boolean.TYPE,        new BuiltIn.BooleanConverter());
+            result.put(Character.class,     new BuiltIn.CharacterConverter());
+            result.put(Character.TYPE,      new BuiltIn.CharacterConverter());
+            result.put(File.class,          new BuiltIn.FileConverter());
+            result.put(URI.class,           new BuiltIn.URIConverter());
+            result.put(URL.class,           new BuiltIn.URLConverter());
+            result.put(Date.class,          new BuiltIn.ISO8601DateConverter());
+            result.put(Time.class,          new BuiltIn.ISO8601TimeConverter());
+            result.put(BigDecimal.class,    new BuiltIn.BigDecimalConverter());
+            result.put(BigInteger.class,    new BuiltIn.BigIntegerConverter());
+            result.put(Charset.class,       new BuiltIn.CharsetConverter());
+            result.put(InetAddress.class,   new BuiltIn.InetAddressConverter());
+            result.put(Pattern.class,       new BuiltIn.PatternConverter());
+            result.put(UUID.class,          new BuiltIn.UUIDConverter());
+            BuiltIn.JavaTimeConverter.addTo(result);
+            return Collections.unmodifiableMap(result);
+        }
+        /** The numeric converters that accept unit suffixes, used instead of the built-in converters of the same
+         * types if {@link CommandLine#setUnitSuffixesAllowed(boolean)} is enabled. */
+        static final Map<Class<?>, ITypeConverter<?>> UNIT_CONVERTERS = Collections.unmodifiableMap(createNumberConverters(true));
+        private static Map<Class<?>, ITypeConverter<?>> createNumberConverters(boolean units) {
+            Map<Class<?>, ITypeConverter<?>> result = new HashMap<Class<?>, ITypeConverter<?>>();
+            result.put(Byte.class,          new BuiltIn.ByteConverter(units));
+            result.put(Byte.TYPE,           new BuiltIn.ByteConverter(units));
+            result.put(Short.class,         new BuiltIn.ShortConverter(units));
+            result.put(Short.TYPE,          new BuiltIn.ShortConverter(units));
+            result.put(Integer.class,       new BuiltIn.IntegerConverter(units));
+            result.put(Integer.TYPE,        new BuiltIn.IntegerConverter(units));
+            result.put(Long.class,          new BuiltIn.LongConverter(units));
+            result.put(Long.TYPE,           new BuiltIn.LongConverter(units));
+            result.put(Float.class,         new BuiltIn.FloatConverter(units));
+            result.put(Float.TYPE,          new BuiltIn.FloatConverter(units));
+            result.put(Double.class,        new BuiltIn.DoubleConverter(units));
+            result.put(Double.TYPE,         new BuiltIn.DoubleConverter(units));
+            return result;
+        }
+        private static List<ITypeConverterProvider> providers;
+
+        /** Returns the type converter providers on the class path of the context class loader, loaded on first use. */
+        static synchronized List<ITypeConverterProvider> providers() {
+            if (providers == null) {
+                List<ITypeConverterProvider> result = new ArrayList<ITypeConverterProvider>();
+                try { // java.util.ServiceLoader is not available in Java 5
+                    Class<?> serviceLoader = Class.forName("java.util.ServiceLoader");
+                    Object loader = serviceLoader.getMethod("load", Class.class).invoke(null, ITypeConverterProvider.class);
+                    for (Object provider : (Iterable<?>) loader) {
+                        result.add((ITypeConverterProvider) provider);
+                    }
+                } catch (ClassNotFoundException java5) {
+                    // no providers
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Could not load type converter providers: " + ex, ex);
+                }
+                providers = Collections.unmodifiableList(result);
+            }
+            return providers;
+        }
+
+        /**
+         * Converts text to a constant of an enum type with a table of the constant names that is built once per enum
+         * type. A lookup does not allocate. In case-insensitive mode, the table is hashed on the names with their
+         * characters in lower case, and an exact match is preferred when constants differ only in case.
+         */
+        static final class EnumConverter implements ITypeConverter<Object> {
+            // values are soft references: the converter refers to the enum class (via its constants)
+            private static final Map<Class<?>, SoftReference<EnumConverter[]>> CACHE =
+                    Collections.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<EnumConverter[]>>());
+            private final Class<?> type;
+            private final boolean caseInsensitive;
+            private final String[] names;
+            private final Object[] constants;
+            private final int mask;
+
+            /** Returns the (cached) converter for the specified enum type. */
+            static EnumConverter forType(Class<?> type, boolean caseInsensitive) {
+                SoftReference<EnumConverter[]> ref = CACHE.get(type);
+                EnumConverter[] converters = ref == null ? null : ref.get();
+                if (converters == null) {
+                    converters = new EnumConverter[] {new EnumConverter(type, false), new EnumConverter(type, true)};
+                    CACHE.put(type, new SoftReference<EnumConverter[]>(converters));
+                }
+                return converters[caseInsensitive ? 1 : 0];
+            }
+
+            private EnumConverter(Class<?> type, boolean caseInsensitive) {
+                this.type = type;
+                this.caseInsensitive = caseInsensitive;
+                Object[] values = type.getEnumConstants();
+                int capacity = Integer.highestOneBit(Math.max(1, values.length * 2 - 1)) * 2; // load factor <= 0.5
+                names = new String[capacity];
+                constants = new Object[capacity];
+                mask = capacity - 1;
+                for (Object value : values) {
+                    String name = ((Enum<?>) value).name();
+                    int i = hash(name) & mask;
+                    while (names[i] != null) { i = (i + 1) & mask; }
+                    names[i] = name;
+                    constants[i] = value;
+                }
+            }
+
+            private int hash(String value) {
+                if (!caseInsensitive) { return value.hashCode(); }
+                int h = 0;
+                for (int i = 0; i < value.length(); i++) {
+                    h = 31 * h + Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+                }
+                return h;
+            }
+
+            public Object convert(String value) {
+                Object match = null;
+                for (int i = hash(value) & mask; names[i] != null; i = (i + 1) & mask) {
+                    if (names[i].equals(value)) {
+                        return constants[i];
+                    }
+                    if (match == null && caseInsensitive && names[i].equalsIgnoreCase(value)) {
+                        match = constants[i];
+                    }
+                }
+                if (match == null) {
+                    throw new IllegalArgumentException("No enum constant " + type.getCanonicalName() + "." + value);
+                }
+                return match;
+            }
+        }
+
+        /** Converts text with the converter of a supertype, and verifies that the result is an instance of the type. */
+        static final class SupertypeConverter implements ITypeConverter<Object> {
+            private final Class<?> type;
+            private final Class<?> supertype;
+            private final ITypeConverter<?> converter;
+
+            SupertypeConverter(Class<?> type, Class<?> supertype, ITypeConverter<?> converter) {
+                this.type = type;
+                this.supertype = supertype;
+                this.converter = converter;
+            }
+            public Object convert(String value) throws Exception {
+                Object result = converter.convert(value);
+                if (result != null && !type.isInstance(result)) { // primitive types have no supertypes
+                    throw new ParameterException("The converter for " + supertype.getName() + " returned a "
+                            + result.getClass().getName() + ", which is not a " + type.getName());
+                }
+                return result;
+            }
+        }
+
         static class StringConverter implements ITypeConverter<String> {
             public String convert(String value) { return value; }
         }
@@ -1956,13 +4460,17 @@ public class CommandLine {
         static class CharSequenceConverter implements ITypeConverter<CharSequence> {
             public String convert(String value) { return value; }
         }
-        /** Converts text to a {@code Byte} by delegating to {@link Byte#valueOf(String)}.*/
+        /** Converts text to a {@code Byte} with the {@link NumberScanner}, with or without unit suffixes.*/
         static class ByteConverter implements ITypeConverter<Byte> {
-            public Byte convert(String value) { return Byte.valueOf(value); }
+            private final boolean units;
+            ByteConverter(boolean units) { this.units = units; }
+            public Byte convert(String value) { return Byte.valueOf(parse(value, units)); }
+            static byte parse(String value, boolean units) { return (byte) NumberScanner.parseLong(value, Byte.MIN_VALUE, Byte.MAX_VALUE, units); }
         }
         /** Converts {@code "true"} or {@code "false"} to a {@code Boolean}. Other values result in a ParameterException.*/
         static class BooleanConverter implements ITypeConverter<Boolean> {
-            public Boolean convert(String value) {
+            public Boolean convert(String value) { return Boolean.valueOf(parse(value)); }
+            static boolean parse(String value) {
                 if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
                     return Boolean.parseBoolean(value);
                 } else {
@@ -1978,23 +4486,212 @@ public class CommandLine {
                 return value.charAt(0);
             }
         }
-        /** Converts text to a {@code Short} by delegating to {@link Short#valueOf(String)}.*/
+        /** Converts text to a {@code Short} with the {@link NumberScanner}, with or without unit suffixes.*/
         static class ShortConverter implements ITypeConverter<Short> {
-            public Short convert(String value) { return Short.valueOf(value); }
+            private final boolean units;
+            ShortConverter(boolean units) { this.units = units; }
+            public Short convert(String value) { return Short.valueOf(parse(value, units)); }
+            static short parse(String value, boolean units) { return (short) NumberScanner.parseLong(value, Short.MIN_VALUE, Short.MAX_VALUE, units); }
         }
-        /** Converts text to an {@code Integer} by delegating to {@link Integer#valueOf(String)}.*/
+        /** Converts text to an {@code Integer} with the {@link NumberScanner}, with or without unit suffixes.*/
         static class IntegerConverter implements ITypeConverter<Integer> {
-            public Integer convert(String value) { return Integer.valueOf(value); }
+            private final boolean units;
+            IntegerConverter(boolean units) { this.units = units; }
+            public Integer convert(String value) { return Integer.valueOf(parse(value, units)); }
+            static int parse(String value, boolean units) { return (int) NumberScanner.parseLong(value, Integer.MIN_VALUE, Integer.MAX_VALUE, units); }
         }
-        /** Converts text to a {@code Long} by delegating to {@link Long#valueOf(String)}.*/
+        /** Converts text to a {@code Long} with the {@link NumberScanner}, with or without unit suffixes.*/
         static class LongConverter implements ITypeConverter<Long> {
-            public Long convert(String value) { return Long.valueOf(value); }
+            private final boolean units;
+            LongConverter(boolean units) { this.units = units; }
+            public Long convert(String value) { return Long.valueOf(parse(value, units)); }
+            static long parse(String value, boolean units) { return NumberScanner.parseLong(value, Long.MIN_VALUE, Long.MAX_VALUE, units); }
         }
+        /** Converts text to a {@code Float} with the {@link NumberScanner}, with or without unit suffixes.*/
         static class FloatConverter implements ITypeConverter<Float> {
-            public Float convert(String value) { return Float.valueOf(value); }
+            private final boolean units;
+            FloatConverter(boolean units) { this.units = units; }
+            public Float convert(String value) { return Float.valueOf(parse(value, units)); }
+            static float parse(String value, boolean units) { return (float) NumberScanner.parseDouble(value, true, units); }
         }
+        /** Converts text to a {@code Double} with the {@link NumberScanner}, with or without unit suffixes.*/
         static class DoubleConverter implements ITypeConverter<Double> {
-            public Double convert(String value) { return Double.valueOf(value); }
+            private final boolean units;
+            DoubleConverter(boolean units) { this.units = units; }
+            public Double convert(String value) { return Double.valueOf(parse(value, units)); }
+            static double parse(String value, boolean units) { return NumberScanner.parseDouble(value, false, units); }
+        }
+        /**
+         * Scans the text of a number in a single pass. In addition to plain decimal numbers, the scanner accepts
+         * <ul>
+         *   <li>a radix prefix on integral numbers: {@code 0x1F} (hexadecimal), {@code 0o17} (octal) or {@code 0b101}
+         *   (binary). A leading zero without prefix is decimal.</li>
+         *   <li>underscores between digits: {@code 1_000_000}</li>
+         * </ul>
+         * If unit suffixes are allowed, the scanner also accepts
+         * <ul>
+         *   <li>an SI size suffix {@code k} (or {@code K}), {@code M}, {@code G}, {@code T}, {@code P} or {@code E}
+         *   (powers of 1000), or an IEC size suffix {@code Ki}, {@code Mi}, {@code Gi}, {@code Ti}, {@code Pi} or
+         *   {@code Ei} (powers of 1024), optionally followed by {@code B}: {@code 10k}, {@code 512MiB}</li>
+         *   <li>a time unit suffix {@code ns}, {@code us}, {@code ms}, {@code s}, {@code m}, {@code h} or {@code d}.
+         *   Durations are converted to milliseconds: {@code 250ms} is 250, {@code 2s} is 2000.</li>
+         * </ul>
+         * Suffixes are case-sensitive ({@code m} is minutes, {@code M} is mega). Digits of a hexadecimal number take
+         * precedence over suffixes, so {@code 0x1B} is 27. Integral results must be whole numbers within the range of
+         * the target type; otherwise a {@code NumberFormatException} is thrown.
+         */
+        static final class NumberScanner {
+            private NumberScanner() {}
+
+            /** Returns the integral value of the specified text, which must be within the specified range. The text may
+             * have a unit suffix if {@code units} is {@code true}. */
+            static long parseLong(String value, long min, long max, boolean units) {
+                int length = value.length();
+                int i = 0;
+                boolean negative = false;
+                if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+                    negative = value.charAt(0) == '-';
+                    i++;
+                }
+                int radix = 10;
+                if (i + 2 < length && value.charAt(i) == '0') {
+                    char prefix = value.charAt(i + 1);
+                    radix = prefix == 'x' || prefix == 'X' ? 16 : prefix == 'o' || prefix == 'O' ? 8 : prefix == 'b' || prefix == 'B' ? 2 : 10;
+                    if (radix != 10 && Character.digit(value.charAt(i + 2), radix) >= 0) {
+                        i += 2;
+                    } else {
+                        radix = 10; // "0B" is zero bytes
+                    }
+                }
+                // accumulate negatively, like Long.parseLong, so that Long.MIN_VALUE can be represented
+                long limit = negative ? min : -max;
+                long multiplyMin = limit / radix;
+                long result = 0;
+                int digits = 0;
+                boolean underscore = false;
+                for (; i < length; i++) {
+                    char c = value.charAt(i);
+                    if (c == '_') {
+                        if (digits == 0 || underscore) { throw invalid(value); }
+                        underscore = true;
+                        continue;
+                    }
+                    int digit = Character.digit(c, radix);
+                    if (digit < 0) { break; }
+                    if (result < multiplyMin) { throw outOfRange(value, min, max); }
+                    result *= radix;
+                    if (result < limit + digit) { throw outOfRange(value, min, max); }
+                    result -= digit;
+                    digits++;
+                    underscore = false;
+                }
+                if (digits == 0 || underscore) { throw invalid(value); }
+                long scale = units ? scale(value, i) : i == length ? 1 : 0;
+                if (scale == 0) { throw invalid(value); }
+                if (scale > 0) {
+                    if (result < limit / scale) { throw outOfRange(value, min, max); }
+                    result *= scale;
+                } else {
+                    if (result % -scale != 0) {
+                        throw new NumberFormatException("For input string: \"" + value + "\" (not a whole number of milliseconds)");
+                    }
+                    result /= -scale;
+                }
+                return negative ? result : -result;
+            }
+
+            /** Returns the floating point value of the specified text. The mantissa is parsed with
+             * {@code Float.parseFloat} if {@code single} is {@code true}, with {@code Double.parseDouble} otherwise.
+             * Text without suffix or underscores, like {@code NaN} or {@code 0x1p3}, is parsed as is. The text may have a
+             * unit suffix if {@code units} is {@code true}. */
+            static double parseDouble(String value, boolean single, boolean units) {
+                int length = value.length();
+                int i = 0;
+                if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) { i++; }
+                int digits = 0;
+                boolean underscores = false;
+                for (; i < length; i++) {
+                    char c = value.charAt(i);
+                    if (c >= '0' && c <= '9') {
+                        digits++;
+                    } else if (c == '_') {
+                        underscores = true;
+                    } else if (c != '.') {
+                        break;
+                    }
+                }
+                if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E') && digits > 0) {
+                    int exponent = i + 1;
+                    if (exponent < length && (value.charAt(exponent) == '-' || value.charAt(exponent) == '+')) { exponent++; }
+                    if (exponent < length && value.charAt(exponent) >= '0' && value.charAt(exponent) <= '9') {
+                        for (i = exponent; i < length && (value.charAt(i) >= '0' && value.charAt(i) <= '9' || value.charAt(i) == '_'); i++) {
+                            underscores |= value.charAt(i) == '_';
+                        }
+                    }
+                }
+                int end = length;
+                if (i == length - 1 && "dDfF".indexOf(value.charAt(i)) >= 0) {
+                    end = i; // a Java type suffix, as in 1.5d: not the time unit d (days)
+                }
+                long scale = i == end ? 1 : units ? scale(value, i) : 0;
+                if (digits == 0 || scale == 0 || (scale == 1 && !underscores && i == end)) {
+                    return single ? Float.parseFloat(value) : Double.parseDouble(value); // no extensions: standard syntax
+                }
+                String mantissa = underscores ? removeUnderscores(value, i) : value.substring(0, i);
+                if (scale == 1) {
+                    return single ? Float.parseFloat(mantissa) : Double.parseDouble(mantissa);
+                }
+                double result = Double.parseDouble(mantissa);
+                return scale > 0 ? result * scale : result / -scale;
+            }
+            private static String removeUnderscores(String value, int end) {
+                StringBuilder result = new StringBuilder(end);
+                for (int i = 0; i < end; i++) {
+                    char c = value.charAt(i);
+                    if (c != '_') {
+                        result.append(c);
+                    } else if (i == 0 || i + 1 == end || !isDigit(value.charAt(i - 1)) || !isDigit(value.charAt(i + 1))) {
+                        throw invalid(value); // an underscore must be between two digits
+                    }
+                }
+                return result.toString();
+            }
+            private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+
+            /** Returns the multiplier for the suffix that starts at the specified index, a negative divisor for
+             * {@code ns} and {@code us}, or zero if the suffix is not recognized. */
+            static long scale(String value, int start) {
+                int rest = value.length() - start;
+                if (rest == 0) { return 1; }
+                char c = value.charAt(start);
+                char next = rest > 1 ? value.charAt(start + 1) : 0;
+                switch (c) {
+                    case 'n': return rest == 2 && next == 's' ? -1000000 : 0;
+                    case 'u': return rest == 2 && next == 's' ? -1000 : 0;
+                    case 'm': return rest == 1 ? 60L * 1000 : rest == 2 && next == 's' ? 1 : 0;
+                    case 's': return rest == 1 ? 1000 : 0;
+                    case 'h': return rest == 1 ? 60L * 60 * 1000 : 0;
+                    case 'd': return rest == 1 ? 24L * 60 * 60 * 1000 : 0;
+                    case 'B': return rest == 1 ? 1 : 0;
+                    default:
+                }
+                int power = c == 'K' ? 1 : "kMGTPE".indexOf(c) + 1;
+                if (power == 0) { return 0; }
+                int i = start + 1;
+                long base = 1000;
+                if (i < value.length() && value.charAt(i) == 'i') { base = 1024; i++; }
+                if (i < value.length() && value.charAt(i) == 'B') { i++; }
+                if (i != value.length()) { return 0; }
+                long result = 1;
+                for (int p = 0; p < power; p++) { result *= base; }
+                return result;
+            }
+            private static NumberFormatException invalid(String value) {
+                return new NumberFormatException("For input string: \"" + value + "\"");
+            }
+            private static NumberFormatException outOfRange(String value, long min, long max) {
+                return new NumberFormatException("For input string: \"" + value + "\" (out of range " + min + ".." + max + ")");
+            }
         }
         static class FileConverter implements ITypeConverter<File> {
             public File convert(String value) { return new File(value); }
@@ -2005,36 +4702,228 @@ public class CommandLine {
         static class URIConverter implements ITypeConverter<URI> {
             public URI convert(String value) throws URISyntaxException { return new URI(value); }
         }
-        /** Converts text in {@code yyyy-mm-dd} format to a {@code java.util.Date}. ParameterException on failure. */
+        /** Converts text in {@code yyyy-MM-dd} format, optionally followed by {@code 'T'}, a time and a UTC offset as
+         * accepted by the {@link ISO8601Scanner}, to a {@code java.util.Date}. Without offset, the date and time are
+         * interpreted in the default time zone. ParameterException on failure. */
         static class ISO8601DateConverter implements ITypeConverter<Date> {
             public Date convert(String value) {
-                try {
-                    return new SimpleDateFormat("yyyy-MM-dd").parse(value);
-                } catch (ParseException e) {
-                    throw new ParameterException("'" + value + "' is not a yyyy-MM-dd date");
+                ISO8601Scanner scanner = new ISO8601Scanner(value);
+                if (scanner.date() && (scanner.end() || scanner.dateTimeSeparator() && scanner.time() && scanner.offset() && scanner.end())) {
+                    return new Date(scanner.epochMillis());
                 }
+                throw new ParameterException("'" + value + "' is not an ISO-8601 date");
             }
         }
         /** Converts text in any of the following formats to a {@code java.sql.Time}: {@code HH:mm}, {@code HH:mm:ss},
-         * {@code HH:mm:ss.SSS}, {@code HH:mm:ss,SSS}. Other formats result in a ParameterException. */
+         * {@code HH:mm:ss.SSS}, {@code HH:mm:ss,SSS}, with up to nine fraction digits and an optional UTC offset.
+         * Other formats result in a ParameterException. */
         static class ISO8601TimeConverter implements ITypeConverter<Time> {
             public Time convert(String value) {
+                ISO8601Scanner scanner = new ISO8601Scanner(value);
+                if (scanner.time() && scanner.offset() && scanner.end()) {
+                    return new Time(scanner.epochMillis());
+                }
+                throw new ParameterException("'" + value + "' is not a HH:mm[:ss[.SSS]] time");
+            }
+        }
+        /**
+         * Converts ISO-8601 text to a {@code java.time} object. The {@code java.time} classes are not available before
+         * Java 8, so these converters are only registered if the classes can be loaded, and the values are created by
+         * calling the {@code of} factory methods reflectively.
+         */
+        static class JavaTimeConverter implements ITypeConverter<Object> {
+            static final int LOCAL_DATE = 0, LOCAL_TIME = 1, LOCAL_DATE_TIME = 2, OFFSET_TIME = 3, OFFSET_DATE_TIME = 4, INSTANT = 5;
+            private final int kind;
+            private final Class<?> type;
+            private final Method factory;
+            private final Method zoneOffset;
+
+            JavaTimeConverter(int kind, Class<?> type, Method factory, Method zoneOffset) {
+                this.kind = kind;
+                this.type = type;
+                this.factory = factory;
+                this.zoneOffset = zoneOffset;
+            }
+            /** Adds the converters for the {@code java.time} types to the specified map if the types are available. */
+            static void addTo(Map<Class<?>, ITypeConverter<?>> converters) {
                 try {
-                    if (value.length() <= 5) {
-                        return new Time(new SimpleDateFormat("HH:mm").parse(value).getTime());
-                    } else if (value.length() <= 8) {
-                        return new Time(new SimpleDateFormat("HH:mm:ss").parse(value).getTime());
-                    } else if (value.length() <= 12) {
-                        try {
-                            return new Time(new SimpleDateFormat("HH:mm:ss.SSS").parse(value).getTime());
-                        } catch (ParseException e2) {
-                            return new Time(new SimpleDateFormat("HH:mm:ss,SSS").parse(value).getTime());
+                    Class<?> localDate = Class.forName("java.time.LocalDate");
+                    Class<?> localTime = Class.forName("java.time.LocalTime");
+                    Class<?> localDateTime = Class.forName("java.time.LocalDateTime");
+                    Class<?> offsetTime = Class.forName("java.time.OffsetTime");
+                    Class<?> offsetDateTime = Class.forName("java.time.OffsetDateTime");
+                    Class<?> instant = Class.forName("java.time.Instant");
+                    Class<?> offset = Class.forName("java.time.ZoneOffset");
+                    Method ofTotalSeconds = offset.getMethod("ofTotalSeconds", int.class);
+                    Class<?> i = int.class;
+                    converters.put(localDate, new JavaTimeConverter(LOCAL_DATE, localDate,
+                            localDate.getMethod("of", i, i, i), null));
+                    converters.put(localTime, new JavaTimeConverter(LOCAL_TIME, localTime,
+                            localTime.getMethod("of", i, i, i, i), null));
+                    converters.put(localDateTime, new JavaTimeConverter(LOCAL_DATE_TIME, localDateTime,
+                            localDateTime.getMethod("of", i, i, i, i, i, i, i), null));
+                    converters.put(offsetTime, new JavaTimeConverter(OFFSET_TIME, offsetTime,
+                            offsetTime.getMethod("of", i, i, i, i, offset), ofTotalSeconds));
+                    converters.put(offsetDateTime, new JavaTimeConverter(OFFSET_DATE_TIME, offsetDateTime,
+                            offsetDateTime.getMethod("of", i, i, i, i, i, i, i, offset), ofTotalSeconds));
+                    converters.put(instant, new JavaTimeConverter(INSTANT, instant,
+                            instant.getMethod("ofEpochSecond", long.class, long.class), null));
+                } catch (Exception ignored) {
+                    // java.time is not available: values of these types need a custom converter
+                }
+            }
+            public Object convert(String value) throws Exception {
+                ISO8601Scanner s = new ISO8601Scanner(value);
+                switch (kind) {
+                    case LOCAL_DATE:
+                        if (s.date() && s.end()) { return factory.invoke(null, s.year, s.month, s.day); }
+                        break;
+                    case LOCAL_TIME:
+                        if (s.time() && s.end()) { return factory.invoke(null, s.hour, s.minute, s.second, s.nanos); }
+                        break;
+                    case LOCAL_DATE_TIME:
+                        if (s.date() && s.dateTimeSeparator() && s.time() && s.end()) {
+                            return factory.invoke(null, s.year, s.month, s.day, s.hour, s.minute, s.second, s.nanos);
+                        }
+                        break;
+                    case OFFSET_TIME:
+                        if (s.time() && s.offset() && s.hasOffset() && s.end()) {
+                            return factory.invoke(null, s.hour, s.minute, s.second, s.nanos, zoneOffset.invoke(null, s.offsetSeconds));
+                        }
+                        break;
+                    case OFFSET_DATE_TIME:
+                        if (s.date() && s.dateTimeSeparator() && s.time() && s.offset() && s.hasOffset() && s.end()) {
+                            return factory.invoke(null, s.year, s.month, s.day, s.hour, s.minute, s.second, s.nanos,
+                                    zoneOffset.invoke(null, s.offsetSeconds));
+                        }
+                        break;
+                    default: // INSTANT
+                        if (s.date() && s.dateTimeSeparator() && s.time() && s.offset() && s.hasOffset() && s.end()) {
+                            return factory.invoke(null, s.epochSecond(), (long) s.nanos);
                         }
-                    }
-                } catch (ParseException ignored) {
-                    // ignored because we throw a ParameterException below
                 }
-                throw new ParameterException("'" + value + "' is not a HH:mm[:ss[.SSS]] time");
+                throw new ParameterException("'" + value + "' is not an ISO-8601 " + type.getSimpleName());
+            }
+        }
+        /**
+         * Scans ISO-8601 dates ({@code yyyy-MM-dd}), times ({@code HH:mm[:ss[.fraction]]}, with {@code .} or {@code ,}
+         * before one to nine fraction digits), date-times separated by {@code T} and UTC offsets ({@code Z},
+         * {@code +HH}, {@code +HH:mm} or {@code +HHmm}) in a single pass. Each scanning method returns whether the
+         * text at the current position has the expected format and stores the parsed fields; nothing is thrown.
+         */
+        static final class ISO8601Scanner {
+            private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+            /** Calendar used to convert fields to milliseconds, cached per thread because calendars are not thread-safe. */
+            private static final ThreadLocal<Calendar> CALENDAR = new ThreadLocal<Calendar>();
+            private static final int NO_OFFSET = Integer.MIN_VALUE;
+            private final String text;
+            private int position;
+            int year = 1970, month = 1, day = 1, hour, minute, second, nanos, offsetSeconds = NO_OFFSET;
+
+            ISO8601Scanner(String text) { this.text = text; }
+
+            /** Scans a {@code yyyy-MM-dd} date. */
+            boolean date() {
+                year = digits(4);
+                if (year < 0 || !literal('-')) { return false; }
+                month = digits(2);
+                if (month < 1 || month > 12 || !literal('-')) { return false; }
+                day = digits(2);
+                return day >= 1 && day <= daysInMonth(year, month);
+            }
+            /** Scans the {@code T} between a date and a time. A space or lower case {@code t} are also accepted. */
+            boolean dateTimeSeparator() { return literal('T') || literal('t') || literal(' '); }
+
+            /** Scans a {@code HH:mm[:ss[.fraction]]} time. */
+            boolean time() {
+                hour = digits(2);
+                if (hour < 0 || hour > 23 || !literal(':')) { return false; }
+                minute = digits(2);
+                if (minute < 0 || minute > 59) { return false; }
+                if (!literal(':')) { return true; }
+                second = digits(2);
+                if (second < 0 || second > 59) { return false; }
+                if (!literal('.') && !literal(',')) { return true; }
+                int scale = 100000000;
+                int start = position;
+                while (position < text.length() && position - start < 9) {
+                    int digit = text.charAt(position) - '0';
+                    if (digit < 0 || digit > 9) { break; }
+                    nanos += digit * scale;
+                    scale /= 10;
+                    position++;
+                }
+                return position > start;
+            }
+            /** Scans an optional UTC offset: {@code Z}, {@code +HH}, {@code +HH:mm} or {@code +HHmm}, up to 18 hours. */
+            boolean offset() {
+                if (literal('Z') || literal('z')) {
+                    offsetSeconds = 0;
+                    return true;
+                }
+                int sign = literal('+') ? 1 : literal('-') ? -1 : 0;
+                if (sign == 0) { return true; }
+                int hours = digits(2);
+                if (hours < 0) { return false; }
+                int minutes = 0;
+                if (position < text.length()) {
+                    literal(':');
+                    minutes = digits(2);
+                    if (minutes < 0 || minutes > 59) { return false; }
+                }
+                offsetSeconds = sign * (hours * 3600 + minutes * 60);
+                return hours * 3600 + minutes * 60 <= 18 * 3600;
+            }
+            boolean hasOffset() { return offsetSeconds != NO_OFFSET; }
+            /** Returns whether all text has been scanned. */
+            boolean end() { return position == text.length(); }
+
+            /** Returns the milliseconds since the epoch of the scanned fields, in the default time zone if no offset
+             * was scanned. Like {@code SimpleDateFormat}, this uses a {@code GregorianCalendar}. */
+            long epochMillis() {
+                Calendar calendar = CALENDAR.get();
+                if (calendar == null) {
+                    calendar = new GregorianCalendar();
+                    CALENDAR.set(calendar);
+                }
+                calendar.setTimeZone(hasOffset() ? UTC : TimeZone.getDefault());
+                calendar.clear();
+                calendar.set(year, month - 1, day, hour, minute, second);
+                calendar.set(Calendar.MILLISECOND, nanos / 1000000);
+                return calendar.getTimeInMillis() - (hasOffset() ? offsetSeconds * 1000L : 0);
+            }
+            /** Returns the seconds since the epoch of the scanned fields in the proleptic ISO calendar, like {@code java.time}. */
+            long epochSecond() {
+                long y = month <= 2 ? year - 1 : year;
+                long era = (y >= 0 ? y : y - 399) / 400;
+                long yearOfEra = y - era * 400;
+                long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+                long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+                long epochDay = era * 146097 + dayOfEra - 719468;
+                return epochDay * 86400 + hour * 3600 + minute * 60 + second - (hasOffset() ? offsetSeconds : 0);
+            }
+            private static int daysInMonth(int year, int month) {
+                if (month == 2) { return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28; }
+                return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+            }
+            private boolean literal(char c) {
+                if (position < text.length() && text.charAt(position) == c) {
+                    position++;
+                    return true;
+                }
+                return false;
+            }
+            /** Scans exactly {@code count} ASCII digits and returns their value, or -1 if there are fewer digits. */
+            private int digits(int count) {
+                if (position + count > text.length()) { return -1; }
+                int result = 0;
+                for (int i = 0; i < count; i++) {
+                    int digit = text.charAt(position + i) - '0';
+                    if (digit < 0 || digit > 9) { return -1; }
+                    result = result * 10 + digit;
+                }
+                position += count;
+                return result;
             }
         }
         static class BigDecimalConverter implements ITypeConverter<BigDecimal> {
@@ -2046,8 +4935,9 @@ public class CommandLine {
         static class CharsetConverter implements ITypeConverter<Charset> {
             public Charset convert(String s) { return Charset.forName(s); }
         }
-        /** Converts text to a {@code InetAddress} by delegating to {@link InetAddress#getByName(String)}. */
-        static class InetAddressConverter implements ITypeConverter<InetAddress> {
+        /** Converts text to a {@code InetAddress} by delegating to {@link InetAddress#getByName(String)}, which may
+         * block on a name service lookup. */
+        static class InetAddressConverter implements IBlockingTypeConverter<InetAddress> {
             public InetAddress convert(String s) throws Exception { return InetAddress.getByName(s); }
         }
         static class PatternConverter implements ITypeConverter<Pattern> {
@@ -2099,6 +4989,7 @@ public class CommandLine {
         private final static int usageHelpWidth = 80;
         private final static int optionsColumnWidth = 2 + 2 + 1 + 24;
         private final Object command;
+        private final CommandModel model;
         private final Map<String, Help> commands = new LinkedHashMap<String, Help>();
         final ColorScheme colorScheme;
 
@@ -2196,49 +5087,43 @@ public class CommandLine {
          * @param command the annotated object to create usage help for
          * @param colorScheme the color scheme to use */
         public Help(Object command, ColorScheme colorScheme) {
-            this.command = Assert.notNull(command, "command");
+            this(CommandModel.forClass(Assert.notNull(command, "command").getClass()), command, colorScheme);
+        }
+
+        /** Constructs a new {@code Help} instance from the specified model. The command object may be {@code null}
+         * for subcommands that have not been instantiated; the usage help then does not show default values. */
+        Help(CommandModel model, Object command, ColorScheme colorScheme) {
+            this.command = command;
+            this.model = model;
             this.colorScheme = Assert.notNull(colorScheme, "colorScheme").applySystemProperties();
             List<Field> options = new ArrayList<Field>();
-            List<Field> operands = new ArrayList<Field>();
-            Class<?> cls = command.getClass();
-            while (cls != null) {
-                for (Field field : cls.getDeclaredFields()) {
-                    field.setAccessible(true);
-                    if (field.isAnnotationPresent(Option.class)) {
-                        Option option = field.getAnnotation(Option.class);
-                        if (!option.hidden()) { // hidden options should not appear in usage help
-                            // TODO remember longest concatenated option string length (issue #45)
-                            options.add(field);
-                        }
-                    }
-                    if (field.isAnnotationPresent(Parameters.class)) {
-                        operands.add(field);
-                    }
+            for (Field field : model.optionFields) {
+                if (!model.specs.get(field).hidden) { // hidden options should not appear in usage help
+                    // TODO remember longest concatenated option string length (issue #45)
+                    options.add(field);
                 }
-                // superclass values should not overwrite values if both class and superclass have a @Command annotation
-                if (cls.isAnnotationPresent(Command.class)) {
-                    Command cmd = cls.getAnnotation(Command.class);
-                    if (DEFAULT_COMMAND_NAME.equals(commandName)) {
-                        commandName = cmd.name();
-                    }
-                    separator = (separator == null) ? cmd.separator() : separator;
-                    abbreviateSynopsis = (abbreviateSynopsis == null) ? cmd.abbreviateSynopsis() : abbreviateSynopsis;
-                    sortOptions = (sortOptions == null) ? cmd.sortOptions() : sortOptions;
-                    requiredOptionMarker = (requiredOptionMarker == null) ? cmd.requiredOptionMarker() : requiredOptionMarker;
-                    showDefaultValues = (showDefaultValues == null) ? cmd.showDefaultValues() : showDefaultValues;
-                    customSynopsis = empty(customSynopsis) ? cmd.customSynopsis() : customSynopsis;
-                    description = empty(description) ? cmd.description() : description;
-                    header = empty(header) ? cmd.header() : header;
-                    footer = empty(footer) ? cmd.footer() : footer;
-                    headerHeading = empty(headerHeading) ? cmd.headerHeading() : headerHeading;
-                    synopsisHeading = empty(synopsisHeading) || "Usage: ".equals(synopsisHeading) ? cmd.synopsisHeading() : synopsisHeading;
-                    descriptionHeading = empty(descriptionHeading) ? cmd.descriptionHeading() : descriptionHeading;
-                    parameterListHeading = empty(parameterListHeading) ? cmd.parameterListHeading() : parameterListHeading;
-                    optionListHeading = empty(optionListHeading) ? cmd.optionListHeading() : optionListHeading;
-                    commandListHeading = empty(commandListHeading) || "Commands:%n".equals(commandListHeading) ? cmd.commandListHeading() : commandListHeading;
-                    footerHeading = empty(footerHeading) ? cmd.footerHeading() : footerHeading;
+            }
+            // superclass values should not overwrite values if both class and superclass have a @Command annotation
+            for (Command cmd : model.commandAnnotations) {
+                if (DEFAULT_COMMAND_NAME.equals(commandName)) {
+                    commandName = cmd.name();
                 }
-                cls = cls.getSuperclass();
+                separator = (separator == null) ? cmd.separator() : separator;
+                abbreviateSynopsis = (abbreviateSynopsis == null) ? cmd.abbreviateSynopsis() : abbreviateSynopsis;
+                sortOptions = (sortOptions == null) ? cmd.sortOptions() : sortOptions;
+                requiredOptionMarker = (requiredOptionMarker == null) ? cmd.requiredOptionMarker() : requiredOptionMarker;
+                showDefaultValues = (showDefaultValues == null) ? cmd.showDefaultValues() : showDefaultValues;
+                customSynopsis = empty(customSynopsis) ? cmd.customSynopsis() : customSynopsis;
+                description = empty(description) ? cmd.description() : description;
+                header = empty(header) ? cmd.header() : header;
+                footer = empty(footer) ? cmd.footer() : footer;
+                headerHeading = empty(headerHeading) ? cmd.headerHeading() : headerHeading;
+                synopsisHeading = empty(synopsisHeading) || "Usage: ".equals(synopsisHeading) ? cmd.synopsisHeading() : synopsisHeading;
+                descriptionHeading = empty(descriptionHeading) ? cmd.descriptionHeading() : descriptionHeading;
+                parameterListHeading = empty(parameterListHeading) ? cmd.parameterListHeading() : parameterListHeading;
+                optionListHeading = empty(optionListHeading) ? cmd.optionListHeading() : optionListHeading;
+                commandListHeading = empty(commandListHeading) || "Commands:%n".equals(commandListHeading) ? cmd.commandListHeading() : commandListHeading;
+                footerHeading = empty(footerHeading) ? cmd.footerHeading() : footerHeading;
             }
             sortOptions =          (sortOptions == null)          ? true : sortOptions;
             abbreviateSynopsis =   (abbreviateSynopsis == null)   ? false : abbreviateSynopsis;
@@ -2247,13 +5132,13 @@ public class CommandLine {
             synopsisHeading =      (synopsisHeading == null)      ? "Usage: " : synopsisHeading;
             commandListHeading =   (commandListHeading == null)   ? "Commands:%n" : commandListHeading;
             separator =            (separator == null)            ? "=" : separator;
-            parameterLabelRenderer = new DefaultParamLabelRenderer(separator);
-            Collections.sort(operands, new PositionalParametersSorter());
-            positionalParametersFields = Collections.unmodifiableList(operands);
+            parameterLabelRenderer = new DefaultParamLabelRenderer(separator, model.specs);
+            positionalParametersFields = model.positionalParametersFields;
             optionFields                 = Collections.unmodifiableList(options);
         }
 
-        /** Registers all specified subcommands with this Help.
+        /** Registers all specified subcommands with this Help. Subcommands that have not been instantiated yet are
+         * described from the annotations on their class, without instantiating them.
          * @param commands maps the command names to the associated CommandLine object
          * @return this Help instance (for method chaining)
          * @see CommandLine#getSubcommands()
@@ -2261,7 +5146,12 @@ public class CommandLine {
         public Help addAllSubcommands(Map<String, CommandLine> commands) {
             if (commands != null) {
                 for (Map.Entry<String, CommandLine> entry : commands.entrySet()) {
-                    addSubcommand(entry.getKey(), entry.getValue().getCommand());
+                    CommandLine sub = entry.getValue();
+                    if (sub.isInstantiated()) {
+                        addSubcommand(entry.getKey(), sub.getCommand());
+                    } else {
+                        this.commands.put(entry.getKey(), new Help(sub.model(), null, defaultColorScheme(Ansi.AUTO)));
+                    }
                 }
             }
             return this;
@@ -2277,6 +5167,12 @@ public class CommandLine {
             return this;
         }
 
+        /** Returns the specification of the specified field in the model of this command, which includes the fields
+         * declared in superclasses. */
+        private ArgSpec spec(Field field) {
+            return ArgSpec.forField(field, model.specs);
+        }
+
         /** Returns a synopsis for the command without reserving space for the synopsis heading.
          * @return a synopsis
          * @see #abbreviatedSynopsis()
@@ -2296,7 +5192,7 @@ public class CommandLine {
         public String synopsis(int synopsisHeadingLength) {
             if (!empty(customSynopsis)) { return customSynopsis(); }
             return abbreviateSynopsis ? abbreviatedSynopsis()
-                    : detailedSynopsis(synopsisHeadingLength, createShortOptionArityAndNameComparator(), true);
+                    : detailedSynopsis(synopsisHeadingLength, new SortByOptionArityAndNameAlphabetically(model.specs), true);
         }
 
         /** Generates a generic synopsis like {@code <command name> [OPTIONS] [PARAM1 [PARAM2]...]}, omitting parts
@@ -2309,7 +5205,7 @@ public class CommandLine {
             }
             // sb.append(" [--] "); // implied
             for (Field positionalParam : positionalParametersFields) {
-                if (!positionalParam.getAnnotation(Parameters.class).hidden()) {
+                if (!spec(positionalParam).hidden) {
                     sb.append(' ').append(parameterLabelRenderer.renderParameterLabel(positionalParam, ansi(), colorScheme.parameterStyles));
                 }
             }
@@ -2344,8 +5240,9 @@ public class CommandLine {
                 StringBuilder clusteredOptional = new StringBuilder("-");
                 for (Field field : fields) {
                     if (field.getType() == boolean.class || field.getType() == Boolean.class) {
-                        Option option = field.getAnnotation(Option.class);
-                        String shortestName = ShortestFirst.sort(option.names())[0];
+                        ArgSpec spec = spec(field);
+                        Option option = spec.option;
+                        String shortestName = spec.shortestName;
                         if (shortestName.length() == 2 && shortestName.startsWith("-")) {
                             booleanOptions.add(field);
                             if (option.required()) {
@@ -2365,12 +5262,13 @@ public class CommandLine {
                 }
             }
             for (Field field : fields) {
-                Option option = field.getAnnotation(Option.class);
+                ArgSpec spec = spec(field);
+                Option option = spec.option;
                 if (!option.hidden()) {
                     //sb.append(" ");
                     optionText = optionText.append(option.required() ? " " : " [");
 
-                    String optionNames = ShortestFirst.sort(option.names())[0];
+                    String optionNames = spec.shortestName;
                     optionText = optionText.append(colorScheme.optionText(optionNames));
 
                     Text optionParamText = parameterLabelRenderer.renderParameterLabel(field, colorScheme.ansi(), colorScheme.optionParamStyles);
@@ -2381,7 +5279,7 @@ public class CommandLine {
                 }
             }
             for (Field positionalParam : positionalParametersFields) {
-                if (!positionalParam.getAnnotation(Parameters.class).hidden()) {
+                if (!spec(positionalParam).hidden) {
                     optionText = optionText.append(" ");
                     Text label = parameterLabelRenderer.renderParameterLabel(positionalParam, colorScheme.ansi(), colorScheme.parameterStyles);
                     optionText = optionText.append(label);
@@ -2417,7 +5315,7 @@ public class CommandLine {
          */
         public String optionList() {
             Comparator<Field> sortOrder = sortOptions == null || sortOptions.booleanValue()
-                    ? createShortOptionNameComparator()
+                    ? new SortByShortestOptionNameAlphabetically(model.specs)
                     : null;
             return optionList(createDefaultLayout(), sortOrder, createDefaultParamLabelRenderer());
         }
@@ -2444,7 +5342,7 @@ public class CommandLine {
          * @return the section of the usage help message that lists the parameters
          */
         public String parameterList() {
-            return parameterList(createDefaultLayout(), createMinimalParamLabelRenderer());
+            return parameterList(createDefaultLayout(), createMinimalParamLabelRenderer(model.specs));
         }
         /**
          * Returns the section of the usage help message that lists the parameters with their descriptions.
@@ -2605,7 +5503,9 @@ public class CommandLine {
         /** Returns a {@code Layout} instance configured with the user preferences captured in this Help instance.
          * @return a Layout */
         public Layout createDefaultLayout() {
-            return new Layout(colorScheme, new TextTable(colorScheme.ansi()), createDefaultOptionRenderer(), createDefaultParameterRenderer());
+            Layout result = new Layout(colorScheme, new TextTable(colorScheme.ansi()), createDefaultOptionRenderer(), createDefaultParameterRenderer());
+            result.specs = model.specs;
+            return result;
         }
         /** Returns a new default OptionRenderer which converts {@link Option Options} to five columns of text to match
          *  the default {@linkplain TextTable TextTable} column layout. The first row of values looks like this:
@@ -2626,6 +5526,7 @@ public class CommandLine {
             result.requiredMarker = String.valueOf(requiredOptionMarker);
             if (showDefaultValues != null && showDefaultValues.booleanValue()) {
                 result.command = this.command;
+                result.model = this.model;
             }
             return result;
         }
@@ -2652,6 +5553,7 @@ public class CommandLine {
         public IParameterRenderer createDefaultParameterRenderer() {
             DefaultParameterRenderer result = new DefaultParameterRenderer();
             result.requiredMarker = String.valueOf(requiredOptionMarker);
+            result.specs = model.specs;
             return result;
         }
         /** Returns a new minimal ParameterRenderer which converts {@link Parameters Parameters} to a single row with
@@ -2664,16 +5566,13 @@ public class CommandLine {
         /** Returns a value renderer that returns the {@code paramLabel} if defined or the field name otherwise.
          * @return a new minimal ParamLabelRenderer */
         public static IParamLabelRenderer createMinimalParamLabelRenderer() {
+            return createMinimalParamLabelRenderer(Collections.<Field, ArgSpec>emptyMap());
+        }
+        private static IParamLabelRenderer createMinimalParamLabelRenderer(final Map<Field, ArgSpec> specs) {
             return new IParamLabelRenderer() {
                 public Text renderParameterLabel(Field field, Ansi ansi, List<IStyle> styles) {
-                    String paramLabel = null;
-                    Parameters parameters = field.getAnnotation(Parameters.class);
-                    if (parameters != null) {
-                        paramLabel = parameters.paramLabel();
-                    } else {
-                        paramLabel = field.isAnnotationPresent(Option.class) ? field.getAnnotation(Option.class).paramLabel() : null;
-                    }
-                    String text = paramLabel == null || paramLabel.length() == 0 ? field.getName() : paramLabel;
+                    String paramLabel = ArgSpec.forField(field, specs).paramLabel;
+                    String text = paramLabel.length() == 0 ? field.getName() : paramLabel;
                     return ansi.apply(text, styles);
                 }
                 public String separator() { return ""; }
@@ -2685,7 +5584,7 @@ public class CommandLine {
          * @return a new default ParamLabelRenderer
          */
         public IParamLabelRenderer createDefaultParamLabelRenderer() {
-            return new DefaultParamLabelRenderer(separator);
+            return new DefaultParamLabelRenderer(separator, model.specs);
         }
         /** Sorts Fields annotated with {@code Option} by their option name in case-insensitive alphabetic order. If an
          * Option has multiple names, the shortest name is used for the sorting. Help options follow non-help options.
@@ -2742,6 +5641,7 @@ public class CommandLine {
         static class DefaultOptionRenderer implements IOptionRenderer {
             public String requiredMarker = " ";
             public Object command;
+            CommandModel model; // the model of the command, if known
             public Text[][] render(Option option, Field field, IParamLabelRenderer paramLabelRenderer, ColorScheme scheme) {
                 String[] names = ShortestFirst.sort(option.names());
                 int shortOptionCount = names[0].length() == 2 ? 1 : 0;
@@ -2762,7 +5662,7 @@ public class CommandLine {
                 boolean showDefault = command != null && !option.help() && !isBoolean(field.getType());
                 Object defaultValue = null;
                 try {
-                    defaultValue = field.get(command);
+                    defaultValue = (model != null ? model : CommandModel.forClass(command.getClass())).accessor(field).get(command);
                     if (defaultValue != null && field.getType().isArray()) {
                         StringBuilder sb = new StringBuilder();
                         for (int i = 0; i < Array.getLength(defaultValue); i++) {
@@ -2839,9 +5739,12 @@ public class CommandLine {
          */
         static class DefaultParameterRenderer implements IParameterRenderer {
             public String requiredMarker = " ";
+            Map<Field, ArgSpec> specs = Collections.emptyMap(); // the specifications of the command, if known
             public Text[][] render(Parameters params, Field field, IParamLabelRenderer paramLabelRenderer, ColorScheme scheme) {
                 Text label = paramLabelRenderer.renderParameterLabel(field, scheme.ansi(), scheme.parameterStyles);
-                Text requiredParameter = scheme.parameterText(Range.parameterArity(field).min > 0 ? requiredMarker : "");
+                ArgSpec spec = ArgSpec.forField(field, specs);
+                boolean required = spec.parameters != null && spec.arity.min > 0;
+                Text requiredParameter = scheme.parameterText(required ? requiredMarker : "");
 
                 final int COLUMN_COUNT = 5;
                 final Text EMPTY = Ansi.EMPTY_TEXT;
@@ -2878,19 +5781,27 @@ public class CommandLine {
         static class DefaultParamLabelRenderer implements IParamLabelRenderer {
             /** The string to use to separate option parameters from their options. */
             public final String separator;
+            private final Map<Field, ArgSpec> specs;
             /** Constructs a new DefaultParamLabelRenderer with the specified separator string. */
             public DefaultParamLabelRenderer(String separator) {
+                this(separator, Collections.<Field, ArgSpec>emptyMap());
+            }
+            /** Constructs a new DefaultParamLabelRenderer with the specified separator string, that looks up fields
+             * in the specified specifications of a command. */
+            DefaultParamLabelRenderer(String separator, Map<Field, ArgSpec> specs) {
                 this.separator = Assert.notNull(separator, "separator");
+                this.specs = specs;
             }
             public String separator() { return separator; }
             public Text renderParameterLabel(Field field, Ansi ansi, List<IStyle> styles) {
-                boolean isOptionParameter = field.isAnnotationPresent(Option.class);
-                Range arity = isOptionParameter ? Range.optionArity(field) : Range.parameterArity(field);
+                ArgSpec spec = ArgSpec.forField(field, specs);
+                boolean isOptionParameter = spec.isOption();
+                Range arity = spec.arity;
                 Text result = ansi.new Text("");
                 String sep = isOptionParameter ? separator : "";
                 if (arity.min > 0) {
                     for (int i = 0; i < arity.min; i++) {
-                        result = result.append(sep).append(ansi.apply(renderParameterName(field), styles));
+                        result = result.append(sep).append(ansi.apply(renderParameterName(spec), styles));
                         sep = " ";
                     }
                 }
@@ -2899,9 +5810,9 @@ public class CommandLine {
                     int max = arity.isVariable ? 1 : arity.max - arity.min;
                     for (int i = 0; i < max; i++) {
                         if (sep.trim().length() == 0) {
-                            result = result.append(sep + "[").append(ansi.apply(renderParameterName(field), styles));
+                            result = result.append(sep + "[").append(ansi.apply(renderParameterName(spec), styles));
                         } else {
-                            result = result.append("[" + sep).append(ansi.apply(renderParameterName(field), styles));
+                            result = result.append("[" + sep).append(ansi.apply(renderParameterName(spec), styles));
                         }
                         sep  = " ";
                     }
@@ -2912,17 +5823,12 @@ public class CommandLine {
                 }
                 return result;
             }
-            private String renderParameterName(Field field) {
-                String result = null;
-                if (field.isAnnotationPresent(Option.class)) {
-                    result = field.getAnnotation(Option.class).paramLabel();
-                } else if (field.isAnnotationPresent(Parameters.class)) {
-                    result = field.getAnnotation(Parameters.class).paramLabel();
-                }
-                if (result != null && result.trim().length() > 0) {
+            private String renderParameterName(ArgSpec spec) {
+                String result = spec.paramLabel;
+                if (result.trim().length() > 0) {
                     return result.trim();
                 }
-                return "<" + field.getName() + ">";
+                return "<" + spec.field.getName() + ">";
             }
         }
         /** Use a Layout to format usage help text for options and parameters in tabular format.
@@ -2939,6 +5845,7 @@ public class CommandLine {
             protected final TextTable table;
             protected IOptionRenderer optionRenderer;
             protected IParameterRenderer parameterRenderer;
+            Map<Field, ArgSpec> specs = Collections.emptyMap(); // the specifications of the command, if known
 
             /** Constructs a Layout with the specified color scheme, a new default TextTable, the
              * {@linkplain Help#createDefaultOptionRenderer() default option renderer}, and the
@@ -2983,8 +5890,7 @@ public class CommandLine {
              * @param paramLabelRenderer object that knows how to render option parameters */
             public void addOptions(List<Field> fields, IParamLabelRenderer paramLabelRenderer) {
                 for (Field field : fields) {
-                    Option option = field.getAnnotation(Option.class);
-                    if (!option.hidden()) {
+                    if (!ArgSpec.forField(field, specs).hidden) {
                         addOption(field, paramLabelRenderer);
                     }
                 }
@@ -2997,7 +5903,7 @@ public class CommandLine {
              * @param paramLabelRenderer knows how to render option parameters
              */
             public void addOption(Field field, IParamLabelRenderer paramLabelRenderer) {
-                Option option = field.getAnnotation(Option.class);
+                Option option = ArgSpec.forField(field, specs).option;
                 Text[][] values = optionRenderer.render(option, field, paramLabelRenderer, colorScheme);
                 layout(field, values);
             }
@@ -3006,8 +5912,7 @@ public class CommandLine {
              * @param paramLabelRenderer knows how to render option parameters */
             public void addPositionalParameters(List<Field> fields, IParamLabelRenderer paramLabelRenderer) {
                 for (Field field : fields) {
-                    Parameters parameters = field.getAnnotation(Parameters.class);
-                    if (!parameters.hidden()) {
+                    if (!ArgSpec.forField(field, specs).hidden) {
                         addPositionalParameter(field, paramLabelRenderer);
                     }
                 }
@@ -3020,7 +5925,7 @@ public class CommandLine {
              * @param paramLabelRenderer knows how to render option parameters
              */
             public void addPositionalParameter(Field field, IParamLabelRenderer paramLabelRenderer) {
-                Parameters option = field.getAnnotation(Parameters.class);
+                Parameters option = ArgSpec.forField(field, specs).parameters;
                 Text[][] values = parameterRenderer.render(option, field, paramLabelRenderer, colorScheme);
                 layout(field, values);
             }
@@ -3043,30 +5948,38 @@ public class CommandLine {
         /** Sorts {@code Option} instances by their name in case-insensitive alphabetic order. If an Option has
          * multiple names, the shortest name is used for the sorting. Help options follow non-help options. */
         static class SortByShortestOptionNameAlphabetically implements Comparator<Field> {
+            final Map<Field, ArgSpec> specs;
+            SortByShortestOptionNameAlphabetically() { this(Collections.<Field, ArgSpec>emptyMap()); }
+            /** Creates a comparator that looks up fields in the specified specifications of a command. */
+            SortByShortestOptionNameAlphabetically(Map<Field, ArgSpec> specs) { this.specs = specs; }
             public int compare(Field f1, Field f2) {
-                Option o1 = f1.getAnnotation(Option.class);
-                Option o2 = f2.getAnnotation(Option.class);
-                if (o1 == null) { return 1; } else if (o2 == null) { return -1; } // options before params
-                String[] names1 = ShortestFirst.sort(o1.names());
-                String[] names2 = ShortestFirst.sort(o2.names());
-                int result = names1[0].toUpperCase().compareTo(names2[0].toUpperCase()); // case insensitive sort
-                result = result == 0 ? -names1[0].compareTo(names2[0]) : result; // lower case before upper case
-                return o1.help() == o2.help() ? result : o2.help() ? -1 : 1; // help options come last
+                ArgSpec s1 = ArgSpec.forField(f1, specs);
+                ArgSpec s2 = ArgSpec.forField(f2, specs);
+                if (!s1.isOption()) { return 1; } else if (!s2.isOption()) { return -1; } // options before params
+                String name1 = s1.shortestName;
+                String name2 = s2.shortestName;
+                int result = name1.toUpperCase().compareTo(name2.toUpperCase()); // case insensitive sort
+                result = result == 0 ? -name1.compareTo(name2) : result; // lower case before upper case
+                return s1.help == s2.help ? result : s2.help ? -1 : 1; // help options come last
             }
         }
         /** Sorts {@code Option} instances by their max arity first, then their min arity, then delegates to super class. */
         static class SortByOptionArityAndNameAlphabetically extends SortByShortestOptionNameAlphabetically {
+            SortByOptionArityAndNameAlphabetically() { super(); }
+            SortByOptionArityAndNameAlphabetically(Map<Field, ArgSpec> specs) { super(specs); }
             public int compare(Field f1, Field f2) {
-                Option o1 = f1.getAnnotation(Option.class);
-                Option o2 = f2.getAnnotation(Option.class);
-                Range arity1 = Range.optionArity(f1);
-                Range arity2 = Range.optionArity(f2);
+                Range arity1 = optionArity(f1);
+                Range arity2 = optionArity(f2);
                 int result = arity1.max - arity2.max;
                 if (result == 0) {
                     result = arity1.min - arity2.min;
                 }
                 return result == 0 ? super.compare(f1, f2) : result;
             }
+            private Range optionArity(Field field) {
+                ArgSpec spec = ArgSpec.forField(field, specs);
+                return spec.isOption() ? spec.arity : new Range(0, 0, false, true, "0");
+            }
         }
         /**
          * <p>Responsible for spacing out {@link Text} values according to the {@link Column} definitions the table was
@@ -3783,7 +6696,7 @@ public class CommandLine {
     /**
      * Utility class providing some defensive coding convenience methods.
      */
-    private static final class Assert {
+    static final class Assert {
         /**
          * Throws a NullPointerException if the specified object is null.
          * @param object the object to verify
@@ -3814,7 +6727,7 @@ public class CommandLine {
         }
 
         private static ParameterException create(Exception ex, String arg, int i, String[] args) {
-            String next = args.length < i + 1 ? "" : " " + args[i + 1];
+            String next = i < 0 || i + 1 >= args.length ? "" : " " + args[i + 1];
             String msg = ex.getClass().getSimpleName() + ": " + ex.getLocalizedMessage()
                     + " while processing option[" + i + "] '" + arg + next + "': " + ex.toString();
             return new ParameterException(msg, ex);
@@ -3870,6 +6783,9 @@ public class CommandLine {
         public UnmatchedArgumentException(Stack<String> args) {
             this("Unmatched argument" + (args.size() == 1 ? " " : "s ") + reverse(args));
         }
+        private static UnmatchedArgumentException create(List<String> args) {
+            return new UnmatchedArgumentException("Unmatched argument" + (args.size() == 1 ? " " : "s ") + args);
+        }
     }
     /** Exception indicating that an option for a single-value field has been specified multiple times on the command line. */
     public static class OverwrittenOptionException extends ParameterException {
@@ -0,0 +1,553 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Help;
+import picocli.CommandLine.ParameterException;
+
+/**
+ * Hosts command classes in a long-running JVM and runs the command lines that clients send to it over a loopback
+ * socket, so that scripts can invoke a command many times without paying the startup cost of a new JVM for each
+ * invocation.
+ * <p>
+ * Each request is run on the executor of the daemon, with a new instance of the command class and a new
+ * {@code CommandLine}, so concurrent requests do not share state. The annotation model of each command class is
+ * built once and shared by all requests. While a request runs, {@code System.out} and {@code System.err} of the
+ * request thread are sent to the client, and the client's environment and working directory are available from
+ * {@link #currentRequest()}.
+ * </p><p>
+ * The daemon only accepts connections on the loopback interface, and only runs requests that start with the
+ * {@linkplain #getToken() token} of the daemon. Clients can use {@link #send(int, String, String, String...)}, or
+ * implement the protocol below. All integers are big-endian, and strings are written as the length of their UTF-8
+ * encoding (an {@code int}) followed by the UTF-8 bytes.
+ * </p>
+ * <pre>
+ * request:  token, command name, working directory, int n, n x (name, value) environment variables, int m, m x argument
+ * response: any number of frames, ending with an exit frame
+ *   frame:  byte 1 (stdout) or 2 (stderr), int length, length bytes
+ *   exit:   byte 0, int exit code
+ * </pre>
+ * <p>
+ * The exit code is {@value #EXIT_OK} if the command completed, {@value #EXIT_FAILED} if it threw an exception, and
+ * {@value #EXIT_INVALID_INPUT} if the command line was invalid or named an unknown command. A {@code Callable}
+ * command that returns an {@code Integer} determines the exit code itself.
+ * </p><p>
+ * Commands run in the JVM of the daemon: a command that calls {@code System.exit} terminates the daemon and all
+ * requests that are running. Argument files ({@code @file} arguments) are not expanded, since they would be resolved
+ * against the working directory of the daemon rather than that of the client; commands should resolve relative
+ * paths against {@link Request#workingDirectory()}.
+ * </p>
+ * @since 1.0.0
+ */
+public class Daemon implements Closeable {
+    /** Exit code of a command that completed normally. */
+    public static final int EXIT_OK = 0;
+    /** Exit code of a command that threw an exception. */
+    public static final int EXIT_FAILED = 1;
+    /** Exit code of an invalid command line, or a request for an unknown command. */
+    public static final int EXIT_INVALID_INPUT = 2;
+
+    private static final int STDOUT = 1;
+    private static final int STDERR = 2;
+    private static final int EXIT = 0;
+    private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+    /** Number of threads of the executor that a daemon creates if no executor is specified. */
+    static final int DEFAULT_THREADS = 16;
+    /** Number of accepted connections that wait for a thread of the default executor; more connections are closed. */
+    static final int DEFAULT_QUEUED_REQUESTS = 64;
+    /** Milliseconds that a client may take to send a request before the connection is closed. */
+    static final int DEFAULT_REQUEST_TIMEOUT = 10000;
+    private static final String UTF8 = "UTF-8";
+
+    private static final ThreadLocal<Request> CURRENT = new ThreadLocal<Request>();
+    private static ThreadOutput systemOut; // installed while at least one daemon is running
+    private static ThreadOutput systemErr;
+    private static int running;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final String token = UUID.randomUUID().toString();
+    private final Map<String, Class<?>> commands = new ConcurrentHashMap<String, Class<?>>();
+    private Thread acceptor;
+    private volatile boolean closed;
+    private volatile int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+    /**
+     * Constructs a daemon that listens on the specified port of the loopback interface, and runs requests on a pool
+     * of {@value #DEFAULT_THREADS} daemon threads. Up to {@value #DEFAULT_QUEUED_REQUESTS} further connections wait
+     * for a thread; connections beyond that are closed without running a command. The daemon does not accept
+     * connections until it is {@linkplain #start() started}.
+     * @param port the port to listen on, or {@code 0} for any free port
+     * @throws IOException if the port could not be opened
+     */
+    public Daemon(int port) throws IOException {
+        this(port, new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(DEFAULT_QUEUED_REQUESTS),
+                CommandLine.daemonThreadFactory("picocli-daemon-")), true);
+    }
+
+    /**
+     * Constructs a daemon that listens on the specified port of the loopback interface, and runs requests on the
+     * specified executor. The executor is not shut down when the daemon is closed.
+     * @param port the port to listen on, or {@code 0} for any free port
+     * @param executor the executor to run requests on
+     * @throws IOException if the port could not be opened
+     */
+    public Daemon(int port, ExecutorService executor) throws IOException {
+        this(port, CommandLine.Assert.notNull(executor, "executor"), false);
+    }
+
+    private Daemon(int port, ExecutorService executor, boolean ownExecutor) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Registers the specified command class under the name in its {@link Command#name() @Command(name = "...")}
+     * annotation.
+     * @param commandClass a class with a no-argument constructor and {@code @Command}, {@code @Option} or
+     *          {@code @Parameters} annotations
+     * @return this daemon, to allow method chaining
+     * @throws IllegalArgumentException if the class has no command name, is not a command, or cannot be instantiated
+     */
+    public Daemon register(Class<?> commandClass) {
+        Command command = commandClass.getAnnotation(Command.class);
+        if (command == null || Help.DEFAULT_COMMAND_NAME.equals(command.name())) {
+            throw new IllegalArgumentException(commandClass.getName() + " has no @Command(name = \"...\") annotation");
+        }
+        return register(command.name(), commandClass);
+    }
+
+    /**
+     * Registers the specified command class under the specified name. The class is instantiated once to validate its
+     * annotations, and then once for every request.
+     * @param name the name that clients use to run the command
+     * @param commandClass a class with a no-argument constructor and {@code @Command}, {@code @Option} or
+     *          {@code @Parameters} annotations
+     * @return this daemon, to allow method chaining
+     * @throws IllegalArgumentException if the class is not a command, or cannot be instantiated
+     */
+    public Daemon register(String name, Class<?> commandClass) {
+        new CommandLine(instantiate(commandClass)); // validate the annotations and build the shared model
+        commands.put(CommandLine.Assert.notNull(name, "name"), commandClass);
+        return this;
+    }
+
+    /** Returns the names of the registered commands.
+     * @return an unmodifiable view of the registered command names */
+    public Set<String> getCommandNames() {
+        return Collections.unmodifiableSet(commands.keySet());
+    }
+
+    /** Returns the port that this daemon listens on.
+     * @return the local port of the server socket */
+    public int getPort() { return serverSocket.getLocalPort(); }
+
+    /** Returns the secret that clients must send with each request. A new token is generated for each daemon; the
+     * application that starts the daemon is responsible for passing it to clients, for example in a file that only
+     * the current user can read.
+     * @return the token of this daemon */
+    public String getToken() { return token; }
+
+    /**
+     * Starts accepting connections on a background thread.
+     * @return this daemon, to allow method chaining
+     * @throws IllegalStateException if this daemon was already started or closed
+     */
+    public synchronized Daemon start() {
+        if (acceptor != null || closed) { throw new IllegalStateException("Daemon was already started"); }
+        installSystemStreams();
+        acceptor = new Thread(new Runnable() {
+            public void run() { acceptConnections(); }
+        }, "picocli-daemon-acceptor-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    /** Stops accepting connections. Requests that are running are not interrupted. If this daemon created its own
+     * executor, the executor is shut down. */
+    public synchronized void close() {
+        if (closed) { return; }
+        closed = true;
+        try { serverSocket.close(); } catch (IOException ignored) { }
+        if (ownExecutor) { executor.shutdown(); }
+        if (acceptor != null) { uninstallSystemStreams(); }
+    }
+
+    /** Sets the time that a client may take to send its request; slower clients are disconnected. This bounds how
+     * long a connection that does not send a request can occupy a thread. It does not limit how long commands run.
+     * The default is {@value #DEFAULT_REQUEST_TIMEOUT} milliseconds. */
+    Daemon requestTimeout(int millis) {
+        this.requestTimeout = millis;
+        return this;
+    }
+
+    /** Returns the request that is being run by the current thread.
+     * @return the current request, or {@code null} if the current thread is not running a daemon request */
+    public static Request currentRequest() { return CURRENT.get(); }
+
+    private void acceptConnections() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException ex) {
+                if (closed) { return; }
+                continue; // for example, too many open files: keep serving
+            }
+            try {
+                executor.submit(new Runnable() {
+                    public void run() { serve(socket); }
+                });
+            } catch (RuntimeException ex) { // rejected: the executor was shut down
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(requestTimeout);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte[] expected = token.getBytes(UTF8);
+            if (!MessageDigest.isEqual(expected, readBytes(in, expected.length))) { // read no more than a valid token
+                return; // not a client of this daemon
+            }
+            String name = readString(in);
+            File directory = new File(readString(in));
+            Map<String, String> environment = new LinkedHashMap<String, String>();
+            for (int i = readCount(in); i > 0; i--) {
+                environment.put(readString(in), readString(in));
+            }
+            String[] args = new String[readCount(in)];
+            for (int i = 0; i < args.length; i++) { args[i] = readString(in); }
+
+            PrintStream stdout = new PrintStream(new FrameOutputStream(out, STDOUT), true, UTF8);
+            PrintStream stderr = new PrintStream(new FrameOutputStream(out, STDERR), true, UTF8);
+            Request request = new Request(name, args, Collections.unmodifiableMap(environment), directory, stdout, stderr);
+            int exitCode = run(request);
+            stdout.flush();
+            stderr.flush();
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(exitCode);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // the client disconnected or sent a malformed request: nothing to report it to
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private int run(Request request) {
+        Class<?> commandClass = commands.get(request.command);
+        if (commandClass == null) {
+            request.err.println("Unknown command: " + request.command);
+            return EXIT_INVALID_INPUT;
+        }
+        CURRENT.set(request);
+        redirect(request.out, request.err);
+        try {
+            CommandLine commandLine = new CommandLine(instantiate(commandClass)).setExpandAtFiles(false);
+            List<CommandLine> parsed;
+            try {
+                parsed = commandLine.parse(request.args);
+            } catch (ParameterException ex) {
+                request.err.println(ex.getMessage());
+                commandLine.usage(request.err, Help.Ansi.OFF);
+                return EXIT_INVALID_INPUT;
+            }
+            for (CommandLine cmd : parsed) {
+                if (cmd.isUsageHelpRequested()) {
+                    cmd.usage(request.out, Help.Ansi.OFF);
+                    return EXIT_OK;
+                }
+                if (cmd.isVersionHelpRequested()) {
+                    cmd.printVersionHelp(request.out, Help.Ansi.OFF);
+                    return EXIT_OK;
+                }
+            }
+            Object command = parsed.get(parsed.size() - 1).getCommand();
+            if (command instanceof Runnable) {
+                ((Runnable) command).run();
+            } else if (command instanceof Callable) {
+                Object result = ((Callable<?>) command).call();
+                if (result instanceof Integer) { return (Integer) result; }
+                if (result != null) { request.out.println(result); }
+            } else {
+                request.err.println(command.getClass().getName() + " does not implement Runnable or Callable");
+                return EXIT_FAILED;
+            }
+            return EXIT_OK;
+        } catch (Exception ex) {
+            ex.printStackTrace(request.err);
+            return EXIT_FAILED;
+        } finally {
+            redirect(null, null);
+            CURRENT.remove();
+        }
+    }
+
+    private static Object instantiate(Class<?> commandClass) {
+        try {
+            Constructor<?> constructor = commandClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException("Cannot instantiate " + commandClass.getName() + ": the class has no constructor", ex);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Could not instantiate " + commandClass.getName() + ": " + ex, ex);
+        }
+    }
+
+    /**
+     * Runs a command in the daemon listening on the specified port, with the environment and working directory of
+     * this process, and copies the output of the command to {@code System.out} and {@code System.err}.
+     * @param port the port of the daemon
+     * @param token the {@linkplain #getToken() token} of the daemon
+     * @param command the name of the registered command to run
+     * @param args the command line arguments of the command
+     * @return the exit code of the command
+     * @throws IOException if the daemon could not be reached, or closed the connection before the command completed
+     */
+    public static int send(int port, String token, String command, String... args) throws IOException {
+        return send(port, token, command, args, System.getenv(), new File(System.getProperty("user.dir")), System.out, System.err);
+    }
+
+    /**
+     * Runs a command in the daemon listening on the specified port, and copies the output of the command to the
+     * specified streams while the command runs.
+     * @param port the port of the daemon
+     * @param token the {@linkplain #getToken() token} of the daemon
+     * @param command the name of the registered command to run
+     * @param args the command line arguments of the command
+     * @param environment the environment variables to send to the command
+     * @param directory the working directory to send to the command
+     * @param out the stream to copy the standard output of the command to
+     * @param err the stream to copy the standard error of the command to
+     * @return the exit code of the command
+     * @throws IOException if the daemon could not be reached, or closed the connection before the command completed
+     */
+    public static int send(int port, String token, String command, String[] args, Map<String, String> environment,
+                           File directory, OutputStream out, OutputStream err) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(null), port);
+        try {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writeString(request, token);
+            writeString(request, command);
+            writeString(request, directory.getAbsolutePath());
+            request.writeInt(environment.size());
+            for (Map.Entry<String, String> entry : environment.entrySet()) {
+                writeString(request, entry.getKey());
+                writeString(request, entry.getValue());
+            }
+            request.writeInt(args.length);
+            for (String arg : args) { writeString(request, arg); }
+            request.flush();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] buffer = new byte[8192];
+            while (true) {
+                int type;
+                try {
+                    type = response.readByte();
+                } catch (EOFException ex) {
+                    throw new IOException("Daemon closed the connection before " + command + " completed");
+                }
+                if (type == EXIT) { return response.readInt(); }
+                OutputStream target = type == STDOUT ? out : err;
+                for (int remaining = response.readInt(); remaining > 0; ) {
+                    int count = response.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (count < 0) { throw new EOFException(); }
+                    target.write(buffer, 0, count);
+                    remaining -= count;
+                }
+                target.flush();
+            }
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in, MAX_STRING_LENGTH), UTF8);
+    }
+
+    private static byte[] readBytes(DataInputStream in, int max) throws IOException {
+        byte[] result = new byte[readLength(in, max)];
+        in.readFully(result);
+        return result;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        return readLength(in, Short.MAX_VALUE);
+    }
+
+    private static int readLength(DataInputStream in, int max) throws IOException {
+        int result = in.readInt();
+        if (result < 0 || result > max) { throw new IOException("Invalid length " + result); }
+        return result;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try { socket.close(); } catch (IOException ignored) { }
+    }
+
+    private static synchronized void installSystemStreams() {
+        if (running++ == 0) {
+            systemOut = new ThreadOutput(System.out);
+            systemErr = new ThreadOutput(System.err);
+            System.setOut(new PrintStream(systemOut, true));
+            System.setErr(new PrintStream(systemErr, true));
+        }
+    }
+
+    private static synchronized void uninstallSystemStreams() {
+        if (--running == 0) {
+            System.setOut(systemOut.original);
+            System.setErr(systemErr.original);
+            systemOut = systemErr = null;
+        }
+    }
+
+    private static synchronized void redirect(PrintStream out, PrintStream err) {
+        if (systemOut != null) {
+            systemOut.target.set(out);
+            systemErr.target.set(err);
+        }
+    }
+
+    /**
+     * A command line sent by a client: the command name and arguments, the client's environment and working
+     * directory, and the streams that send output back to the client.
+     */
+    public static final class Request {
+        private final String command;
+        private final String[] args;
+        private final Map<String, String> environment;
+        private final File workingDirectory;
+        private final PrintStream out;
+        private final PrintStream err;
+
+        private Request(String command, String[] args, Map<String, String> environment, File workingDirectory,
+                        PrintStream out, PrintStream err) {
+            this.command = command;
+            this.args = args;
+            this.environment = environment;
+            this.workingDirectory = workingDirectory;
+            this.out = out;
+            this.err = err;
+        }
+        /** Returns the name of the command that the client requested.
+         * @return the registered command name */
+        public String command() { return command; }
+        /** Returns a copy of the command line arguments that the client sent.
+         * @return the arguments of the command */
+        public String[] args() { return args.clone(); }
+        /** Returns the environment variables of the client.
+         * @return an unmodifiable map of environment variable names to values */
+        public Map<String, String> environment() { return environment; }
+        /** Returns the working directory of the client. Relative paths on the command line should be resolved
+         * against this directory, not against the working directory of the daemon.
+         * @return the absolute working directory of the client */
+        public File workingDirectory() { return workingDirectory; }
+        /** Returns the stream that sends standard output to the client.
+         * @return the standard output of the request */
+        public PrintStream out() { return out; }
+        /** Returns the stream that sends standard error to the client.
+         * @return the standard error of the request */
+        public PrintStream err() { return err; }
+    }
+
+    /** Writes each chunk of output as a frame to the response, interleaved with the frames of the other stream. */
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream response;
+        private final int type;
+
+        FrameOutputStream(DataOutputStream response, int type) {
+            this.response = response;
+            this.type = type;
+        }
+        public void write(int b) throws IOException { write(new byte[] {(byte) b}, 0, 1); }
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) { return; }
+            synchronized (response) {
+                response.writeByte(type);
+                response.writeInt(length);
+                response.write(bytes, offset, length);
+            }
+        }
+        public void flush() throws IOException {
+            synchronized (response) { response.flush(); }
+        }
+    }
+
+    /** Replaces {@code System.out} or {@code System.err}: sends output of request threads to their client, and
+     * output of all other threads to the original stream. */
+    private static final class ThreadOutput extends OutputStream {
+        private final PrintStream original;
+        private final ThreadLocal<PrintStream> target = new ThreadLocal<PrintStream>();
+
+        ThreadOutput(PrintStream original) { this.original = original; }
+        private PrintStream stream() {
+            PrintStream result = target.get();
+            return result == null ? original : result;
+        }
+        public void write(int b) { stream().write(b); }
+        public void write(byte[] bytes, int offset, int length) { stream().write(bytes, offset, length); }
+        public void flush() { stream().flush(); }
+    }
+}
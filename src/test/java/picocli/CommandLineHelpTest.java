@@ -1630,4 +1630,31 @@ public class CommandLineHelpTest {
                 "\u001B[34mBuild 12345\u001B[39m\u001B[0m%n" +
                 "\u001B[31m\u001B[47m(c) 2017\u001B[49m\u001B[39m\u001B[0m%n"), result);
     }
+
+    static class PositionalBase {
+        @Parameters(index = "1", paramLabel = "SECOND") String second;
+    }
+    static class PositionalSub extends PositionalBase {
+        @Parameters(index = "0", paramLabel = "FIRST") String first;
+        @Option(names = "-v", description = "verbose") boolean verbose;
+    }
+    @Test
+    public void testUsageHelpWithPositionalIndexSplitAcrossClassHierarchy() throws Exception {
+        // the superclass on its own has a gap at index 0; only the subclass model is valid
+        String result = usageString(new PositionalSub(), Help.Ansi.OFF);
+        assertEquals(String.format("" +
+                "Usage: <main class> [-v] FIRST SECOND%n" +
+                "      FIRST%n" +
+                "      SECOND%n" +
+                "  -v                          verbose%n"), result);
+    }
+    @Test
+    public void testDefaultLayoutLooksUpFieldsInTheModelOfTheHelp() throws Exception {
+        Help help = new Help(new PositionalSub());
+        Field second = PositionalBase.class.getDeclaredField("second");
+        Help.Layout layout = help.createDefaultLayout();
+        assertTrue(layout.specs.containsKey(second)); // not resolved again for the declaring superclass
+        assertEquals(1, layout.specs.get(second).index.min);
+        assertTrue(new Help.Layout(Help.defaultColorScheme(Help.Ansi.OFF)).specs.isEmpty());
+    }
 }
@@ -20,8 +20,11 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.InetAddress;
@@ -39,17 +42,26 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.Stack;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import static java.util.concurrent.TimeUnit.*;
@@ -218,13 +230,16 @@ public class CommandLineTest {
         assertEquals("UUID", UUID.fromString("c7d51423-bf9d-45dd-a30d-5b16fafe42e2"), bean.anUUIDField);
     }
     @Test
-    public void testByteFieldsAreDecimal() {
+    public void testByteFieldsAcceptRadixPrefixes() {
+        SupportedTypes bean = CommandLine.populateCommand(new SupportedTypes(), "-byte", "0x1F", "-Byte", "0b1111");
+        assertEquals(0x1F, bean.byteField);
+        assertEquals(Byte.valueOf((byte) 0x0F), bean.aByteField);
         try {
-            CommandLine.populateCommand(new SupportedTypes(), "-byte", "0x1F", "-Byte", "0x0F");
-            fail("Should fail on hex input");
+            CommandLine.populateCommand(new SupportedTypes(), "-byte", "0x80");
+            fail("Should fail on out of range input");
         } catch (ParameterException expected) {
-            assertEquals("Could not convert '0x1F' to byte for option '-byte'" +
-                    ": java.lang.NumberFormatException: For input string: \"0x1F\"", expected.getMessage());
+            assertEquals("Could not convert '0x80' to byte for option '-byte'" +
+                    ": java.lang.NumberFormatException: For input string: \"0x80\" (out of range -128..127)", expected.getMessage());
         }
     }
     @Test
@@ -251,13 +266,16 @@ public class CommandLineTest {
         assertEquals(Byte.valueOf((byte) 34), bean.aByteField);
     }
     @Test
-    public void testShortFieldsAreDecimal() {
+    public void testShortFieldsAcceptRadixPrefixes() {
+        SupportedTypes bean = CommandLine.populateCommand(new SupportedTypes(), "-short", "0xFF", "-Short", "0x6FFE");
+        assertEquals(0xFF, bean.shortField);
+        assertEquals(Short.valueOf((short) 0x6FFE), bean.aShortField);
         try {
-            CommandLine.populateCommand(new SupportedTypes(), "-short", "0xFF", "-Short", "0x6FFE");
-            fail("Should fail on hex input");
+            CommandLine.populateCommand(new SupportedTypes(), "-short", "0xFFFF");
+            fail("Should fail on out of range input");
         } catch (ParameterException expected) {
-            assertEquals("Could not convert '0xFF' to short for option '-short'" +
-                    ": java.lang.NumberFormatException: For input string: \"0xFF\"", expected.getMessage());
+            assertEquals("Could not convert '0xFFFF' to short for option '-short'" +
+                    ": java.lang.NumberFormatException: For input string: \"0xFFFF\" (out of range -32768..32767)", expected.getMessage());
         }
     }
     @Test
@@ -284,13 +302,16 @@ public class CommandLineTest {
         assertEquals(Short.valueOf((short) 34), bean.aShortField);
     }
     @Test
-    public void testIntFieldsAreDecimal() {
+    public void testIntFieldsAcceptRadixPrefixes() {
+        SupportedTypes bean = CommandLine.populateCommand(new SupportedTypes(), "-int", "0xFF", "-Integer", "0o17");
+        assertEquals(255, bean.intField);
+        assertEquals(Integer.valueOf(15), bean.anIntegerField);
         try {
-            CommandLine.populateCommand(new SupportedTypes(), "-int", "0xFF", "-Integer", "0xFFFF");
-            fail("Should fail on hex input");
+            CommandLine.populateCommand(new SupportedTypes(), "-int", "0xFFQ");
+            fail("Should fail on invalid hex input");
         } catch (ParameterException expected) {
-            assertEquals("Could not convert '0xFF' to int for option '-int'" +
-                    ": java.lang.NumberFormatException: For input string: \"0xFF\"", expected.getMessage());
+            assertEquals("Could not convert '0xFFQ' to int for option '-int'" +
+                    ": java.lang.NumberFormatException: For input string: \"0xFFQ\"", expected.getMessage());
         }
     }
     @Test
@@ -317,13 +338,17 @@ public class CommandLineTest {
         assertEquals(Integer.valueOf(34), bean.anIntegerField);
     }
     @Test
-    public void testLongFieldsAreDecimal() {
+    public void testLongFieldsAcceptRadixPrefixes() {
+        SupportedTypes bean = CommandLine.populateCommand(new SupportedTypes(), "-long", "0xAABBCC", "-Long", "0xAABBCCDD");
+        assertEquals(0xAABBCC, bean.longField);
+        assertEquals(Long.valueOf(0xAABBCCDDL), bean.aLongField);
         try {
-            CommandLine.populateCommand(new SupportedTypes(), "-long", "0xAABBCC", "-Long", "0xAABBCCDD");
-            fail("Should fail on hex input");
+            CommandLine.populateCommand(new SupportedTypes(), "-long", "0x8000000000000000");
+            fail("Should fail on out of range input");
         } catch (ParameterException expected) {
-            assertEquals("Could not convert '0xAABBCC' to long for option '-long'" +
-                    ": java.lang.NumberFormatException: For input string: \"0xAABBCC\"", expected.getMessage());
+            assertEquals("Could not convert '0x8000000000000000' to long for option '-long'" +
+                    ": java.lang.NumberFormatException: For input string: \"0x8000000000000000\"" +
+                    " (out of range -9223372036854775808..9223372036854775807)", expected.getMessage());
         }
     }
     @Test
@@ -425,7 +450,7 @@ public class CommandLineTest {
             CommandLine.populateCommand(new SupportedTypes(), "-Date", "20170131");
             fail("Invalid format was accepted");
         } catch (ParameterException expected) {
-            assertEquals("'20170131' is not a yyyy-MM-dd date for option '-Date'", expected.getMessage());
+            assertEquals("'20170131' is not an ISO-8601 date for option '-Date'", expected.getMessage());
         }
     }
     @Test
@@ -546,10 +571,10 @@ public class CommandLineTest {
                     ": java.lang.IllegalArgumentException: No enum constant java.util.concurrent.TimeUnit.xyz", ex.getMessage());
         }
     }
-    @Ignore("Requires #14 case-insensitive enum parsing")
     @Test
     public void testEnumTypeConversionIsCaseInsensitive() {
-        EnumParams params = CommandLine.populateCommand(new EnumParams(),
+        EnumParams params = new EnumParams();
+        new CommandLine(params).setCaseInsensitiveEnumValuesAllowed(true).parse(
                 "-timeUnit daYS -timeUnitArray hours miNutEs -timeUnitList SEConds MiCROsEconds nanoSEConds".split(" "));
         assertEquals(DAYS, params.timeUnit);
         assertArrayEquals(new TimeUnit[]{HOURS, TimeUnit.MINUTES}, params.timeUnitArray);
@@ -2619,14 +2644,21 @@ public class CommandLineTest {
         commandLine.parse("cmd1", "sub12", "-e", "TXT");
     }
 
-    @Test(expected = MissingTypeConverterException.class)
+    @Test
     public void testCustomTypeConverterRegisteredBeforeSubcommandsAdded() {
         @Command class TopLevel {}
         CommandLine commandLine = new CommandLine(new TopLevel());
         commandLine.registerConverter(CustomType.class, new CustomType(null));
 
         commandLine.addSubcommand("main", createNestedCommand());
-        commandLine.parse("main", "cmd1", "sub12", "-e", "TXT");
+        List<CommandLine> parsed = commandLine.parse("main", "cmd1", "sub12", "-e", "TXT");
+        assertEquals(4, parsed.size());
+        assertEquals("TXT", ((GrandChild1Command2) parsed.get(3).getCommand()).e.val);
+    }
+
+    @Test(expected = MissingTypeConverterException.class)
+    public void testCustomTypeConverterNotAvailableToDetachedCommand() {
+        createNestedCommand().parse("cmd1", "sub12", "-e", "TXT");
     }
 
     @Test
@@ -2913,4 +2945,1715 @@ public class CommandLineTest {
             assertEquals("Subcommand picocli.CommandLineTest$1MissingNameAttribute is missing the mandatory @Command annotation with a 'name' attribute", ex.getMessage());
         }
     }
+    @Test
+    public void testCommandModelIsBuiltOncePerClass() {
+        class App {
+            @Option(names = "-v") boolean verbose;
+            @Parameters File[] files;
+        }
+        // the cached model is only softly referenced by the cache; holding it in a local variable until the last
+        // assertion keeps it strongly reachable, so the garbage collector cannot clear it during this test
+        CommandModel model = CommandModel.forClass(App.class);
+        assertSame(model, CommandModel.forClass(App.class));
+
+        App first = new App();
+        App second = new App();
+        CommandLine firstCommandLine = new CommandLine(first);
+        CommandLine secondCommandLine = new CommandLine(second);
+        firstCommandLine.parse("-v", "a");
+        secondCommandLine.parse("b", "c");
+        new Help(new App());
+        assertSame(model, firstCommandLine.model()); // each CommandLine also holds on to the model it was created with
+        assertSame(model, secondCommandLine.model());
+        assertSame(model, CommandModel.forClass(App.class));
+
+        assertTrue(first.verbose);
+        assertArrayEquals(new File[] {new File("a")}, first.files);
+        assertFalse(second.verbose);
+        assertArrayEquals(new File[] {new File("b"), new File("c")}, second.files);
+    }
+
+    @Command(name = "reflective")
+    static class DescribedCommand {
+        @Option(names = "-r") String value;
+    }
+    /** Hand-written stand-in for the descriptor that the picocli-codegen annotation processor would generate. */
+    public static class DescribedCommand$$PicocliDescriptor implements ICommandDescriptor {
+        @Command(name = "described")
+        static class Template {
+            @Option(names = {"-d", "--described"}) String value;
+        }
+        public Command command() { return Template.class.getAnnotation(Command.class); }
+        public String[] fieldNames() { return new String[] {"value"}; }
+        public Option option(int fieldIndex) { return field().getAnnotation(Option.class); }
+        public Parameters parameters(int fieldIndex) { return null; }
+        static final List<String> accessed = new ArrayList<String>();
+        public boolean hasAccessor(int fieldIndex) { return true; }
+        public Object get(Object command, int fieldIndex) {
+            accessed.add("get");
+            return ((DescribedCommand) command).value;
+        }
+        public void set(Object command, int fieldIndex, Object value) {
+            accessed.add("set " + value);
+            ((DescribedCommand) command).value = (String) value;
+        }
+        private static Field field() {
+            try { return Template.class.getDeclaredField("value"); } catch (NoSuchFieldException ex) { throw new IllegalStateException(ex); }
+        }
+    }
+    @Test
+    public void testCommandModelUsesGeneratedDescriptorInsteadOfReflection() {
+        CommandModel model = CommandModel.forClass(DescribedCommand.class);
+        assertEquals(new HashSet<String>(Arrays.asList("-d", "--described")), model.optionName2Field.keySet());
+
+        DescribedCommand command = CommandLine.populateCommand(new DescribedCommand(), "--described", "abc");
+        assertEquals("abc", command.value);
+        try {
+            CommandLine.populateCommand(new DescribedCommand(), "-r", "abc");
+            fail("Expected exception: descriptor annotations take precedence");
+        } catch (UnmatchedArgumentException ok) {
+            assertEquals("Unmatched arguments [-r, abc]", ok.getMessage());
+        }
+    }
+    @Test
+    public void testBindingUsesGeneratedAccessor() {
+        DescribedCommand$$PicocliDescriptor.accessed.clear();
+        DescribedCommand command = CommandLine.populateCommand(new DescribedCommand(), "-d", "xyz");
+        assertEquals("xyz", command.value);
+        assertEquals(Arrays.asList("get", "set xyz"), DescribedCommand$$PicocliDescriptor.accessed); // get: initial value
+    }
+    @Test
+    public void testReflectiveAccessorPrimitiveSetters() throws Exception {
+        class App {
+            @Option(names = "-b") boolean bool;
+            @Option(names = "-i") int i;
+            @Option(names = "-l") long l;
+            @Option(names = "-I") Integer boxed;
+        }
+        CommandModel model = CommandModel.forClass(App.class);
+        App app = new App();
+        model.accessor(App.class.getDeclaredField("bool")).setBoolean(app, true);
+        model.accessor(App.class.getDeclaredField("i")).setInt(app, 123);
+        model.accessor(App.class.getDeclaredField("l")).setLong(app, 1L << 40);
+        model.accessor(App.class.getDeclaredField("boxed")).setInt(app, 7);
+        assertTrue(app.bool);
+        assertTrue(model.accessor(App.class.getDeclaredField("bool")).getBoolean(app));
+        assertEquals(123, app.i);
+        assertEquals(1L << 40, app.l);
+        assertEquals(Integer.valueOf(7), app.boxed);
+    }
+    @Test
+    public void testPrimitiveSingleValuesBoundThroughPrimitiveSetters() throws Exception {
+        class App {
+            @Option(names = "-b") boolean bool;
+            @Option(names = "-i") int i;
+            @Option(names = "-l") long l;
+            @Option(names = "-d") double d;
+        }
+        App app = CommandLine.populateCommand(new App(), "-b", "-i", "0x7f", "-l", "1_000", "-d", "1.5");
+        assertTrue(app.bool);
+        assertEquals(127, app.i);
+        assertEquals(1000L, app.l);
+        assertEquals(1.5, app.d, 0.0);
+        CommandLine.populateCommand(app, "-b", "-i", "2");
+        assertFalse(app.bool); // toggled back
+        assertEquals(2, app.i);
+    }
+    @Command(name = "lazy1", header = "first lazy subcommand")
+    static class LazySub1 {
+        static int instances;
+        LazySub1() { instances++; }
+    }
+    @Command(name = "lazy2", header = "second lazy subcommand")
+    static class LazySub2 {
+        static int instances;
+        @Option(names = "-x") int x;
+        LazySub2() { instances++; }
+    }
+    @Command(subcommands = {LazySub1.class, LazySub2.class})
+    static class LazyTop {}
+    @Test
+    public void testDeclaredSubcommandsAreInstantiatedWhenFirstUsed() throws Exception {
+        LazySub1.instances = 0;
+        LazySub2.instances = 0;
+        CommandLine commandLine = new CommandLine(new LazyTop());
+        assertEquals(Arrays.asList("lazy1", "lazy2"), new ArrayList<String>(commandLine.getSubcommands().keySet()));
+        assertSame(commandLine, commandLine.getSubcommands().get("lazy1").getParent());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        commandLine.usage(new PrintStream(baos, true, "UTF8"), Help.Ansi.OFF);
+        String usage = baos.toString("UTF8");
+        assertTrue(usage, usage.contains("lazy1  first lazy subcommand"));
+        assertTrue(usage, usage.contains("lazy2  second lazy subcommand"));
+        assertEquals(0, LazySub1.instances);
+        assertEquals(0, LazySub2.instances);
+
+        List<CommandLine> parsed = commandLine.parse("lazy2", "-x", "3");
+        assertEquals(2, parsed.size());
+        assertEquals(3, ((LazySub2) parsed.get(1).getCommand()).x);
+        assertEquals(0, LazySub1.instances);
+        assertEquals(1, LazySub2.instances);
+
+        assertTrue(commandLine.getSubcommands().get("lazy1").getCommand() instanceof LazySub1);
+        assertEquals(1, LazySub1.instances);
+    }
+    @Test
+    public void testLazySubcommandInheritsSettingsAndConverters() {
+        CommandLine commandLine = new CommandLine(new LazyTop());
+        commandLine.setOverwrittenOptionsAllowed(true);
+        commandLine.registerConverter(int.class, new ITypeConverter<Integer>() {
+            public Integer convert(String value) { return Integer.parseInt(value) * 10; }
+        });
+        List<CommandLine> parsed = commandLine.parse("lazy2", "-x", "1", "-x", "2");
+        assertTrue(parsed.get(1).isOverwrittenOptionsAllowed());
+        assertEquals(20, ((LazySub2) parsed.get(1).getCommand()).x);
+    }
+    @Test
+    public void testConverterRegisteredOnParentIsAvailableToSubcommandsAddedLater() {
+        class Sub { @Option(names = "-x") int x; }
+        class Grandchild { @Option(names = "-y") int y; }
+        @Command class Top {}
+        ITypeConverter<Integer> times10 = new ITypeConverter<Integer>() {
+            public Integer convert(String value) { return Integer.parseInt(value) * 10; }
+        };
+        CommandLine commandLine = new CommandLine(new Top()).registerConverter(int.class, times10);
+        CommandLine sub = new CommandLine(new Sub()).addSubcommand("grandchild", new Grandchild());
+        commandLine.addSubcommand("sub", sub);
+
+        List<CommandLine> parsed = commandLine.parse("sub", "-x", "1", "grandchild", "-y", "2");
+        assertEquals(10, ((Sub) parsed.get(1).getCommand()).x);
+        assertEquals(20, ((Grandchild) parsed.get(2).getCommand()).y);
+
+        // a converter registered on a subcommand takes precedence over the converter of its parent
+        sub.registerConverter(int.class, new ITypeConverter<Integer>() {
+            public Integer convert(String value) { return -Integer.parseInt(value); }
+        });
+        parsed = commandLine.parse("sub", "-x", "1", "grandchild", "-y", "2");
+        assertEquals(-1, ((Sub) parsed.get(1).getCommand()).x);
+        assertEquals(-2, ((Grandchild) parsed.get(2).getCommand()).y);
+        assertEquals(10, CommandLine.populateCommand(new Sub(), "-x", "10").x); // built-in converter unaffected
+    }
+    @Test
+    public void testArgSpecIsResolvedOnceWhenModelIsBuilt() throws Exception {
+        class App {
+            @Option(names = {"--verbose", "-v"}, help = true) boolean verbose;
+            @Option(names = "-L", split = ",", type = Long.class) List<Long> longs;
+            @Parameters(index = "0..1", paramLabel = "FILE") File[] files;
+        }
+        CommandModel model = CommandModel.forClass(App.class);
+        Field verbose = App.class.getDeclaredField("verbose");
+        Field longs = App.class.getDeclaredField("longs");
+        Field files = App.class.getDeclaredField("files");
+        assertSame(model.specs.get(longs), ArgSpec.forField(longs));
+
+        ArgSpec verboseSpec = model.specs.get(verbose);
+        assertTrue(verboseSpec.isOption());
+        assertTrue(verboseSpec.help);
+        assertEquals("-v", verboseSpec.shortestName);
+        assertEquals(Range.valueOf("0"), verboseSpec.arity);
+
+        ArgSpec longsSpec = model.specs.get(longs);
+        assertTrue(longsSpec.isCollection);
+        assertEquals(Long.class, longsSpec.elementType);
+        assertEquals(Range.valueOf("0..*"), longsSpec.arity);
+        assertArrayEquals(new String[] {"1", "2", "3"}, longsSpec.split("1,2,3"));
+
+        ArgSpec filesSpec = model.specs.get(files);
+        assertFalse(filesSpec.isOption());
+        assertTrue(filesSpec.isArray);
+        assertEquals(File.class, filesSpec.elementType);
+        assertEquals(Range.valueOf("0..1"), filesSpec.index);
+        assertEquals("FILE", filesSpec.paramLabel);
+        assertArrayEquals(new String[] {"a,b"}, filesSpec.split("a,b"));
+    }
+
+    static class ParseArgsSub {
+        @Option(names = "-x") int x;
+        @Parameters List<String> params;
+    }
+    static class ParseArgsTop {
+        @Option(names = {"-v", "--verbose"}) boolean verbose;
+        @Option(names = "-n") int number = 5;
+        @Option(names = "-L", arity = "1") List<String> list = new ArrayList<String>(Arrays.asList("default"));
+        @Option(names = "-h", usageHelp = true) boolean help;
+        @Parameters File[] files;
+    }
+
+    @Test
+    public void testParseArgsDoesNotModifyAnnotatedObject() {
+        ParseArgsTop top = new ParseArgsTop();
+        CommandLine commandLine = new CommandLine(top);
+        ParseResult result = commandLine.parseArgs("-v", "-n", "7", "-L", "a", "file1");
+
+        assertTrue(result.hasOption("--verbose"));
+        assertEquals(Boolean.TRUE, result.optionValue("-v"));
+        assertEquals(7, result.optionValue("-n"));
+        assertEquals(Arrays.asList("default", "a"), result.optionValue("-L"));
+        assertFalse(result.hasOption("-h"));
+        assertFalse(result.isUsageHelpRequested());
+        assertEquals(3, result.matchedOptions().size());
+        assertEquals(1, result.matchedPositionals().size());
+        assertArrayEquals(new File[] {new File("file1")}, (File[]) result.matchedPositionals().values().iterator().next());
+        assertFalse(result.hasSubcommand());
+        assertEquals(Arrays.asList(commandLine), result.asCommandLineList());
+
+        assertFalse(top.verbose);
+        assertEquals(5, top.number);
+        assertEquals(Arrays.asList("default"), top.list);
+        assertNull(top.files);
+    }
+
+    @Test
+    public void testParseArgsWithSubcommandUnmatchedAndHelp() {
+        CommandLine commandLine = new CommandLine(new ParseArgsTop())
+                .addSubcommand("sub", new ParseArgsSub())
+                .setUnmatchedArgumentsAllowed(true);
+        ParseResult result = commandLine.parseArgs("-h", "sub", "-x", "3", "p1", "-y");
+
+        assertTrue(result.isUsageHelpRequested());
+        assertFalse(commandLine.isUsageHelpRequested());
+        assertTrue(result.hasSubcommand());
+        ParseResult sub = result.subcommand();
+        assertSame(commandLine.getSubcommands().get("sub"), sub.commandLine());
+        assertEquals(3, sub.optionValue("-x"));
+        assertEquals(Arrays.asList("p1", "-y"), sub.matchedPositionals().values().iterator().next());
+        assertEquals(Arrays.asList(commandLine, sub.commandLine()), result.asCommandLineList());
+        assertTrue(commandLine.getSubcommands().get("sub").getUnmatchedArguments().isEmpty());
+    }
+
+    @Test
+    public void testParseArgsCollectsUnmatchedArgumentsInResult() {
+        CommandLine commandLine = new CommandLine(new ParseArgsSub()).setUnmatchedArgumentsAllowed(true);
+        ParseResult result = commandLine.parseArgs("-x", "1", "a", "b");
+        assertEquals(Collections.emptyList(), result.unmatched());
+        assertEquals(Arrays.asList("a", "b"), result.matchedPositionals().values().iterator().next());
+
+        class OptionsOnly { @Option(names = "-n") int number; }
+        CommandLine strict = new CommandLine(new OptionsOnly()).setUnmatchedArgumentsAllowed(true);
+        ParseResult unmatched = strict.parseArgs("-n", "1", "-z");
+        assertEquals(Arrays.asList("-z"), unmatched.unmatched());
+        assertTrue(strict.getUnmatchedArguments().isEmpty());
+    }
+
+    @Test
+    public void testParseArgsIsThreadSafe() throws Exception {
+        final CommandLine commandLine = new CommandLine(new ParseArgsTop());
+        final int threads = 8;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            String value = id + ":" + i;
+                            ParseResult result = commandLine.parseArgs("-n", String.valueOf(i), "-L", value);
+                            assertEquals(i, result.optionValue("-n"));
+                            assertEquals(Arrays.asList("default", value), result.optionValue("-L"));
+                        }
+                    } catch (Throwable ex) {
+                        errors.add(ex);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) { worker.join(); }
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(Arrays.asList("default"), ((ParseArgsTop) commandLine.getCommand()).list);
+    }
+
+    static class Unconvertible { Unconvertible(String s) {} }
+    @Command(name = "forward")
+    static class ClassifySub {
+        static int instances;
+        ClassifySub() { instances++; }
+        @Option(names = "-x") Unconvertible x;
+        @Parameters(arity = "1") List<Unconvertible> params;
+    }
+    @Test
+    public void testClassifyRecordsRawValuesWithoutInstantiatingOrConverting() {
+        class Top {
+            @Option(names = {"-v", "--verbose"}) boolean verbose;
+            @Option(names = "-n") int number;
+            @Option(names = "-L", arity = "1..2") Unconvertible[] list;
+            @Parameters Unconvertible[] files;
+        }
+        CommandLine commandLine = new CommandLine(new Top());
+        ParseResult result = commandLine.classify("-v", "-n", "notAnInt", "-L", "a", "b", "-L=c", "--", "f1", "f2");
+
+        assertFalse(result.isConverted());
+        assertTrue(result.hasOption("--verbose"));
+        assertEquals(Collections.emptyList(), result.optionValue("-v"));
+        assertEquals(Arrays.asList("notAnInt"), result.optionValue("-n"));
+        assertEquals(Arrays.asList("a", "b", "c"), result.optionValue("-L"));
+        assertEquals(Arrays.asList("f1", "f2"), result.matchedPositionals().values().iterator().next());
+        assertTrue(commandLine.parseArgs("-v").isConverted());
+    }
+
+    @Test
+    public void testClassifyDoesNotInstantiateSubcommands() {
+        @Command(subcommands = ClassifySub.class)
+        class Top { @Option(names = "-v") boolean verbose; }
+        ClassifySub.instances = 0;
+        CommandLine commandLine = new CommandLine(new Top());
+        ParseResult result = commandLine.classify("-v", "forward", "-x", "1", "p");
+
+        assertTrue(result.hasSubcommand());
+        ParseResult sub = result.subcommand();
+        assertSame(commandLine.getSubcommands().get("forward"), sub.commandLine());
+        assertEquals(Arrays.asList("1"), sub.optionValue("-x"));
+        assertEquals(Arrays.asList("p"), sub.matchedPositionals().values().iterator().next());
+        assertEquals(0, ClassifySub.instances);
+        assertFalse(sub.commandLine().isInstantiated());
+    }
+
+    @Test
+    public void testClassifyValidatesArguments() {
+        class Top {
+            @Option(names = "-n", required = true) int number;
+            @Option(names = "-v") boolean verbose;
+        }
+        CommandLine commandLine = new CommandLine(new Top());
+        try {
+            commandLine.classify("-v");
+            fail("Expected MissingParameterException");
+        } catch (MissingParameterException ex) {
+            assertEquals("Missing required option 'number'", ex.getMessage());
+        }
+        try {
+            commandLine.classify("-n", "1", "-z");
+            fail("Expected UnmatchedArgumentException");
+        } catch (UnmatchedArgumentException ex) {
+            assertEquals("Unmatched argument [-z]", ex.getMessage());
+        }
+        try {
+            commandLine.classify("-n", "1", "-n", "2");
+            fail("Expected OverwrittenOptionException");
+        } catch (OverwrittenOptionException ex) {
+            assertEquals("option '-n' (number) should be specified only once", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testParseRestoresInitialValuesBeforeEachParse() {
+        class App {
+            @Option(names = "-v") boolean verbose;
+            @Option(names = "-n") int number = 5;
+            @Option(names = "-a", arity = "1") String[] array = {"initial"};
+            @Option(names = "-L", arity = "1") List<String> list = new ArrayList<String>(Arrays.asList("x"));
+            @Parameters List<String> params;
+        }
+        App app = new App();
+        List<String> initialList = app.list;
+        CommandLine commandLine = new CommandLine(app).setUnmatchedArgumentsAllowed(true);
+        commandLine.parse("-v", "-n", "7", "-a", "b", "-L", "y", "p1");
+        assertTrue(app.verbose);
+        assertEquals(7, app.number);
+        assertArrayEquals(new String[] {"initial", "b"}, app.array);
+        assertEquals(Arrays.asList("x", "y"), app.list);
+        assertEquals(Arrays.asList("p1"), app.params);
+
+        commandLine.parse("-a", "c", "-L", "z");
+        assertFalse(app.verbose);
+        assertEquals(5, app.number);
+        assertArrayEquals(new String[] {"initial", "c"}, app.array);
+        assertSame(initialList, app.list);
+        assertEquals(Arrays.asList("x", "z"), app.list);
+        assertNull(app.params);
+
+        commandLine.parse();
+        assertArrayEquals(new String[] {"initial"}, app.array);
+        assertEquals(Arrays.asList("x"), app.list);
+    }
+
+    @Test
+    public void testParseDoesNotAccumulateUnmatchedArgumentsAcrossParses() {
+        class App { @Option(names = "-v") boolean verbose; }
+        CommandLine commandLine = new CommandLine(new App()).setUnmatchedArgumentsAllowed(true);
+        commandLine.parse("-x");
+        assertEquals(Arrays.asList("-x"), commandLine.getUnmatchedArguments());
+        commandLine.parse("-y", "-z");
+        assertEquals(Arrays.asList("-y", "-z"), commandLine.getUnmatchedArguments());
+    }
+
+    @Test
+    public void testParseDoesNotModifyUnmodifiableCollectionDefaults() {
+        class App {
+            @Option(names = "-v") boolean verbose;
+            @Option(names = "-L") List<String> list = Arrays.asList("a", "b");
+            @Option(names = "-E") List<String> empty = Collections.emptyList();
+        }
+        App app = new App();
+        CommandLine commandLine = new CommandLine(app);
+        commandLine.parse("-v");
+        commandLine.parse("-v");
+        assertTrue(app.verbose);
+        assertEquals(Arrays.asList("a", "b"), app.list);
+        assertSame(Collections.emptyList(), app.empty);
+    }
+    @Test
+    public void testParseArgsUsesInitialValuesAfterParse() {
+        class App {
+            @Option(names = "-n") int number = 5;
+            @Option(names = "-L", arity = "1") List<String> list = new ArrayList<String>(Arrays.asList("x"));
+        }
+        CommandLine commandLine = new CommandLine(new App());
+        commandLine.parse("-n", "7", "-L", "y");
+        ParseResult result = commandLine.parseArgs("-L", "z");
+        assertEquals(Arrays.asList("x", "z"), result.optionValue("-L"));
+        assertNull(result.optionValue("-n"));
+    }
+
+    @Test
+    public void testArgumentCursorPushPopAndWindow() {
+        ArgumentCursor cursor = new ArgumentCursor(new String[] {"a", "b", "c", "d"});
+        assertEquals(4, cursor.size());
+        assertEquals("a", cursor.pop());
+        cursor.push("x");
+        cursor.push("y");
+        assertEquals(5, cursor.size());
+        assertEquals(Arrays.asList("y", "x", "b", "c", "d"), cursor.remaining());
+
+        ArgumentCursor window = cursor.window(1, 4);
+        assertEquals(Arrays.asList("x", "b", "c"), window.remaining());
+        assertEquals("x", window.pop());
+        assertEquals(5, cursor.size()); // the window does not consume from the cursor
+        assertEquals(Arrays.asList("d"), cursor.window(4, Integer.MAX_VALUE).remaining());
+        assertTrue(cursor.window(6, 8).isEmpty());
+
+        cursor.skip(3);
+        assertEquals("c", cursor.peek());
+        cursor.skip(Integer.MAX_VALUE);
+        assertTrue(cursor.isEmpty());
+        try {
+            cursor.pop();
+            fail("Expected EmptyStackException");
+        } catch (java.util.EmptyStackException expected) {
+        }
+    }
+
+    @Test
+    public void testUnmatchedArgumentExceptionStackConstructor() {
+        Stack<String> stack = new Stack<String>();
+        stack.push("b");
+        stack.push("a");
+        assertEquals("Unmatched arguments [a, b]", new UnmatchedArgumentException(stack).getMessage());
+    }
+
+    @Test
+    public void testPositionalParametersWithLargeArgumentList() {
+        class App {
+            @Parameters(index = "0") String first;
+            @Parameters(index = "1..*") String[] rest;
+            @Parameters(index = "0..*") List<String> all;
+        }
+        String[] args = new String[100000];
+        for (int i = 0; i < args.length; i++) { args[i] = "file" + i; }
+        App app = CommandLine.populateCommand(new App(), args);
+        assertEquals("file0", app.first);
+        assertEquals(args.length - 1, app.rest.length);
+        assertEquals("file1", app.rest[0]);
+        assertEquals("file99999", app.rest[app.rest.length - 1]);
+        assertEquals(Arrays.asList(args), app.all);
+    }
+
+    static class AbbreviatedOptions {
+        @Option(names = {"-v", "--verbose"}) boolean verbose;
+        @Option(names = "--version") boolean version;
+        @Option(names = "--file") String file;
+        @Option(names = "--list") List<String> list;
+    }
+
+    @Test
+    public void testOptionNameMatcherMatchesNamesAndAttachedParameters() throws Exception {
+        Map<String, Field> names = new java.util.HashMap<String, Field>();
+        Field verbose = AbbreviatedOptions.class.getDeclaredField("verbose");
+        Field file = AbbreviatedOptions.class.getDeclaredField("file");
+        names.put("--verbose", verbose);
+        names.put("--file", file);
+        names.put("-f", file);
+        OptionNameMatcher matcher = new OptionNameMatcher(names);
+
+        assertSame(verbose, matcher.match("--verbose", "=", false).option(false));
+        assertEquals(9, matcher.match("--verbose", "=", false).depth);
+        assertEquals(6, matcher.match("--file=a=b", "=", false).depth);
+        assertEquals(2, matcher.match("-f:x", ":", false).depth);
+        assertNull(matcher.match("-fx", "=", false));
+        assertNull(matcher.match("--verb", "=", false));
+        assertNull(matcher.match("=--file", "=", false));
+        assertSame(verbose, matcher.match("--verb", "=", true).option(true));
+        assertEquals(6, matcher.match("--verb=true", "=", true).depth);
+        assertNull(matcher.match("--", "=", true));
+    }
+
+    @Test
+    public void testAbbreviatedOptionsNotAllowedByDefault() {
+        CommandLine commandLine = new CommandLine(new AbbreviatedOptions());
+        assertFalse(commandLine.isAbbreviatedOptionsAllowed());
+        try {
+            commandLine.parse("--verb");
+            fail("Expected UnmatchedArgumentException");
+        } catch (UnmatchedArgumentException ex) {
+            assertEquals("Unmatched argument [--verb]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testAbbreviatedOptions() {
+        AbbreviatedOptions options = new AbbreviatedOptions();
+        new CommandLine(options).setAbbreviatedOptionsAllowed(true).parse("--verb", "--fil=a", "--li", "b", "--vers");
+        assertTrue(options.verbose);
+        assertTrue(options.version);
+        assertEquals("a", options.file);
+        assertEquals(Arrays.asList("b"), options.list); // the abbreviation is recognized as an option, not as a value
+    }
+
+    @Test
+    public void testAmbiguousAbbreviatedOptionIsNotMatched() {
+        CommandLine commandLine = new CommandLine(new AbbreviatedOptions()).setAbbreviatedOptionsAllowed(true);
+        try {
+            commandLine.parse("--ver");
+            fail("Expected UnmatchedArgumentException");
+        } catch (UnmatchedArgumentException ex) {
+            assertEquals("Unmatched argument [--ver]", ex.getMessage());
+        }
+        try {
+            commandLine.parse("--v=true");
+            fail("Expected UnmatchedArgumentException");
+        } catch (UnmatchedArgumentException ex) {
+            assertEquals("Unmatched argument [--v=true]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testAbbreviatedOptionsSettingIsInheritedBySubcommands() {
+        @Command(name = "sub") class Sub { @Option(names = "--number") int number; }
+        CommandLine commandLine = new CommandLine(new AbbreviatedOptions()).addSubcommand("sub", new Sub());
+        commandLine.setAbbreviatedOptionsAllowed(true);
+        List<CommandLine> parsed = commandLine.parse("--verbose", "sub", "--num", "3");
+        assertEquals(3, ((Sub) parsed.get(1).getCommand()).number);
+    }
+
+    @Test
+    public void testIterableParametersAreConvertedLazily() {
+        class App {
+            @Option(names = "-v") boolean verbose;
+            @Parameters(type = Integer.class) Iterable<Integer> numbers;
+        }
+        App app = CommandLine.populateCommand(new App(), "-v", "1", "2", "x");
+        assertTrue(app.verbose);
+        Iterator<Integer> iterator = app.numbers.iterator();
+        assertEquals(Integer.valueOf(1), iterator.next());
+        assertEquals(Integer.valueOf(2), iterator.next());
+        try {
+            iterator.next();
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("Could not convert 'x' to Integer for positional parameter at index 0..* (numbers): " +
+                    "java.lang.NumberFormatException: For input string: \"x\"", ex.getMessage());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testIteratorOptionAccumulatesMultipleOccurrences() {
+        class App {
+            @Option(names = "-f", type = File.class) Iterator<File> files;
+            @Option(names = "-v") boolean verbose;
+        }
+        App app = CommandLine.populateCommand(new App(), "-f", "a", "b", "-v", "-f", "c");
+        List<File> files = new ArrayList<File>();
+        while (app.files.hasNext()) { files.add(app.files.next()); }
+        assertEquals(Arrays.asList(new File("a"), new File("b"), new File("c")), files);
+    }
+
+    @Test
+    public void testValueConsumerReceivesEachValue() {
+        class App {
+            final List<Object> received = new ArrayList<Object>();
+            @Option(names = "-n", type = Integer.class, split = ",") IValueConsumer<Integer> numbers = new IValueConsumer<Integer>() {
+                public void accept(Integer value) { received.add(value); }
+            };
+            @Parameters(type = File.class) IValueConsumer<File> files = new IValueConsumer<File>() {
+                public void accept(File value) { received.add(value); }
+            };
+        }
+        App app = new App();
+        new CommandLine(app).parse("-n", "1,2", "-n", "3", "--", "f1", "f2");
+        assertEquals(Arrays.<Object>asList(1, 2, 3, new File("f1"), new File("f2")), app.received);
+
+        app.received.clear();
+        ParseResult result = new CommandLine(app).parseArgs("-n", "4", "--", "f3");
+        assertEquals(Collections.emptyList(), app.received); // parseArgs does not call the consumer
+        assertEquals(Arrays.asList(4), toList((Iterable<?>) result.optionValue("-n")));
+    }
+
+    @Test
+    public void testValueConsumerMustBeInitialized() {
+        class App { @Parameters IValueConsumer<String> params; }
+        try {
+            CommandLine.populateCommand(new App(), "a");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("must be initialized with an IValueConsumer"));
+        }
+    }
+
+    @Test
+    public void testStreamTypesHaveMultiValueArity() throws Exception {
+        class App {
+            @Parameters Iterable<String> iterable;
+            @Option(names = "-i") Iterator<String> iterator;
+            @Option(names = "-c") IValueConsumer<String> consumer;
+        }
+        assertEquals(Range.valueOf("0..*"), Range.parameterArity(App.class.getDeclaredField("iterable")));
+        assertEquals(Range.valueOf("0..*"), Range.optionArity(App.class.getDeclaredField("iterator")));
+        assertEquals(Range.valueOf("0..*"), Range.optionArity(App.class.getDeclaredField("consumer")));
+        assertEquals(Range.valueOf("1"), Range.defaultArity(java.nio.file.Path.class));
+    }
+
+    private static List<Object> toList(Iterable<?> iterable) {
+        List<Object> result = new ArrayList<Object>();
+        for (Object element : iterable) { result.add(element); }
+        return result;
+    }
+
+    static class AtFileApp {
+        @Option(names = "-v") boolean verbose;
+        @Option(names = "-n") int number;
+        @Option(names = "-s") String string;
+        @Parameters List<String> params;
+    }
+
+    private static AtFileApp parseWithArgumentFiles(String... args) {
+        AtFileApp app = new AtFileApp();
+        new CommandLine(app).setExpandAtFiles(true).parse(args);
+        return app;
+    }
+
+    private static File argumentFile(String content) throws IOException {
+        File file = File.createTempFile("picocli", ".args");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(Charset.defaultCharset().name()));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testArgumentFileIsExpanded() throws IOException {
+        File file = argumentFile("# options\n-v -n 5\n-s \"a b \\\" c\"\n'p 1' p2 # trailing comment\n");
+        AtFileApp app = parseWithArgumentFiles("@" + file.getPath(), "p3");
+        assertTrue(app.verbose);
+        assertEquals(5, app.number);
+        assertEquals("a b \" c", app.string);
+        assertEquals(Arrays.asList("p 1", "p2", "p3"), app.params);
+    }
+
+    @Test
+    public void testNestedArgumentFiles() throws IOException {
+        File inner = argumentFile("-n 7 inner");
+        File outer = argumentFile("-v @" + inner.getPath() + " outer");
+        AtFileApp app = parseWithArgumentFiles("@" + outer.getPath(), "last");
+        assertTrue(app.verbose);
+        assertEquals(7, app.number);
+        assertEquals(Arrays.asList("inner", "outer", "last"), app.params);
+    }
+
+    @Test
+    public void testCyclicArgumentFilesAreRejected() throws IOException {
+        File file = argumentFile("");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(("-v @" + file.getPath()).getBytes());
+        out.close();
+        try {
+            parseWithArgumentFiles("@" + file.getPath());
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("Argument file @" + file.getPath() + " includes itself (directly or through a nested argument file)",
+                    ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testArgumentFileNotExpandedIfMissingOrDisabled() throws IOException {
+        AtFileApp app = parseWithArgumentFiles("@no-such-file.txt");
+        assertEquals(Arrays.asList("@no-such-file.txt"), app.params);
+
+        File file = argumentFile("-v");
+        app = new AtFileApp();
+        CommandLine commandLine = new CommandLine(app);
+        assertFalse(commandLine.isExpandAtFiles()); // disabled by default
+        commandLine.parse("@" + file.getPath());
+        assertFalse(app.verbose);
+        assertEquals(Arrays.asList("@" + file.getPath()), app.params);
+    }
+
+    @Test
+    public void testLargeArgumentFileIsMemoryMapped() throws IOException {
+        StringBuilder content = new StringBuilder("-n 3\n");
+        int count = 0;
+        while (content.length() <= ArgumentFile.MAP_THRESHOLD) {
+            content.append("parameter-").append(count++).append('\n');
+        }
+        File file = argumentFile(content.toString());
+        AtFileApp app = parseWithArgumentFiles("@" + file.getPath());
+        assertEquals(3, app.number);
+        assertEquals(count, app.params.size());
+        assertEquals("parameter-" + (count - 1), app.params.get(count - 1));
+    }
+
+    @Test
+    public void testArgumentFileIsReadOnlyAsFarAsNeeded() throws IOException {
+        File file = argumentFile("");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(("a b c d @" + file.getPath()).getBytes()); // reading the last token fails
+        out.close();
+        ArgumentCursor cursor = new ArgumentCursor(new String[] {"x", "@" + file.getPath(), "y"}, true);
+        assertEquals("x", cursor.pop());
+        assertEquals("c", cursor.get(2));
+        assertEquals(3, cursor.available(3));
+        ArgumentCursor window = cursor.window(1, 3);
+        assertEquals("b", window.pop());
+        assertEquals("c", window.pop());
+        assertTrue(window.isEmpty());
+        cursor.skip(2);
+        assertEquals("c", cursor.pop());
+        assertEquals("d", cursor.pop());
+        try {
+            cursor.size();
+            fail("Expected ParameterException");
+        } catch (ParameterException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("includes itself"));
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void testErrorDescribesOriginalArgumentOfArgumentFile() throws IOException {
+        class App {
+            @Option(names = "-v") boolean verbose;
+            @Option(names = "-n", type = String.class) IValueConsumer<String> names = new IValueConsumer<String>() {
+                public void accept(String value) {
+                    if ("bad".equals(value)) { throw new IllegalStateException("rejected " + value); }
+                }
+            };
+        }
+        try {
+            new CommandLine(new App()).parse("-n", "a", "-n", "bad", "-v");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("while processing option[3] 'bad -v'"));
+        }
+        File file = argumentFile("-n a -n bad");
+        try {
+            new CommandLine(new App()).setExpandAtFiles(true).parse("-v", "@" + file.getPath());
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("while processing option[1] '@" + file.getPath() + "'"));
+        }
+        ArgumentCursor cursor = new ArgumentCursor(new String[] {"x", "@" + file.getPath(), "y"}, true);
+        assertEquals(-1, cursor.index());
+        cursor.pop();
+        assertEquals(0, cursor.index());
+        cursor.push("pushed");
+        cursor.skip(2);
+        assertEquals(1, cursor.index()); // "-n" from the argument file
+        cursor.skip(4);
+        assertEquals(2, cursor.index()); // "y" after the argument file
+    }
+
+    static class PrimitiveArrays {
+        @Option(names = "-i", split = ",") int[] ints = {0};
+        @Option(names = "-l", split = ",") long[] longs;
+        @Option(names = "-d") double[] doubles;
+        @Option(names = "-b", arity = "1..*") boolean[] booleans;
+    }
+
+    @Test
+    public void testPrimitiveArrayFastPath() {
+        PrimitiveArrays arrays = CommandLine.populateCommand(new PrimitiveArrays(),
+                "-i", "1,2", "3", "-l", "4,5", "-d", "1.5", "-2", "-b", "true", "FALSE", "-i", "4");
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, arrays.ints);
+        assertArrayEquals(new long[] {4, 5}, arrays.longs);
+        assertArrayEquals(new double[] {1.5, -2}, arrays.doubles, 0.0);
+        assertArrayEquals(new boolean[] {true, false}, arrays.booleans);
+    }
+
+    @Test
+    public void testPrimitiveArrayFastPathWithManyValues() {
+        StringBuilder ids = new StringBuilder("0");
+        for (int i = 1; i < 50000; i++) { ids.append(',').append(i); }
+        PrimitiveArrays arrays = CommandLine.populateCommand(new PrimitiveArrays(), "-i", ids.toString());
+        assertEquals(50001, arrays.ints.length);
+        assertEquals(49999, arrays.ints[50000]);
+    }
+
+    @Test
+    public void testPrimitiveArrayFastPathConversionError() {
+        try {
+            CommandLine.populateCommand(new PrimitiveArrays(), "-i", "1,x");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("Could not convert 'x' to int for option '-i' at index 0 (ints): " +
+                    "java.lang.NumberFormatException: For input string: \"x\"", ex.getMessage());
+        }
+        try {
+            CommandLine.populateCommand(new PrimitiveArrays(), "-b", "yes");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("'yes' is not a boolean for option '-b' at index 0 (booleans)", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testPrimitiveArrayUsesRegisteredConverter() {
+        PrimitiveArrays arrays = new PrimitiveArrays();
+        new CommandLine(arrays).registerConverter(Integer.TYPE, new ITypeConverter<Integer>() {
+            public Integer convert(String value) { return Integer.valueOf(value, 16); }
+        }).parse("-i", "a,ff");
+        assertArrayEquals(new int[] {0, 10, 255}, arrays.ints);
+    }
+
+    @Test
+    public void testPrimitiveArrayBuilderGrowsAndAppendsToInitialArray() {
+        PrimitiveArrayBuilder builder = new PrimitiveArrayBuilder(Long.TYPE, new long[] {7}, false);
+        for (int i = 0; i < 100; i++) { builder.add(String.valueOf(i)); }
+        assertEquals(100, builder.size());
+        long[] result = (long[]) builder.toPrimitiveArray();
+        assertEquals(101, result.length);
+        assertEquals(7, result[0]);
+        assertEquals(99, result[100]);
+    }
+
+    @Test
+    public void testLongAndDoubleArrayConversionErrorsDescribeOption() {
+        try {
+            CommandLine.populateCommand(new PrimitiveArrays(), "-l", "4,0x");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("Could not convert '0x' to long for option '-l' at index 0 (longs): " +
+                    "java.lang.NumberFormatException: For input string: \"0x\"", ex.getMessage());
+        }
+        try {
+            CommandLine.populateCommand(new PrimitiveArrays(), "-d", "1.5", "1..5");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("Could not convert '1..5' to double for option '-d' at index 1 (doubles): " +
+                    "java.lang.NumberFormatException: multiple points", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testSplitterMatchesPatternSplit() {
+        String[] regexes = {",", "\\|", "::", "aa", ";", "\\s+", "[,;]"};
+        String[] values = {"", ",", "a", "a,b", "a,,b", "a,b,,", ",a", ",,", "a|b||", "|a", "a::b::", "aaa", "aaaa",
+                "x aa y", "a;b;", "a  b ", "a,b;c"};
+        for (String regex : regexes) {
+            Splitter splitter = Splitter.compile(regex);
+            for (String value : values) {
+                String[] expected = Pattern.compile(regex).split(value);
+                assertArrayEquals(regex + " / '" + value + "'", expected, splitter.split(value));
+                assertEquals(regex + " / '" + value + "'", expected.length, splitter.count(value));
+            }
+        }
+        assertNull(Splitter.compile(""));
+        assertTrue(Splitter.compile(",").isLiteral());
+        assertTrue(Splitter.compile("\\|").isLiteral());
+        assertTrue(Splitter.compile("::").isLiteral());
+        assertFalse(Splitter.compile("\\s+").isLiteral());
+        assertFalse(Splitter.compile("\\d").isLiteral());
+        assertFalse(Splitter.compile("a|b").isLiteral());
+    }
+
+    @Test
+    public void testSplitCountsValuesForArityCheck() {
+        class App { @Option(names = "-p", arity = "3", split = "\\|") String[] values; }
+        App app = CommandLine.populateCommand(new App(), "-p", "a|b", "c");
+        assertArrayEquals(new String[] {"a", "b", "c"}, app.values);
+        try {
+            CommandLine.populateCommand(new App(), "-p", "a|", "b");
+            fail("Expected MissingParameterException");
+        } catch (MissingParameterException ex) {
+            assertEquals("option '-p' at index 0 (values) requires at least 3 values, but only 2 were specified.", ex.getMessage());
+        }
+    }
+
+    static class BatchApp {
+        @Option(names = "-n", required = true) int number;
+        @Option(names = "-v") boolean verbose;
+        @Parameters List<String> files = new ArrayList<String>();
+    }
+    private static final Callable<BatchApp> BATCH_APP_FACTORY = new Callable<BatchApp>() {
+        public BatchApp call() { return new BatchApp(); }
+    };
+
+    @Test
+    public void testPopulateCommandsReturnsResultsInInputOrder() {
+        List<String[]> commandLines = new ArrayList<String[]>();
+        int count = CommandLine.BATCH_SIZE * 5 + 17;
+        for (int i = 0; i < count; i++) {
+            commandLines.add(i % 7 == 3
+                    ? new String[] {"-v", "file" + i} // missing required -n
+                    : new String[] {"-n", String.valueOf(i), "file" + i});
+        }
+        List<BatchResult<BatchApp>> results = CommandLine.populateCommands(BATCH_APP_FACTORY, commandLines);
+        assertEquals(count, results.size());
+        for (int i = 0; i < count; i++) {
+            BatchResult<BatchApp> result = results.get(i);
+            assertEquals(i, result.index());
+            if (i % 7 == 3) {
+                assertFalse(result.isSuccess());
+                assertNull(result.command());
+                assertTrue(result.exception() instanceof MissingParameterException);
+            } else {
+                assertTrue(result.isSuccess());
+                assertNull(result.exception());
+                assertEquals(i, result.command().number);
+                assertEquals(Arrays.asList("file" + i), result.command().files);
+            }
+        }
+    }
+
+    @Test
+    public void testPopulateCommandsCreatesNewCommandForEachLine() {
+        List<String[]> commandLines = Arrays.asList(new String[] {"-n", "1", "a"}, new String[] {"-n", "2", "b"});
+        List<BatchResult<BatchApp>> results = CommandLine.populateCommands(BATCH_APP_FACTORY, commandLines);
+        assertNotSame(results.get(0).command(), results.get(1).command());
+        assertEquals(Arrays.asList("a"), results.get(0).command().files);
+        assertEquals(Arrays.asList("b"), results.get(1).command().files);
+    }
+
+    @Test
+    public void testPopulateCommandsOnCallerExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<String[]> commandLines = Arrays.asList(new String[] {"-n", "1"}, new String[] {"-n", "two"});
+            List<BatchResult<BatchApp>> results = CommandLine.populateCommands(BATCH_APP_FACTORY, commandLines, executor);
+            assertEquals(1, results.get(0).command().number);
+            assertTrue(results.get(1).exception().getMessage(), results.get(1).exception().getMessage().contains("two"));
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPopulateCommandsBoundsCommandLinesReadAhead() {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger maxReadAhead = new AtomicInteger();
+        final int count = CommandLine.BATCH_SIZE * (CommandLine.MAX_CHUNKS_IN_FLIGHT * 4 + 1);
+        Iterable<String[]> commandLines = new Iterable<String[]>() {
+            public Iterator<String[]> iterator() {
+                return new Iterator<String[]>() {
+                    int next;
+                    public boolean hasNext() { return next < count; }
+                    public String[] next() {
+                        maxReadAhead.set(Math.max(maxReadAhead.get(), next - created.get()));
+                        return new String[] {"-n", String.valueOf(next++)};
+                    }
+                    public void remove() { throw new UnsupportedOperationException(); }
+                };
+            }
+        };
+        Callable<BatchApp> factory = new Callable<BatchApp>() {
+            public BatchApp call() { created.incrementAndGet(); return new BatchApp(); }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<BatchResult<BatchApp>> results = CommandLine.populateCommands(factory, commandLines, executor);
+            assertEquals(count, results.size());
+            assertEquals(count - 1, results.get(count - 1).command().number);
+        } finally {
+            executor.shutdown();
+        }
+        // the chunks in flight, and the chunk being filled
+        assertTrue("read ahead " + maxReadAhead, maxReadAhead.get() <= (CommandLine.MAX_CHUNKS_IN_FLIGHT + 1) * CommandLine.BATCH_SIZE);
+    }
+
+    static class VerboseBatchApp extends BatchApp {
+        @Option(names = "-q") boolean quiet;
+    }
+
+    @Test
+    public void testPopulateCommandsWithCommandsOfDifferentClasses() {
+        Callable<BatchApp> factory = new Callable<BatchApp>() {
+            private final AtomicInteger calls = new AtomicInteger();
+            public BatchApp call() { return calls.getAndIncrement() % 2 == 0 ? new BatchApp() : new VerboseBatchApp(); }
+        };
+        List<String[]> commandLines = new ArrayList<String[]>();
+        for (int i = 0; i < 4; i++) { commandLines.add(new String[] {"-n", String.valueOf(i), "-q"}); }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<BatchResult<BatchApp>> results = CommandLine.populateCommands(factory, commandLines, executor);
+            for (int i = 0; i < 4; i++) {
+                BatchApp command = results.get(i).command();
+                assertEquals(i, command.number);
+                if (i % 2 == 0) {
+                    assertEquals(Arrays.asList("-q"), command.files); // a positional parameter of BatchApp
+                } else {
+                    assertTrue(((VerboseBatchApp) command).quiet);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPopulateCommandsEmptyInput() {
+        assertEquals(0, CommandLine.populateCommands(BATCH_APP_FACTORY, new ArrayList<String[]>()).size());
+    }
+
+    @Test
+    public void testPopulateCommandsPropagatesFactoryFailure() {
+        Callable<BatchApp> failing = new Callable<BatchApp>() {
+            public BatchApp call() throws Exception { throw new java.io.IOException("boom"); }
+        };
+        try {
+            CommandLine.populateCommands(failing, Collections.singletonList(new String[] {"-n", "1"}));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            assertEquals("Could not parse command lines: java.io.IOException: boom", ex.getMessage());
+        }
+        Callable<Object> notACommand = new Callable<Object>() {
+            public Object call() { return new Object(); }
+        };
+        try {
+            CommandLine.populateCommands(notACommand, Collections.singletonList(new String[0]));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().endsWith("is not a command: it has no @Command, @Option or @Parameters annotations"));
+        }
+    }
+
+    @Test
+    public void testSplitCommandLine() {
+        assertArrayEquals(new String[0], CommandLine.splitCommandLine(""));
+        assertArrayEquals(new String[0], CommandLine.splitCommandLine("   # only a comment"));
+        assertArrayEquals(new String[] {"a", "b", "c"}, CommandLine.splitCommandLine("  a b\tc  "));
+        assertArrayEquals(new String[] {"a b", "c"}, CommandLine.splitCommandLine("'a b' c"));
+        assertArrayEquals(new String[] {"a\\b"}, CommandLine.splitCommandLine("'a\\b'"));
+        assertArrayEquals(new String[] {"say \"hi\"", "x\\y"}, CommandLine.splitCommandLine("\"say \\\"hi\\\"\" \"x\\y\""));
+        assertArrayEquals(new String[] {"a b"}, CommandLine.splitCommandLine("a\\ b"));
+        assertArrayEquals(new String[] {"abc"}, CommandLine.splitCommandLine("a'b'\"c\""));
+        assertArrayEquals(new String[] {"", "x"}, CommandLine.splitCommandLine("'' x"));
+        assertArrayEquals(new String[] {"a#b", "c"}, CommandLine.splitCommandLine("a#b c # comment"));
+        try {
+            CommandLine.splitCommandLine("a 'b");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("Unterminated quote (') in command line: a 'b", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testArgumentFileAndCommandLineBackslashRules() throws IOException {
+        String text = "C:\\dir\\file 'a\\b' \"a\\b\"";
+        assertArrayEquals(new String[] {"C:dirfile", "a\\b", "a\\b"}, CommandLine.splitCommandLine(text));
+        ArgumentFile file = new ArgumentFile(argumentFile(text));
+        assertEquals("C:\\dir\\file", file.next());
+        assertEquals("ab", file.next());
+        assertEquals("ab", file.next());
+        assertNull(file.next());
+        file.close();
+    }
+
+    @Command(name = "tool", version = "tool 1.2")
+    static class SessionTool implements Runnable {
+        static List<String> log = new ArrayList<String>();
+        @Option(names = "-v") boolean verbose;
+        @Option(names = "-n", arity = "1") boolean negate;
+        @Option(names = "-h", usageHelp = true) boolean help;
+        @Option(names = "-V", versionHelp = true) boolean version;
+        @Parameters(arity = "0..1") String name = "world";
+        public void run() { log.add("hello " + name + (verbose ? " (verbose)" : "")); }
+    }
+    @Command(name = "count")
+    static class SessionCount implements Callable<Integer> {
+        @Parameters List<String> items = new ArrayList<String>();
+        public Integer call() { return items.size(); }
+    }
+    @Command(name = "fail")
+    static class SessionFail implements Runnable {
+        public void run() { throw new IllegalStateException("broken"); }
+    }
+
+    private String runSession(CommandLine commandLine, String input, String prompt) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        commandLine.runSession(new java.io.ByteArrayInputStream(input.getBytes()), new PrintStream(baos, true),
+                Help.Ansi.OFF, prompt);
+        return baos.toString();
+    }
+
+    @Test
+    public void testRunSessionRunsEachLineAndResetsFields() throws Exception {
+        SessionTool.log.clear();
+        CommandLine commandLine = new CommandLine(new SessionTool());
+        String output = runSession(commandLine, "-v 'big world'\n\n   \nagain\n# comment\n\n", null);
+        assertEquals("", output);
+        assertEquals(Arrays.asList("hello big world (verbose)", "hello again"), SessionTool.log);
+    }
+
+    @Test
+    public void testRunSessionPrintsErrorsAndHelpAndContinues() throws Exception {
+        SessionTool.log.clear();
+        CommandLine commandLine = new CommandLine(new SessionTool());
+        ByteArrayOutputStream usage = new ByteArrayOutputStream();
+        new CommandLine(new SessionTool()).usage(new PrintStream(usage, true), Help.Ansi.OFF);
+        String output = runSession(commandLine, "-n\n-h\n-V\n'x\nbob\nexit\nnot run\n", "> ");
+        String expected = String.format("> Missing required parameter for option '-n' (negate)%n") + usage
+                + "> " + usage
+                + String.format("> tool 1.2%n")
+                + String.format("> Unterminated quote (') in command line: 'x%n")
+                + "> > ";
+        assertEquals(expected, output);
+        assertEquals(Arrays.asList("hello bob"), SessionTool.log);
+    }
+
+    @Test
+    public void testRunSessionRunsSubcommands() throws Exception {
+        SessionTool.log.clear();
+        CommandLine commandLine = new CommandLine(new SessionTool())
+                .addSubcommand("count", new SessionCount())
+                .addSubcommand("fail", new SessionFail());
+        String output = runSession(commandLine, "count a b c\ncount\nfail\nquit\ncount x\n", null);
+        assertEquals(String.format("3%n0%njava.lang.IllegalStateException: broken%n"), output);
+    }
+
+    @Test
+    public void testArgumentLexerClassifiesArguments() {
+        class App {
+            @Option(names = {"-v", "--verbose"}) boolean verbose;
+            @Option(names = {"-f", "--file"}) File file;
+            @Parameters String[] positional;
+        }
+        Map<String, CommandLine> subcommands = Collections.singletonMap("sub", (CommandLine) null);
+        ArgumentLexer lexer = new ArgumentLexer(subcommands, CommandModel.forClass(App.class), "=", true);
+        assertEquals(ArgumentLexer.END_OF_OPTIONS, lexer.classify("--"));
+        assertEquals(ArgumentLexer.SUBCOMMAND, lexer.classify("sub"));
+        assertEquals(ArgumentLexer.CLUSTER, lexer.classify("-vfFILE"));
+        assertEquals(ArgumentLexer.UNKNOWN_CLUSTER, lexer.classify("-xyz"));
+        assertEquals(ArgumentLexer.POSITIONAL, lexer.classify("-x"));
+        assertEquals(ArgumentLexer.POSITIONAL, lexer.classify("file.txt"));
+
+        assertEquals(ArgumentLexer.OPTION, lexer.classify("--verbose"));
+        assertEquals(-1, lexer.attachedParameterOffset());
+        assertEquals(ArgumentLexer.OPTION, lexer.classify("--fi=a.txt"));
+        assertEquals("a.txt", "--fi=a.txt".substring(lexer.attachedParameterOffset()));
+        assertEquals("file", lexer.option().getName());
+
+        assertTrue(lexer.endsOptionParameters("--"));
+        assertTrue(lexer.endsOptionParameters("sub"));
+        assertTrue(lexer.endsOptionParameters("-f"));
+        assertTrue(lexer.endsOptionParameters("-vf"));
+        assertFalse(lexer.endsOptionParameters("-xyz"));
+        assertFalse(lexer.endsOptionParameters("value"));
+    }
+
+    @Test
+    public void testArgumentLexerRemembersLastArgument() {
+        class App { @Option(names = "-v") boolean verbose; }
+        ArgumentLexer lexer = new ArgumentLexer(Collections.<String, CommandLine>emptyMap(),
+                CommandModel.forClass(App.class), "=", false);
+        String arg = new String("-v");
+        assertEquals(ArgumentLexer.OPTION, lexer.classify(arg));
+        assertEquals(ArgumentLexer.OPTION, lexer.classify(arg));
+        assertEquals("verbose", lexer.option().getName());
+        assertEquals(ArgumentLexer.POSITIONAL, lexer.classify("x"));
+        assertEquals(ArgumentLexer.OPTION, lexer.classify(new String("-v"))); // equal, not identical: classified again
+    }
+
+    @Test
+    public void testMultiValueOptionStopsAtSubcommandAndCluster() {
+        @Command(name = "sub") class Sub { @Option(names = "-x") boolean x; }
+        class App {
+            @Option(names = "-v") boolean verbose;
+            @Option(names = "-f") String file;
+            @Option(names = "-l", arity = "1..*") List<String> list;
+        }
+        App app = new App();
+        Sub sub = new Sub();
+        List<CommandLine> parsed = new CommandLine(app).addSubcommand("sub", sub).parse("-l", "a", "b", "-v", "-l", "c", "sub", "-x");
+        assertEquals(Arrays.asList("a", "b", "c"), app.list);
+        assertTrue(app.verbose);
+        assertTrue(sub.x);
+        assertEquals(2, parsed.size());
+
+        App clustered = CommandLine.populateCommand(new App(), "-l", "a", "b", "-vfFILE");
+        assertEquals(Arrays.asList("a", "b"), clustered.list);
+        assertTrue(clustered.verbose);
+        assertEquals("FILE", clustered.file);
+    }
+
+    enum Mixed { a, A, Bee, CEE_DEE }
+
+    @Test
+    public void testEnumConverterTable() throws Exception {
+        class App { @Option(names = "-m") Mixed mixed; }
+        ITypeConverter<?> exact = new CommandLine(new App()).converterFor(Mixed.class);
+        assertSame(exact, new CommandLine(new App()).converterFor(Mixed.class)); // one table per enum type
+        assertEquals(Mixed.a, exact.convert("a"));
+        assertEquals(Mixed.A, exact.convert("A"));
+        assertEquals(Mixed.CEE_DEE, exact.convert("CEE_DEE"));
+        try {
+            exact.convert("bee");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertEquals("No enum constant picocli.CommandLineTest.Mixed.bee", ex.getMessage());
+        }
+        ITypeConverter<?> insensitive = new CommandLine(new App()).setCaseInsensitiveEnumValuesAllowed(true).converterFor(Mixed.class);
+        assertEquals(Mixed.a, insensitive.convert("a")); // exact match preferred
+        assertEquals(Mixed.A, insensitive.convert("A"));
+        assertEquals(Mixed.Bee, insensitive.convert("bEE"));
+        assertEquals(Mixed.CEE_DEE, insensitive.convert("cee_dee"));
+        try {
+            insensitive.convert("cee");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertEquals("No enum constant picocli.CommandLineTest.Mixed.cee", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testCaseInsensitiveEnumValuesInheritedBySubcommands() {
+        @Command(name = "sub") class Sub { @Option(names = "-u") TimeUnit unit; }
+        @Command class Top { @Option(names = "-u") TimeUnit unit; }
+        Top top = new Top();
+        Sub sub = new Sub();
+        CommandLine commandLine = new CommandLine(top).addSubcommand("sub", sub);
+        assertFalse(commandLine.isCaseInsensitiveEnumValuesAllowed());
+        try {
+            commandLine.parse("-u", "days");
+            fail("Expected ParameterException");
+        } catch (ParameterException expected) {
+        }
+        commandLine.setCaseInsensitiveEnumValuesAllowed(true);
+        assertTrue(commandLine.getSubcommands().get("sub").isCaseInsensitiveEnumValuesAllowed());
+        commandLine.parse("-u", "days", "sub", "-u", "Hours");
+        assertEquals(DAYS, top.unit);
+        assertEquals(HOURS, sub.unit);
+    }
+
+    interface Shape { String name(); }
+    static class Circle implements Shape { public String name() { return "circle"; } }
+    static class Square implements Shape { public String name() { return "square"; } }
+
+    @Test
+    public void testConverterResolvedThroughSupertype() {
+        class App { @Option(names = "-c") Circle circle; @Option(names = "-s") Shape shape; }
+        ITypeConverter<Shape> shapes = new ITypeConverter<Shape>() {
+            public Shape convert(String value) { return "circle".equals(value) ? new Circle() : new Square(); }
+        };
+        App app = new App();
+        CommandLine commandLine = new CommandLine(app).registerConverter(Shape.class, shapes);
+        commandLine.parse("-c", "circle", "-s", "square");
+        assertEquals("circle", app.circle.name());
+        assertEquals("square", app.shape.name());
+        try {
+            commandLine.parse("-c", "square");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("The converter for picocli.CommandLineTest$Shape returned a picocli.CommandLineTest$Square, " +
+                    "which is not a picocli.CommandLineTest$Circle for option '-c'", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBuiltInConvertersAreNotUsedForSubtypes() {
+        class App { @Option(names = "-b") StringBuffer buffer; }
+        try {
+            CommandLine.populateCommand(new App(), "-b", "x"); // CharSequence converter returns a String
+            fail("Expected MissingTypeConverterException");
+        } catch (MissingTypeConverterException ex) {
+            assertEquals("No TypeConverter registered for java.lang.StringBuffer", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testConverterCacheSeesConvertersRegisteredLater() {
+        class App { @Option(names = "-s") Shape shape; @Option(names = "-u") TimeUnit unit; }
+        App app = new App();
+        CommandLine commandLine = new CommandLine(app);
+        commandLine.parse("-u", "DAYS");
+        assertSame(commandLine.converterFor(TimeUnit.class), commandLine.converterFor(TimeUnit.class));
+        assertNull(commandLine.converterFor(Shape.class));
+        commandLine.registerConverter(Shape.class, new ITypeConverter<Shape>() {
+            public Shape convert(String value) { return new Circle(); }
+        });
+        commandLine.registerConverter(TimeUnit.class, new ITypeConverter<TimeUnit>() {
+            public TimeUnit convert(String value) { return TimeUnit.SECONDS; }
+        });
+        commandLine.parse("-s", "any", "-u", "DAYS");
+        assertEquals("circle", app.shape.name());
+        assertEquals(TimeUnit.SECONDS, app.unit);
+    }
+    @Test
+    public void testConverterCacheIsInvalidatedPerCommandTree() {
+        class App { @Option(names = "-u") TimeUnit unit; }
+        CommandLine other = new CommandLine(new App());
+        other.registerConverter(Shape.class, new ITypeConverter<Shape>() {
+            public Shape convert(String value) { return new Circle(); }
+        });
+        ITypeConverter<?> cached = other.converterFor(Circle.class); // resolved to a new converter for the supertype
+        CommandLine top = new CommandLine(new App());
+        CommandLine sub = new CommandLine(new App());
+        ITypeConverter<?> builtIn = sub.converterFor(TimeUnit.class);
+        top.addSubcommand("sub", sub);
+        ITypeConverter<TimeUnit> seconds = new ITypeConverter<TimeUnit>() {
+            public TimeUnit convert(String value) { return TimeUnit.SECONDS; }
+        };
+        top.registerConverter(TimeUnit.class, seconds);
+        assertSame(seconds, sub.converterFor(TimeUnit.class)); // the cache of the subcommand is discarded
+        assertNotSame(builtIn, sub.converterFor(TimeUnit.class));
+        assertSame(cached, other.converterFor(Circle.class)); // other command trees keep their caches
+    }
+
+    /** Registered in META-INF/services in the test resources. */
+    public static class ProvidedType {
+        final String value;
+        ProvidedType(String value) { this.value = value; }
+    }
+    public static class TestConverterProvider implements ITypeConverterProvider {
+        @SuppressWarnings("unchecked")
+        public <K> ITypeConverter<K> getConverter(Class<K> type) {
+            if (type != ProvidedType.class) { return null; }
+            return (ITypeConverter<K>) new ITypeConverter<ProvidedType>() {
+                public ProvidedType convert(String value) { return new ProvidedType("provided " + value); }
+            };
+        }
+    }
+
+    @Test
+    public void testConverterFromServiceLoaderProvider() {
+        class App { @Parameters ProvidedType provided; }
+        App app = CommandLine.populateCommand(new App(), "x");
+        assertEquals("provided x", app.provided.value);
+    }
+    private static Object convertNumber(Class<?> type, String value) throws Exception {
+        return new CommandLine(new SupportedTypes()).converterFor(type).convert(value);
+    }
+    private static Object convertNumberWithUnits(Class<?> type, String value) throws Exception {
+        return new CommandLine(new SupportedTypes()).setUnitSuffixesAllowed(true).converterFor(type).convert(value);
+    }
+    @Test
+    public void testNumberScannerAcceptsUnderscoresAndRadixPrefixes() throws Exception {
+        assertEquals(1000000, convertNumber(Integer.TYPE, "1_000_000"));
+        assertEquals(27, convertNumber(Integer.TYPE, "0x1B"));
+        assertEquals(-5, convertNumber(Integer.TYPE, "-0b101"));
+        assertEquals(10, convertNumber(Integer.TYPE, "010"));
+        assertEquals(Long.MIN_VALUE, convertNumber(Long.TYPE, "-9_223_372_036_854_775_808"));
+        assertEquals(1234.5, (Double) convertNumber(Double.TYPE, "1_234.5"), 0);
+        assertEquals(2e-3f, (Float) convertNumber(Float.TYPE, "2e-3"), 0);
+        assertEquals(8.0, (Double) convertNumber(Double.TYPE, "0x1p3"), 0);
+        assertTrue(Double.isNaN((Double) convertNumber(Double.TYPE, "NaN")));
+    }
+    @Test
+    public void testNumberScannerRejectsUnitSuffixesByDefault() throws Exception {
+        assertFalse(new CommandLine(new SupportedTypes()).isUnitSuffixesAllowed());
+        Object[][] values = {{Integer.TYPE, "30s"}, {Long.TYPE, "5m"}, {Long.TYPE, "1E"}, {Integer.TYPE, "10k"},
+                {Long.TYPE, "512MiB"}, {Integer.TYPE, "0B"}, {Short.TYPE, "3d"}, {Double.TYPE, "1.5M"}, {Float.TYPE, "2s"}};
+        for (Object[] value : values) {
+            try {
+                convertNumber((Class<?>) value[0], (String) value[1]);
+                fail("Expected NumberFormatException for '" + value[1] + "'");
+            } catch (NumberFormatException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains("\"" + value[1] + "\""));
+            }
+        }
+    }
+    @Test
+    public void testNumberScannerAcceptsUnitSuffixesIfAllowed() throws Exception {
+        assertEquals(10000, convertNumberWithUnits(Integer.TYPE, "10k"));
+        assertEquals(512L * 1024 * 1024, convertNumberWithUnits(Long.TYPE, "512MiB"));
+        assertEquals(2000000000L, convertNumberWithUnits(Long.TYPE, "2GB"));
+        assertEquals(4L * 1024 * 1024 * 1024 * 1024, convertNumberWithUnits(Long.TYPE, "4Ti"));
+        assertEquals(512, convertNumberWithUnits(Integer.TYPE, "512B"));
+        assertEquals(0, convertNumberWithUnits(Integer.TYPE, "0B"));
+        assertEquals(27, convertNumberWithUnits(Integer.TYPE, "0x1B"));
+        assertEquals(Integer.MIN_VALUE, convertNumberWithUnits(Integer.TYPE, "-2Gi"));
+        assertEquals(1.5e6, (Double) convertNumberWithUnits(Double.TYPE, "1.5M"), 0);
+    }
+    @Test
+    public void testNumberScannerConvertsDurationsToMilliseconds() throws Exception {
+        assertEquals(250, convertNumberWithUnits(Integer.TYPE, "250ms"));
+        assertEquals(2000, convertNumberWithUnits(Integer.TYPE, "2s"));
+        assertEquals(5 * 60 * 1000, convertNumberWithUnits(Integer.TYPE, "5m"));
+        assertEquals(3L * 24 * 60 * 60 * 1000, convertNumberWithUnits(Long.TYPE, "3d"));
+        assertEquals(2L, convertNumberWithUnits(Long.TYPE, "2000us"));
+        assertEquals(0.25, (Double) convertNumberWithUnits(Double.TYPE, "250us"), 0);
+        assertEquals(1500.0, (Double) convertNumberWithUnits(Double.TYPE, "1.5s"), 0);
+        try {
+            convertNumberWithUnits(Long.TYPE, "1500us");
+            fail("Expected NumberFormatException");
+        } catch (NumberFormatException ex) {
+            assertEquals("For input string: \"1500us\" (not a whole number of milliseconds)", ex.getMessage());
+        }
+    }
+    @Test
+    public void testNumberScannerAcceptsJavaTypeSuffixesOnFloatingPointValues() throws Exception {
+        assertEquals(2.0, (Double) convertNumber(Double.TYPE, "2d"), 0);
+        assertEquals(1.5, (Double) convertNumber(Double.TYPE, "1.5d"), 0);
+        assertEquals(1.5, (Double) convertNumber(Double.TYPE, "1.5D"), 0);
+        assertEquals(1000.5, (Double) convertNumber(Double.TYPE, "1_000.5d"), 0);
+        assertEquals(2.5f, (Float) convertNumber(Float.TYPE, "2.5f"), 0);
+        assertEquals(2.0f, (Float) convertNumber(Float.TYPE, "2d"), 0);
+        assertEquals(2.0, (Double) convertNumberWithUnits(Double.TYPE, "2d"), 0);
+        assertEquals(3L * 24 * 60 * 60 * 1000, convertNumberWithUnits(Long.TYPE, "3d")); // integral values: days
+    }
+    @Test
+    public void testNumberScannerRejectsMalformedInput() throws Exception {
+        String[] invalid = {"", "-", "_1", "1_", "1__0", "0x", "10kk", "10 k", "1.5", "12q", "0x_1"};
+        for (String value : invalid) {
+            try {
+                convertNumber(Long.TYPE, value);
+                fail("Expected NumberFormatException for '" + value + "'");
+            } catch (NumberFormatException ex) {
+                assertEquals("For input string: \"" + value + "\"", ex.getMessage());
+            }
+        }
+        try {
+            convertNumberWithUnits(Integer.TYPE, "3Gi");
+            fail("Expected NumberFormatException");
+        } catch (NumberFormatException ex) {
+            assertEquals("For input string: \"3Gi\" (out of range -2147483648..2147483647)", ex.getMessage());
+        }
+        try {
+            convertNumberWithUnits(Double.TYPE, "1_.5k");
+            fail("Expected NumberFormatException");
+        } catch (NumberFormatException ex) {
+            assertEquals("For input string: \"1_.5k\"", ex.getMessage());
+        }
+    }
+    @Test
+    public void testPrimitiveArrayUsesNumberScanner() {
+        class App { @Option(names = "-s", split = ",") long[] sizes; }
+        App app = new App();
+        new CommandLine(app).setUnitSuffixesAllowed(true).parse("-s", "1KiB,2k,0x10,1_000");
+        assertArrayEquals(new long[] {1024, 2000, 16, 1000}, app.sizes);
+        try {
+            CommandLine.populateCommand(new App(), "-s", "1KiB");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("1KiB"));
+        }
+    }
+    @Test
+    public void testISO8601DateAcceptsTimeAndOffset() throws Exception {
+        SupportedTypes bean = CommandLine.populateCommand(new SupportedTypes(), "-Date", "2017-01-30T10:15:30.5Z");
+        assertEquals(1485771330500L, bean.aDateField.getTime());
+
+        bean = CommandLine.populateCommand(new SupportedTypes(), "-Date", "2017-01-30T10:15+01:00");
+        assertEquals(1485767700000L, bean.aDateField.getTime());
+
+        bean = CommandLine.populateCommand(new SupportedTypes(), "-Date", "2017-01-30T23:59:59");
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").parse("2017-01-30T23:59:59"), bean.aDateField);
+
+        bean = CommandLine.populateCommand(new SupportedTypes(), "-Date", "2016-02-29");
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("2016-02-29"), bean.aDateField);
+    }
+    @Test
+    public void testISO8601DateRejectsInvalidFields() {
+        String[] invalid = {"2017-02-29", "2017-13-01", "2017-00-10", "2017-1-30", "2017-01-30T", "2017-01-30T24:00",
+                "2017-01-30T10:15+19:00", "2017-01-30T10:15Zx", "17-01-30"};
+        for (String value : invalid) {
+            try {
+                CommandLine.populateCommand(new SupportedTypes(), "-Date", value);
+                fail("Expected ParameterException for " + value);
+            } catch (ParameterException expected) {
+                assertEquals("'" + value + "' is not an ISO-8601 date for option '-Date'", expected.getMessage());
+            }
+        }
+    }
+    @Test
+    public void testISO8601TimeFractionIsDecimal() throws ParseException {
+        SupportedTypes bean = CommandLine.populateCommand(new SupportedTypes(), "-Time", "23:59:58.5");
+        assertEquals(new Time(new SimpleDateFormat("HH:mm:ss.SSS").parse("23:59:58.500").getTime()), bean.aTimeField);
+
+        bean = CommandLine.populateCommand(new SupportedTypes(), "-Time", "23:59:58.123456789");
+        assertEquals(new Time(new SimpleDateFormat("HH:mm:ss.SSS").parse("23:59:58.123").getTime()), bean.aTimeField);
+
+        bean = CommandLine.populateCommand(new SupportedTypes(), "-Time", "00:00Z");
+        assertEquals(0L, bean.aTimeField.getTime());
+    }
+    @Test
+    public void testJavaTimeTypesAreConverted() {
+        class App {
+            @Option(names = "-d") java.time.LocalDate date;
+            @Option(names = "-t") java.time.LocalTime time;
+            @Option(names = "-dt") java.time.LocalDateTime dateTime;
+            @Option(names = "-ot") java.time.OffsetTime offsetTime;
+            @Option(names = "-odt") java.time.OffsetDateTime offsetDateTime;
+            @Option(names = "-i") java.time.Instant instant;
+        }
+        App app = CommandLine.populateCommand(new App(), "-d", "2017-01-30", "-t", "10:15:30,123456789",
+                "-dt", "2017-01-30T10:15", "-ot", "10:15-0530", "-odt", "2017-01-30T10:15:30+02",
+                "-i", "1969-12-31T23:59:59.999Z");
+        assertEquals(java.time.LocalDate.of(2017, 1, 30), app.date);
+        assertEquals(java.time.LocalTime.of(10, 15, 30, 123456789), app.time);
+        assertEquals(java.time.LocalDateTime.of(2017, 1, 30, 10, 15), app.dateTime);
+        assertEquals(java.time.OffsetTime.parse("10:15-05:30"), app.offsetTime);
+        assertEquals(java.time.OffsetDateTime.parse("2017-01-30T10:15:30+02:00"), app.offsetDateTime);
+        assertEquals(java.time.Instant.parse("1969-12-31T23:59:59.999Z"), app.instant);
+        assertEquals(java.time.Instant.parse("0001-03-01T00:00:00Z"),
+                CommandLine.populateCommand(new App(), "-i", "0001-03-01T00:00Z").instant);
+        try {
+            CommandLine.populateCommand(new App(), "-i", "2017-01-30T10:15");
+            fail("Expected ParameterException");
+        } catch (ParameterException expected) {
+            assertEquals("'2017-01-30T10:15' is not an ISO-8601 Instant for option '-i'", expected.getMessage());
+        }
+    }
+    /** Resolves host names to a fixed address, and blocks until the expected number of lookups are in progress. */
+    static class StandInResolver implements IBlockingTypeConverter<InetAddress> {
+        final CountDownLatch inProgress;
+        StandInResolver(int concurrentLookups) { inProgress = new CountDownLatch(concurrentLookups); }
+        public InetAddress convert(String name) throws Exception {
+            inProgress.countDown();
+            if (!inProgress.await(10, SECONDS)) { throw new IllegalStateException("lookups were not concurrent"); }
+            if (name.startsWith("bad")) { throw new UnknownHostException(name); }
+            return InetAddress.getByAddress(name, new byte[] {10, 0, 0, (byte) name.length()});
+        }
+    }
+    static class Hosts {
+        @Option(names = "--hosts", split = ",", type = InetAddress.class) List<InetAddress> hosts;
+        @Parameters InetAddress[] more;
+    }
+    @Test
+    public void testBlockingConverterConvertsValuesConcurrentlyInArgumentOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Hosts hosts = new Hosts();
+            new CommandLine(hosts).registerConverter(InetAddress.class, new StandInResolver(4))
+                    .setConversionExecutor(executor).parse("--hosts", "a,bb,ccc,dddd");
+            assertEquals(4, hosts.hosts.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(i + 1, hosts.hosts.get(i).getAddress()[3]);
+                assertEquals("abcd".substring(i, i + 1), hosts.hosts.get(i).getHostName().substring(0, 1));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    @Test
+    public void testBlockingConverterReportsFirstErrorInArgumentOrder() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            new CommandLine(new Hosts()).registerConverter(InetAddress.class, new StandInResolver(3))
+                    .setConversionExecutor(executor).parse("a", "bad1", "bad2");
+            fail("Expected ParameterException");
+        } catch (ParameterException ex) {
+            assertEquals("Could not convert 'bad1' to InetAddress[] for positional parameter at index 0..* (more)" +
+                    ": java.net.UnknownHostException: bad1", ex.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    @Test
+    public void testBuiltInInetAddressConverterIsBlocking() throws Exception {
+        assertTrue(new CommandLine(new Hosts()).converterFor(InetAddress.class) instanceof IBlockingTypeConverter);
+        Hosts hosts = CommandLine.populateCommand(new Hosts(), "--hosts", "127.0.0.1,::1");
+        assertEquals(Arrays.asList(InetAddress.getByName("127.0.0.1"), InetAddress.getByName("::1")), hosts.hosts);
+        hosts = CommandLine.populateCommand(new Hosts(), "192.168.0.1", "10.1.2.3");
+        assertArrayEquals(new InetAddress[] {InetAddress.getByName("192.168.0.1"), InetAddress.getByName("10.1.2.3")}, hosts.more);
+    }
+    @Test
+    public void testConversionExecutorIsInheritedBySubcommands() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CommandLine commandLine = new CommandLine(new Hosts()).addSubcommand("sub", new Hosts());
+            assertNull(commandLine.getConversionExecutor());
+            commandLine.setConversionExecutor(executor);
+            assertSame(executor, commandLine.getSubcommands().get("sub").getConversionExecutor());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    static class CountingConverter implements ITypeConverter<Pattern> {
+        final AtomicInteger calls = new AtomicInteger();
+        public Pattern convert(String value) {
+            calls.incrementAndGet();
+            return Pattern.compile(value);
+        }
+    }
+    static class LazyApp {
+        @Option(names = "-p", type = Pattern.class) Lazy<Pattern> pattern = Lazy.of(Pattern.compile("default"));
+        @Option(names = "-n", type = BigDecimal.class) Lazy<BigDecimal> number;
+        @Parameters(arity = "0..1", type = Integer.class) Lazy<Integer> count;
+    }
+    @Test
+    public void testLazyValueIsConvertedOnceOnFirstAccess() {
+        LazyApp app = new LazyApp();
+        CountingConverter converter = new CountingConverter();
+        new CommandLine(app).registerConverter(Pattern.class, converter).parse("-p", "a+b", "-n", "1.5", "3");
+        assertEquals(0, converter.calls.get());
+        assertFalse(app.pattern.isConverted());
+        assertEquals("a+b", app.pattern.getRawValue());
+        assertEquals("a+b", app.pattern.get().pattern());
+        assertSame(app.pattern.get(), app.pattern.get());
+        assertEquals(1, converter.calls.get());
+        assertTrue(app.pattern.isConverted());
+        assertEquals(new BigDecimal("1.5"), app.number.get());
+        assertEquals(Integer.valueOf(3), app.count.get());
+    }
+    @Test
+    public void testLazyValueDefault() {
+        LazyApp app = CommandLine.populateCommand(new LazyApp());
+        assertEquals("default", app.pattern.get().pattern());
+        assertNull(app.pattern.getRawValue());
+        assertTrue(app.pattern.isConverted());
+        assertEquals("default", app.pattern.toString());
+        assertNull(app.number);
+    }
+    @Test
+    public void testLazyValueConversionErrorDescribesOption() {
+        LazyApp app = CommandLine.populateCommand(new LazyApp(), "-n", "abc"); // parsing succeeds
+        String expected = "Could not convert 'abc' to BigDecimal for option '-n': java.lang.NumberFormatException";
+        for (int i = 0; i < 2; i++) { // the same error is thrown on each access
+            try {
+                app.number.get();
+                fail("Expected ParameterException");
+            } catch (ParameterException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith(expected));
+            }
+        }
+        assertEquals("abc", app.number.toString());
+    }
+    @Test
+    public void testLazyValueIsConvertedOnceByConcurrentReaders() throws Exception {
+        LazyApp app = new LazyApp();
+        final CountingConverter converter = new CountingConverter();
+        new CommandLine(app).registerConverter(Pattern.class, converter).parse("-p", "x*");
+        final Lazy<Pattern> pattern = app.pattern;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Pattern>> futures = new ArrayList<Future<Pattern>>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(new Callable<Pattern>() {
+                    public Pattern call() { return pattern.get(); }
+                }));
+            }
+            for (Future<Pattern> future : futures) {
+                assertSame(pattern.get(), future.get());
+            }
+            assertEquals(1, converter.calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    @Test
+    public void testLazyValueWithoutConverterFailsWhenParsing() {
+        class App { @Option(names = "-x", type = Socket.class) Lazy<Socket> socket; }
+        try {
+            CommandLine.populateCommand(new App(), "-x", "abc");
+            fail("Expected MissingTypeConverterException");
+        } catch (MissingTypeConverterException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("java.net.Socket"));
+        }
+    }
 }
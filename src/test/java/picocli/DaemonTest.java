@@ -0,0 +1,244 @@
+/*
+   Copyright 2017 Remko Popma
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package picocli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import static java.lang.String.format;
+import static org.junit.Assert.*;
+
+/**
+ * Tests running commands in a {@link Daemon} over a loopback socket.
+ */
+public class DaemonTest {
+    @Command(name = "greet")
+    public static class Greet implements Runnable {
+        @Option(names = "-n", arity = "1", description = "number of greetings") int count = 1;
+        @Option(names = "-h", usageHelp = true) boolean help;
+        @Parameters String name;
+        public void run() {
+            for (int i = 0; i < count; i++) { System.out.println("hello " + name); }
+            System.err.println("done");
+        }
+    }
+    @Command(name = "env")
+    public static class Env implements Callable<Integer> {
+        @Parameters String variable;
+        public Integer call() {
+            Daemon.Request request = Daemon.currentRequest();
+            request.out().println(request.environment().get(variable));
+            request.out().println(request.workingDirectory().getPath());
+            return 42;
+        }
+    }
+    @Command(name = "fail")
+    public static class Fail implements Runnable {
+        public void run() { throw new IllegalStateException("broken"); }
+    }
+    @Command
+    public static class Unnamed implements Runnable {
+        @Option(names = "-x") boolean x;
+        public void run() { }
+    }
+
+    private Daemon daemon;
+
+    @Before
+    public void startDaemon() throws IOException {
+        daemon = new Daemon(0).register(Greet.class).register(Env.class).register(Fail.class).start();
+    }
+
+    @After
+    public void closeDaemon() {
+        daemon.close();
+    }
+
+    private static class Output {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exitCode;
+    }
+
+    private Output send(String command, Map<String, String> environment, String... args) throws IOException {
+        Output result = new Output();
+        result.exitCode = Daemon.send(daemon.getPort(), daemon.getToken(), command, args, environment,
+                new File("/some/dir"), result.out, result.err);
+        return result;
+    }
+
+    @Test
+    public void testRunsCommandAndStreamsOutput() throws IOException {
+        Output output = send("greet", Collections.<String, String>emptyMap(), "-n", "2", "world");
+        assertEquals(Daemon.EXIT_OK, output.exitCode);
+        assertEquals(format("hello world%nhello world%n"), output.out.toString());
+        assertEquals(format("done%n"), output.err.toString());
+    }
+
+    @Test
+    public void testCallableResultIsExitCodeAndRequestHasEnvironment() throws IOException {
+        Output output = send("env", Collections.singletonMap("GREETING", "hi"), "GREETING");
+        assertEquals(42, output.exitCode);
+        assertEquals(format("hi%n%s%n", new File("/some/dir").getAbsolutePath()), output.out.toString());
+        assertNull(Daemon.currentRequest());
+    }
+
+    @Test
+    public void testInvalidCommandLinePrintsUsage() throws IOException {
+        Output output = send("greet", Collections.<String, String>emptyMap(), "-n");
+        assertEquals(Daemon.EXIT_INVALID_INPUT, output.exitCode);
+        assertEquals("", output.out.toString());
+        assertTrue(output.err.toString(), output.err.toString().startsWith(
+                format("Missing required parameter for option '-n' (count)%nUsage: greet")));
+    }
+
+    @Test
+    public void testUsageHelp() throws IOException {
+        Output output = send("greet", Collections.<String, String>emptyMap(), "-h");
+        assertEquals(Daemon.EXIT_OK, output.exitCode);
+        assertTrue(output.out.toString(), output.out.toString().startsWith("Usage: greet"));
+    }
+
+    @Test
+    public void testUnknownCommand() throws IOException {
+        Output output = send("nope", Collections.<String, String>emptyMap());
+        assertEquals(Daemon.EXIT_INVALID_INPUT, output.exitCode);
+        assertEquals(format("Unknown command: nope%n"), output.err.toString());
+    }
+
+    @Test
+    public void testExceptionInCommand() throws IOException {
+        Output output = send("fail", Collections.<String, String>emptyMap());
+        assertEquals(Daemon.EXIT_FAILED, output.exitCode);
+        assertTrue(output.err.toString(), output.err.toString().startsWith("java.lang.IllegalStateException: broken"));
+    }
+
+    @Test
+    public void testRejectsWrongToken() {
+        try {
+            Daemon.send(daemon.getPort(), "wrong", "greet", new String[] {"x"}, Collections.<String, String>emptyMap(),
+                    new File("."), new ByteArrayOutputStream(), new ByteArrayOutputStream());
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            assertEquals("Daemon closed the connection before greet completed", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testTokenIsReadNoLongerThanValidToken() throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(null), daemon.getPort());
+        try {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(16 * 1024 * 1024); // a token this long is not read
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testClientThatSendsNoRequestIsDisconnected() throws IOException {
+        daemon.requestTimeout(100);
+        Socket socket = new Socket(InetAddress.getByName(null), daemon.getPort());
+        try {
+            socket.setSoTimeout(5000);
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testArgumentFilesAreNotExpanded() throws IOException {
+        File file = File.createTempFile("picocli", ".args");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("-n 2 file".getBytes());
+        out.close();
+        Output output = send("greet", Collections.<String, String>emptyMap(), "@" + file.getPath());
+        assertEquals(Daemon.EXIT_OK, output.exitCode);
+        assertEquals(format("hello @%s%n", file.getPath()), output.out.toString());
+    }
+
+    @Test
+    public void testConcurrentRequestsAreIsolated() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Output>> futures = new ArrayList<Future<Output>>();
+            for (int i = 0; i < 32; i++) {
+                final String name = "client" + i;
+                futures.add(clients.submit(new Callable<Output>() {
+                    public Output call() throws IOException {
+                        return send("greet", Collections.<String, String>emptyMap(), "-n", "3", name);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Output output = futures.get(i).get();
+                assertEquals(Daemon.EXIT_OK, output.exitCode);
+                String hello = format("hello client%d%n", i);
+                assertEquals(hello + hello + hello, output.out.toString());
+            }
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testRegisterRequiresCommandName() {
+        try {
+            daemon.register(Unnamed.class);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertEquals(Unnamed.class.getName() + " has no @Command(name = \"...\") annotation", ex.getMessage());
+        }
+        daemon.register("unnamed", Unnamed.class);
+        assertTrue(daemon.getCommandNames().contains("unnamed"));
+    }
+
+    @Test
+    public void testCloseRestoresSystemStreams() throws IOException {
+        daemon.close();
+        java.io.PrintStream original = System.out;
+        Daemon other = new Daemon(0).start();
+        assertNotSame(original, System.out);
+        other.close();
+        assertSame(original, System.out);
+    }
+}